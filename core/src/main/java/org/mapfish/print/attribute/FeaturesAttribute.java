@@ -24,11 +24,14 @@ import org.mapfish.print.config.Configuration;
 import org.mapfish.print.config.Template;
 import org.mapfish.print.http.MfClientHttpRequestFactory;
 import org.mapfish.print.map.geotools.FeaturesParser;
+import org.mapfish.print.map.geotools.RemoteFeaturesCache;
 import org.mapfish.print.parser.HasDefaultValue;
 import org.opengis.referencing.FactoryException;
+import org.springframework.beans.factory.annotation.Autowired;
 
 import java.io.IOException;
 import java.util.List;
+import javax.annotation.Nullable;
 
 /**
  * Attribute for GeoJson feature collection.
@@ -37,6 +40,9 @@ import java.util.List;
  */
 public final class FeaturesAttribute extends ReflectiveAttribute<FeaturesAttribute.FeaturesAttributeValues> {
 
+    @Autowired
+    private RemoteFeaturesCache remoteFeaturesCache;
+
     @Override
     protected Class<FeaturesAttributeValues> getValueType() {
         return FeaturesAttributeValues.class;
@@ -44,7 +50,7 @@ public final class FeaturesAttribute extends ReflectiveAttribute<FeaturesAttribu
 
     @Override
     public FeaturesAttributeValues createValue(final Template template) {
-        return new FeaturesAttributeValues(template);
+        return new FeaturesAttributeValues(template, this.remoteFeaturesCache);
     }
 
 
@@ -58,6 +64,7 @@ public final class FeaturesAttribute extends ReflectiveAttribute<FeaturesAttribu
      */
     public static final class FeaturesAttributeValues {
         private final Template template;
+        private final RemoteFeaturesCache remoteFeaturesCache;
         private SimpleFeatureCollection featuresCollection;
 
         /**
@@ -78,7 +85,18 @@ public final class FeaturesAttribute extends ReflectiveAttribute<FeaturesAttribu
          * @param template the template this map is part of.
          */
         public FeaturesAttributeValues(final Template template) {
+            this(template, null);
+        }
+
+        /**
+         * Constructor.
+         *
+         * @param template            the template this map is part of.
+         * @param remoteFeaturesCache the cache of the features downloaded from http urls, can be null.
+         */
+        public FeaturesAttributeValues(final Template template, @Nullable final RemoteFeaturesCache remoteFeaturesCache) {
             this.template = template;
+            this.remoteFeaturesCache = remoteFeaturesCache;
         }
 
         /**
@@ -90,7 +108,7 @@ public final class FeaturesAttribute extends ReflectiveAttribute<FeaturesAttribu
                 FactoryException, IOException {
             if (this.featuresCollection == null) {
                 final boolean forceLongitudeFirst = this.longitudeFirst == null ? false : this.longitudeFirst;
-                final FeaturesParser parser = new FeaturesParser(httpRequestFactory, forceLongitudeFirst);
+                final FeaturesParser parser = new FeaturesParser(httpRequestFactory, forceLongitudeFirst, this.remoteFeaturesCache);
                 this.featuresCollection = parser.autoTreat(this.template, this.features);
             }
             return this.featuresCollection;
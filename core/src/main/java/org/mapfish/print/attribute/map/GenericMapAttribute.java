@@ -32,6 +32,7 @@ import org.mapfish.print.config.Configuration;
 import org.mapfish.print.config.ConfigurationException;
 import org.mapfish.print.config.Template;
 import org.mapfish.print.map.MapLayerFactoryPlugin;
+import org.mapfish.print.map.MapLayerFactoryPluginRegistry;
 import org.mapfish.print.parser.HasDefaultValue;
 import org.mapfish.print.parser.MapfishParser;
 import org.mapfish.print.wrapper.PArray;
@@ -40,11 +41,9 @@ import org.opengis.referencing.FactoryException;
 import org.opengis.referencing.NoSuchAuthorityCodeException;
 import org.opengis.referencing.crs.CoordinateReferenceSystem;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.context.ApplicationContext;
 
 import java.awt.Dimension;
 import java.util.List;
-import java.util.Map;
 
 /**
  * Generic attributes for {@link org.mapfish.print.processor.map.CreateMapProcessor} and
@@ -74,7 +73,7 @@ public abstract class GenericMapAttribute<GenericMapAttributeValues>
     static final String JSON_ZOOM_LEVEL_SUGGESTIONS = "scales";
 
     @Autowired
-    private ApplicationContext applicationContext;
+    private MapLayerFactoryPluginRegistry mapLayerFactoryPluginRegistry;
     @Autowired
     private MapfishParser mapfishJsonParser;
 
@@ -312,46 +311,40 @@ public abstract class GenericMapAttribute<GenericMapAttributeValues>
         private void parseSingleLayer(final List<MapLayer> layerList,
                                       final PObject layer) throws Throwable {
 
-            final Map<String, MapLayerFactoryPlugin> layerParsers =
-                    GenericMapAttribute.this.applicationContext.getBeansOfType(MapLayerFactoryPlugin.class);
-            for (MapLayerFactoryPlugin layerParser : layerParsers.values()) {
-                final boolean layerApplies = layerParser.getTypeNames().contains(layer.getString(TYPE).toLowerCase());
-                if (layerApplies) {
-                    Object param = layerParser.createParameter();
-
-                    GenericMapAttribute.this.mapfishJsonParser.parse(this.template.getConfiguration()
-                                    .isThrowErrorOnExtraParameters(),
-                            layer, param, TYPE
-                    );
-
-                    final MapLayer newLayer = layerParser.parse(this.template, param);
-                    if (layerList.isEmpty()) {
-                        layerList.add(newLayer);
-                    } else {
-                        final int lastLayerIndex = layerList.size() - 1;
-                        final MapLayer lastLayer = layerList.get(lastLayerIndex);
-                        Optional<MapLayer> combinedLayer = lastLayer.tryAddLayer(newLayer);
-                        if (combinedLayer.isPresent()) {
-                            layerList.remove(lastLayerIndex);
-                            layerList.add(lastLayerIndex, combinedLayer.get());
-                        } else {
-                            layerList.add(newLayer);
-                        }
-                    }
-                    return;
-                }
-            }
-
-            StringBuilder message = new StringBuilder("\nLayer with type: '" + layer.getString(TYPE) + "' is not currently " +
-                                                      "supported.  Options include: ");
-            for (MapLayerFactoryPlugin<?> mapLayerFactoryPlugin : layerParsers.values()) {
-                for (Object name : mapLayerFactoryPlugin.getTypeNames()) {
+            final MapLayerFactoryPluginRegistry registry = GenericMapAttribute.this.mapLayerFactoryPluginRegistry;
+            final MapLayerFactoryPlugin layerParser = registry.get(layer.getString(TYPE));
+            if (layerParser == null) {
+                StringBuilder message = new StringBuilder("\nLayer with type: '" + layer.getString(TYPE) + "' is not currently " +
+                                                          "supported.  Options include: ");
+                for (String name : registry.getTypeNames()) {
                     message.append("\n");
                     message.append("\t* ").append(name);
                 }
+
+                throw new IllegalArgumentException(message.toString());
             }
 
-            throw new IllegalArgumentException(message.toString());
+            Object param = layerParser.createParameter();
+
+            GenericMapAttribute.this.mapfishJsonParser.parse(this.template.getConfiguration()
+                            .isThrowErrorOnExtraParameters(),
+                    layer, param, TYPE
+            );
+
+            final MapLayer newLayer = layerParser.parse(this.template, param);
+            if (layerList.isEmpty()) {
+                layerList.add(newLayer);
+            } else {
+                final int lastLayerIndex = layerList.size() - 1;
+                final MapLayer lastLayer = layerList.get(lastLayerIndex);
+                Optional<MapLayer> combinedLayer = lastLayer.tryAddLayer(newLayer);
+                if (combinedLayer.isPresent()) {
+                    layerList.remove(lastLayerIndex);
+                    layerList.add(lastLayerIndex, combinedLayer.get());
+                } else {
+                    layerList.add(newLayer);
+                }
+            }
         }
 
         /**
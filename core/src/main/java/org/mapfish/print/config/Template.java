@@ -76,6 +76,8 @@ public class Template implements ConfigurationObject, HasConfiguration {
     private PDFConfig pdfConfig = new PDFConfig();
     private String tableDataKey;
     private String outputFilename;
+    private Integer virtualizerMaxPages;
+    private int streamingBatchSize = 0;
 
     /**
      * The default output file name of the report (takes precedence over
@@ -212,6 +214,46 @@ public class Template implements ConfigurationObject, HasConfiguration {
         return this.tableDataKey;
     }
 
+    /**
+     * The number of pages of the report kept in memory while it is filled and exported, the other pages are swapped to a file
+     * in the task directory.  Useful for big reports like atlases or long tables.  0 disables the swapping, if not set the
+     * value of the output format is used.
+     *
+     * @param virtualizerMaxPages the number of pages.
+     */
+    public final void setVirtualizerMaxPages(final Integer virtualizerMaxPages) {
+        this.virtualizerMaxPages = virtualizerMaxPages;
+    }
+
+    public final Integer getVirtualizerMaxPages() {
+        return this.virtualizerMaxPages;
+    }
+
+    /**
+     * Stream the report (for example an atlas) by batches of rows of the table data (see {@link #setTableDataKey(String)}): the
+     * rows of a batch are filled and written to the output as soon as the previous batch is written, and the pages and images
+     * of a batch are released once they are written.  Only supported by the PDF output format and when the table data is a
+     * collection (for example the output of a !createDataSource processor).
+     * <p></p>
+     * Each batch is filled as a separate report, so each batch starts on a new page: in a table-like report the last page of
+     * each batch is only partially filled.  A report is not streamed, and a warning is logged, when it has a title or a
+     * summary band or groups, when it has variables calculated on the whole report (sums, counts...) or uses the row numbers
+     * (REPORT_COUNT), or when it or one of its sub-reports uses the page numbers (for example "Page X of Y").  The processors
+     * of all the rows are still run before the first batch is filled, streaming only bounds the memory used by the filled
+     * pages.
+     * <p></p>
+     * Default is 0, the whole report is filled before being written.
+     *
+     * @param streamingBatchSize the number of rows per batch.
+     */
+    public final void setStreamingBatchSize(final int streamingBatchSize) {
+        this.streamingBatchSize = streamingBatchSize;
+    }
+
+    public final int getStreamingBatchSize() {
+        return this.streamingBatchSize;
+    }
+
     public final String getJdbcUrl() {
         return this.jdbcUrl;
     }
@@ -299,6 +341,11 @@ public class Template implements ConfigurationObject, HasConfiguration {
         if (numberOfTableConfigurations > 1) {
             validationErrors.add(new ConfigurationException("Only one of 'iterValue' or 'tableData' or 'jdbcUrl' should be defined."));
         }
+        if (this.streamingBatchSize < 0) {
+            validationErrors.add(new ConfigurationException("streamingBatchSize must be >= 0, was: " + this.streamingBatchSize));
+        } else if (this.streamingBatchSize > 0 && this.tableDataKey == null) {
+            validationErrors.add(new ConfigurationException("streamingBatchSize requires 'tableData' to be defined."));
+        }
 
         for (Processor processor : this.processors) {
             processor.validate(validationErrors, config);
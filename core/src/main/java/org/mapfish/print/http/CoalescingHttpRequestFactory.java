@@ -0,0 +1,251 @@
+/*
+ * Copyright (C) 2014  Camptocamp
+ *
+ * This file is part of MapFish Print
+ *
+ * MapFish Print is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MapFish Print is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MapFish Print.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.mapfish.print.http;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.SettableFuture;
+import jsr166y.ForkJoinPool;
+import org.mapfish.print.ExceptionUtils;
+import org.mapfish.print.processor.http.matcher.UriMatchers;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.client.AbstractClientHttpRequest;
+import org.springframework.http.client.ClientHttpRequest;
+import org.springframework.http.client.ClientHttpResponse;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * A request factory wrapper that coalesces the identical GET requests executed at the same time, by all the print jobs.
+ * <p></p>
+ * While a GET request for a URI (with the same headers) is in flight, the other callers wait for its result instead of
+ * sending a new request.  The response body is buffered in memory and each caller gets its own copy of the response.
+ */
+public final class CoalescingHttpRequestFactory extends AbstractMfClientHttpRequestFactoryWrapper {
+    private static final ConcurrentMap<String, SettableFuture<BufferedResponse>> IN_FLIGHT =
+            new ConcurrentHashMap<String, SettableFuture<BufferedResponse>>();
+
+    private final String keyPrefix;
+    private final MetricRegistry metricRegistry;
+
+    /**
+     * Constructor.
+     *
+     * @param wrappedFactory the request factory to be wrapped.
+     * @param matchers       the matchers used to select the requests to coalesce.
+     * @param keyPrefix      a prefix for the keys of the requests, the requests can only be coalesced with the requests
+     *                       having the same prefix (for example the ones of the same configuration).
+     * @param metricRegistry the registry used to count the coalesced requests.
+     */
+    public CoalescingHttpRequestFactory(final MfClientHttpRequestFactory wrappedFactory, final UriMatchers matchers,
+                                        final String keyPrefix, final MetricRegistry metricRegistry) {
+        super(wrappedFactory, matchers, false);
+        this.keyPrefix = keyPrefix;
+        this.metricRegistry = metricRegistry;
+    }
+
+    @Override
+    protected ClientHttpRequest createRequest(final URI uri,
+                                              final HttpMethod httpMethod,
+                                              final MfClientHttpRequestFactory requestFactory) throws IOException {
+        final ClientHttpRequest request = requestFactory.createRequest(uri, httpMethod);
+        if (httpMethod != HttpMethod.GET) {
+            return request;
+        }
+        return new CoalescingRequest(request);
+    }
+
+    private final class CoalescingRequest extends AbstractClientHttpRequest {
+        private final ClientHttpRequest request;
+
+        private CoalescingRequest(final ClientHttpRequest request) {
+            this.request = request;
+        }
+
+        @Override
+        public HttpMethod getMethod() {
+            return this.request.getMethod();
+        }
+
+        @Override
+        public URI getURI() {
+            return this.request.getURI();
+        }
+
+        @Override
+        protected OutputStream getBodyInternal(final HttpHeaders headers) throws IOException {
+            return this.request.getBody();
+        }
+
+        @Override
+        protected ClientHttpResponse executeInternal(final HttpHeaders headers) throws IOException {
+            this.request.getHeaders().putAll(headers);
+            final String key = createKey();
+
+            final SettableFuture<BufferedResponse> future = SettableFuture.create();
+            final SettableFuture<BufferedResponse> inFlight = IN_FLIGHT.putIfAbsent(key, future);
+            if (inFlight != null) {
+                CoalescingHttpRequestFactory.this.metricRegistry.counter(
+                        CoalescingHttpRequestFactory.class.getName() + ".coalesced").inc();
+                return waitFor(inFlight).copy();
+            }
+
+            try {
+                final BufferedResponse response = BufferedResponse.read(this.request.execute());
+                future.set(response);
+                return response.copy();
+            } catch (IOException e) {
+                future.setException(e);
+                throw e;
+            } catch (RuntimeException e) {
+                future.setException(e);
+                throw e;
+            } finally {
+                IN_FLIGHT.remove(key, future);
+            }
+        }
+
+        private BufferedResponse waitFor(final SettableFuture<BufferedResponse> inFlight) throws IOException {
+            try {
+                if (!inFlight.isDone()) {
+                    // let the fork join pool compensate the worker waiting for the other caller
+                    ForkJoinPool.managedBlock(new ForkJoinPool.ManagedBlocker() {
+                        @Override
+                        public boolean block() throws InterruptedException {
+                            try {
+                                inFlight.get();
+                            } catch (ExecutionException e) {
+                                // reported by the inFlight.get() below
+                            }
+                            return true;
+                        }
+
+                        @Override
+                        public boolean isReleasable() {
+                            return inFlight.isDone();
+                        }
+                    });
+                }
+                return inFlight.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for " + getURI());
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException) {
+                    throw new IOException(e.getCause());
+                }
+                throw ExceptionUtils.getRuntimeException(e.getCause());
+            }
+        }
+
+        private String createKey() {
+            final StringBuilder key = new StringBuilder(CoalescingHttpRequestFactory.this.keyPrefix);
+            key.append('\n').append(getURI());
+            final Map<String, List<String>> sortedHeaders = new TreeMap<String, List<String>>();
+            for (Map.Entry<String, List<String>> entry : this.request.getHeaders().entrySet()) {
+                sortedHeaders.put(entry.getKey().toLowerCase(Locale.ROOT), entry.getValue());
+            }
+            for (Map.Entry<String, List<String>> entry : sortedHeaders.entrySet()) {
+                key.append('\n').append(entry.getKey()).append(": ").append(entry.getValue());
+            }
+            return key.toString();
+        }
+    }
+
+    /**
+     * A response fully read in memory that can be copied for all the callers.
+     */
+    private static final class BufferedResponse implements ClientHttpResponse {
+        private final int rawStatusCode;
+        private final String statusText;
+        private final HttpHeaders headers;
+        private final byte[] body;
+        private InputStream bodyStream;
+
+        private BufferedResponse(final int rawStatusCode, final String statusText, final HttpHeaders headers,
+                                 final byte[] body) {
+            this.rawStatusCode = rawStatusCode;
+            this.statusText = statusText;
+            this.headers = new HttpHeaders();
+            this.headers.putAll(headers);
+            this.body = body;
+        }
+
+        static BufferedResponse read(final ClientHttpResponse response) throws IOException {
+            try {
+                return new BufferedResponse(response.getRawStatusCode(), response.getStatusText(),
+                        response.getHeaders(), ByteStreams.toByteArray(response.getBody()));
+            } finally {
+                response.close();
+            }
+        }
+
+        BufferedResponse copy() {
+            return new BufferedResponse(this.rawStatusCode, this.statusText, this.headers, this.body);
+        }
+
+        @Override
+        public HttpStatus getStatusCode() throws IOException {
+            return HttpStatus.valueOf(this.rawStatusCode);
+        }
+
+        @Override
+        public int getRawStatusCode() throws IOException {
+            return this.rawStatusCode;
+        }
+
+        @Override
+        public String getStatusText() throws IOException {
+            return this.statusText;
+        }
+
+        @Override
+        public HttpHeaders getHeaders() {
+            return this.headers;
+        }
+
+        @Override
+        public synchronized InputStream getBody() throws IOException {
+            if (this.bodyStream == null) {
+                this.bodyStream = new ByteArrayInputStream(this.body);
+            }
+            return this.bodyStream;
+        }
+
+        @Override
+        public void close() {
+            // nothing to release, the body is in memory
+        }
+    }
+}
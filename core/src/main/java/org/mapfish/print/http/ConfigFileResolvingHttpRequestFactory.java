@@ -22,6 +22,7 @@ package org.mapfish.print.http;
 import com.google.common.collect.Lists;
 import com.vividsolutions.jts.util.Assert;
 import org.mapfish.print.config.Configuration;
+import org.mapfish.print.metrics.ExecutionTrace;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.http.HttpHeaders;
@@ -39,6 +40,7 @@ import java.net.URI;
 import java.util.List;
 import java.util.NoSuchElementException;
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 
 /**
  * This request factory will attempt to load resources using {@link org.mapfish.print.config.Configuration#loadFile(String)}
@@ -52,6 +54,7 @@ public final class ConfigFileResolvingHttpRequestFactory implements MfClientHttp
     private final Configuration config;
     private final MfClientHttpRequestFactoryImpl httpRequestFactory;
     private final List<RequestConfigurator> callbacks = Lists.newCopyOnWriteArrayList();
+    private final ExecutionTrace trace;
 
     /**
      * Constructor.
@@ -61,8 +64,22 @@ public final class ConfigFileResolvingHttpRequestFactory implements MfClientHttp
      */
     public ConfigFileResolvingHttpRequestFactory(final MfClientHttpRequestFactoryImpl httpRequestFactory,
                                                  final Configuration config) {
+        this(httpRequestFactory, config, null);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param httpRequestFactory basic request factory
+     * @param config             the template for the current print job.
+     * @param trace              the trace of the current print job, the http requests are added to it.
+     */
+    public ConfigFileResolvingHttpRequestFactory(final MfClientHttpRequestFactoryImpl httpRequestFactory,
+                                                 final Configuration config,
+                                                 @Nullable final ExecutionTrace trace) {
         this.httpRequestFactory = httpRequestFactory;
         this.config = config;
+        this.trace = trace;
     }
 
     @Override
@@ -133,7 +150,13 @@ public final class ConfigFileResolvingHttpRequestFactory implements MfClientHttp
                 callback.configureRequest(requestToExecute);
             }
 
-            return requestToExecute.execute();
+            final ExecutionTrace.Span span = ExecutionTrace.start(ConfigFileResolvingHttpRequestFactory.this.trace, "http",
+                    requestToExecute.getMethod() + " " + requestToExecute.getURI());
+            try {
+                return requestToExecute.execute();
+            } finally {
+                span.end();
+            }
         }
 
         @Override
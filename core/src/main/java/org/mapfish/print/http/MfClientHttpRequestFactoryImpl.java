@@ -19,23 +19,44 @@
 
 package org.mapfish.print.http;
 
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
 import com.google.common.io.Closer;
+import jsr166y.ForkJoinPool;
+import jsr166y.ForkJoinTask;
 import org.apache.http.Header;
 import org.apache.http.HeaderElement;
+import org.apache.http.HttpClientConnection;
 import org.apache.http.HttpEntity;
 import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpHost;
 import org.apache.http.HttpResponse;
 import org.apache.http.client.HttpClient;
+import org.apache.http.client.config.RequestConfig;
 import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+import org.apache.http.conn.ConnectionRequest;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.conn.socket.PlainConnectionSocketFactory;
+import org.apache.http.entity.BufferedHttpEntity;
 import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.HttpEntityWrapper;
 import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
 import org.apache.http.impl.client.HttpClientBuilder;
 import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
 import org.apache.http.protocol.HTTP;
 import org.apache.http.protocol.HttpContext;
+import org.mapfish.print.ExceptionUtils;
 import org.mapfish.print.config.Configuration;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpMethod;
 import org.springframework.http.client.AbstractClientHttpRequest;
@@ -44,24 +65,65 @@ import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
 import java.net.URI;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import javax.annotation.PostConstruct;
 
 /**
  * Default implementation.
+ * <p></p>
+ * The connections are kept in a pool whose size, keep alive, idle eviction and timeouts can be configured in the spring
+ * application context.  The pool statistics are reported in the {@link MetricRegistry}.
+ * <p></p>
+ * If {@link #setIoThreads(int)} is set, the requests are executed by a dedicated thread pool and the calling thread waits with
+ * a {@link ForkJoinPool.ManagedBlocker}, so the processors and layers waiting on the network don't starve the fork join pool
+ * used for the CPU work.  The small responses are read by the I/O threads as well.
  *
  * @author Jesse on 9/3/2014.
  */
 public class MfClientHttpRequestFactoryImpl extends HttpComponentsClientHttpRequestFactory {
     private static final Logger LOGGER = LoggerFactory.getLogger(MfClientHttpRequestFactoryImpl.class);
     private static final ThreadLocal<Configuration> CURRENT_CONFIGURATION = new InheritableThreadLocal<Configuration>();
+    private static final int DEFAULT_MAX_CONNECTIONS_TOTAL = 200;
+    private static final int DEFAULT_MAX_CONNECTIONS_PER_ROUTE = 50;
+    private static final int DEFAULT_KEEP_ALIVE_DURATION = 30;
+    private static final int DEFAULT_IDLE_TIMEOUT = 60;
+    private static final int HTTP_PORT = 80;
+    private static final int HTTPS_PORT = 443;
+    private static final long MAX_BUFFERED_RESPONSE_SIZE = 4 * 1024 * 1024;
+
+    private final InstrumentedConnectionManager connectionManager;
+    private final KeepAliveStrategy keepAliveStrategy;
+    private volatile RequestConfig requestConfig = RequestConfig.DEFAULT;
+    private int idleTimeout = DEFAULT_IDLE_TIMEOUT;
+    private ScheduledExecutorService idleConnectionEvictor;
+    private int ioThreads = 0;
+    private ThreadPoolExecutor ioExecutor;
+
+    @Autowired(required = false)
+    private MetricRegistry metricRegistry;
 
     @Nullable
     static Configuration getCurrentConfiguration() {
@@ -72,17 +134,228 @@ public class MfClientHttpRequestFactoryImpl extends HttpComponentsClientHttpRequ
      * Constructor.
      */
     public MfClientHttpRequestFactoryImpl() {
-        super(createHttpClient());
+        this(new InstrumentedConnectionManager(), new KeepAliveStrategy());
     }
 
-    private static CloseableHttpClient createHttpClient() {
+    private MfClientHttpRequestFactoryImpl(final InstrumentedConnectionManager connectionManager,
+                                           final KeepAliveStrategy keepAliveStrategy) {
+        super(createHttpClient(connectionManager, keepAliveStrategy));
+        this.connectionManager = connectionManager;
+        this.keepAliveStrategy = keepAliveStrategy;
+        this.connectionManager.setMaxTotal(DEFAULT_MAX_CONNECTIONS_TOTAL);
+        this.connectionManager.setDefaultMaxPerRoute(DEFAULT_MAX_CONNECTIONS_PER_ROUTE);
+    }
+
+    private static CloseableHttpClient createHttpClient(final PoolingHttpClientConnectionManager connectionManager,
+                                                        final ConnectionKeepAliveStrategy keepAliveStrategy) {
         final HttpClientBuilder httpClientBuilder = HttpClients.custom().
+                setConnectionManager(connectionManager).
+                setKeepAliveStrategy(keepAliveStrategy).
                 setRoutePlanner(new MfRoutePlanner()).
-                setSSLSocketFactory(new MfSSLSocketFactory()).
                 setDefaultCredentialsProvider(new MfCredentialsProvider());
         return httpClientBuilder.build();
     }
 
+    /**
+     * The maximum number of connections in the pool.
+     *
+     * @param maxConnectionsTotal the maximum number of connections.
+     */
+    public final void setMaxConnectionsTotal(final int maxConnectionsTotal) {
+        this.connectionManager.setMaxTotal(maxConnectionsTotal);
+    }
+
+    /**
+     * The maximum number of connections to one route (host), if not overridden by {@link #setMaxConnectionsPerHost(java.util.Map)}.
+     *
+     * @param maxConnectionsPerRoute the maximum number of connections per route.
+     */
+    public final void setMaxConnectionsPerRoute(final int maxConnectionsPerRoute) {
+        this.connectionManager.setDefaultMaxPerRoute(maxConnectionsPerRoute);
+    }
+
+    /**
+     * Override the maximum number of connections for some hosts.  The keys are <code>host</code> (for both http and https on
+     * the default ports) or <code>host:port</code>, the values are the maximum number of connections.  The limit applies to
+     * each route to the host, including the routes going through a proxy.
+     *
+     * @param maxConnectionsPerHost the maximum number of connections by host.
+     */
+    public final void setMaxConnectionsPerHost(final Map<String, Integer> maxConnectionsPerHost) {
+        for (Map.Entry<String, Integer> entry : maxConnectionsPerHost.entrySet()) {
+            this.connectionManager.maxPerHost.put(entry.getKey().toLowerCase(Locale.ROOT), entry.getValue());
+        }
+    }
+
+    /**
+     * The time in seconds a connection is kept alive when the server doesn't tell it in the Keep-Alive header.
+     *
+     * @param keepAliveDuration the keep alive duration in seconds.
+     */
+    public final void setKeepAliveDuration(final int keepAliveDuration) {
+        this.keepAliveStrategy.defaultDuration = TimeUnit.SECONDS.toMillis(keepAliveDuration);
+    }
+
+    /**
+     * The time in seconds after which the idle connections are closed, 0 to never close them.
+     *
+     * @param idleTimeout the idle timeout in seconds.
+     */
+    public final void setIdleTimeout(final int idleTimeout) {
+        this.idleTimeout = idleTimeout;
+    }
+
+    /**
+     * The timeout in milliseconds for establishing a connection, 0 is infinite and -1 the system default.
+     *
+     * @param connectTimeout the connect timeout in milliseconds.
+     */
+    @Override
+    public final void setConnectTimeout(final int connectTimeout) {
+        this.requestConfig = RequestConfig.copy(this.requestConfig).setConnectTimeout(connectTimeout).build();
+    }
+
+    /**
+     * The timeout in milliseconds waiting for data, 0 is infinite and -1 the system default.
+     *
+     * @param socketTimeout the socket timeout in milliseconds.
+     */
+    public final void setSocketTimeout(final int socketTimeout) {
+        this.requestConfig = RequestConfig.copy(this.requestConfig).setSocketTimeout(socketTimeout).build();
+    }
+
+    /**
+     * The timeout in milliseconds waiting for a connection from the pool, 0 is infinite and -1 the system default.
+     *
+     * @param connectionRequestTimeout the connection request timeout in milliseconds.
+     */
+    public final void setConnectionRequestTimeout(final int connectionRequestTimeout) {
+        this.requestConfig = RequestConfig.copy(this.requestConfig).
+                setConnectionRequestTimeout(connectionRequestTimeout).build();
+    }
+
+    /**
+     * The number of threads executing the requests, 0 to execute them in the calling thread.
+     *
+     * @param ioThreads the number of threads.
+     */
+    public final void setIoThreads(final int ioThreads) {
+        this.ioThreads = ioThreads;
+    }
+
+    /**
+     * Called by spring after the bean has been created and populated.  Starts the idle connection eviction and the I/O
+     * threads and registers the pool metrics.
+     */
+    @PostConstruct
+    public final void init() {
+        if (this.idleTimeout > 0) {
+            this.idleConnectionEvictor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(@Nonnull final Runnable runnable) {
+                    final Thread thread = new Thread(runnable, "http-idle-connection-evictor");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            this.idleConnectionEvictor.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    final PoolingHttpClientConnectionManager manager = MfClientHttpRequestFactoryImpl.this.connectionManager;
+                    manager.closeExpiredConnections();
+                    manager.closeIdleConnections(MfClientHttpRequestFactoryImpl.this.idleTimeout, TimeUnit.SECONDS);
+                }
+            }, this.idleTimeout, this.idleTimeout, TimeUnit.SECONDS);
+        }
+
+        if (this.ioThreads > 0) {
+            final AtomicInteger threadCounter = new AtomicInteger();
+            this.ioExecutor = new ThreadPoolExecutor(this.ioThreads, this.ioThreads, DEFAULT_IDLE_TIMEOUT, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                @Override
+                public Thread newThread(@Nonnull final Runnable runnable) {
+                    final Thread thread = new Thread(runnable, "http-io-" + threadCounter.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            this.ioExecutor.allowCoreThreadTimeOut(true);
+        }
+
+        if (this.metricRegistry != null) {
+            final String prefix = MfClientHttpRequestFactoryImpl.class.getName() + ".pool.";
+            this.connectionManager.leaseTimer = this.metricRegistry.timer(prefix + "lease");
+            this.metricRegistry.register(prefix + "leased", new Gauge<Integer>() {
+                @Override
+                public Integer getValue() {
+                    return MfClientHttpRequestFactoryImpl.this.connectionManager.getTotalStats().getLeased();
+                }
+            });
+            this.metricRegistry.register(prefix + "pending", new Gauge<Integer>() {
+                @Override
+                public Integer getValue() {
+                    return MfClientHttpRequestFactoryImpl.this.connectionManager.getTotalStats().getPending();
+                }
+            });
+            this.metricRegistry.register(prefix + "available", new Gauge<Integer>() {
+                @Override
+                public Integer getValue() {
+                    return MfClientHttpRequestFactoryImpl.this.connectionManager.getTotalStats().getAvailable();
+                }
+            });
+            this.metricRegistry.register(prefix + "max", new Gauge<Integer>() {
+                @Override
+                public Integer getValue() {
+                    return MfClientHttpRequestFactoryImpl.this.connectionManager.getTotalStats().getMax();
+                }
+            });
+            if (this.ioExecutor != null) {
+                registerIoMetrics(MfClientHttpRequestFactoryImpl.class.getName() + ".io.", this.ioExecutor);
+            }
+        }
+    }
+
+    private void registerIoMetrics(final String prefix, final ThreadPoolExecutor executor) {
+        this.metricRegistry.register(prefix + "active", new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                return executor.getActiveCount();
+            }
+        });
+        this.metricRegistry.register(prefix + "queued", new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                return executor.getQueue().size();
+            }
+        });
+        this.metricRegistry.register(prefix + "poolSize", new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                return executor.getPoolSize();
+            }
+        });
+        this.metricRegistry.register(prefix + "completed", new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                return executor.getCompletedTaskCount();
+            }
+        });
+    }
+
+    // CSOFF: DesignForExtension
+    @Override
+    public void destroy() throws Exception {
+        // CSON: DesignForExtension
+        if (this.idleConnectionEvictor != null) {
+            this.idleConnectionEvictor.shutdownNow();
+        }
+        if (this.ioExecutor != null) {
+            this.ioExecutor.shutdownNow();
+        }
+        super.destroy();
+        this.connectionManager.shutdown();
+    }
+
     // CSOFF: DesignForExtension
     // allow extension only for testing
     @Override
@@ -90,7 +363,85 @@ public class MfClientHttpRequestFactoryImpl extends HttpComponentsClientHttpRequ
                                              @Nonnull final HttpMethod httpMethod) throws IOException {
         // CSON: DesignForExtension
         HttpRequestBase httpRequest = (HttpRequestBase) createHttpUriRequest(httpMethod, uri);
-        return new Request(getHttpClient(), httpRequest, createHttpContext(httpMethod, uri));
+        httpRequest.setConfig(this.requestConfig);
+        return new Request(getHttpClient(), httpRequest, createHttpContext(httpMethod, uri), this.ioExecutor);
+    }
+
+    /**
+     * The pooling connection manager, timing how long the requests wait for a connection.
+     * <p></p>
+     * The pool only knows the maximum number of connections of the exact routes, which include the proxy.  So the per host
+     * limits are set on the routes when they are first requested.
+     */
+    private static final class InstrumentedConnectionManager extends PoolingHttpClientConnectionManager {
+        private final ConcurrentMap<String, Integer> maxPerHost = new ConcurrentHashMap<String, Integer>();
+        private volatile Timer leaseTimer;
+
+        InstrumentedConnectionManager() {
+            super(RegistryBuilder.<ConnectionSocketFactory>create().
+                    register("http", PlainConnectionSocketFactory.getSocketFactory()).
+                    register("https", new MfSSLSocketFactory()).
+                    build());
+        }
+
+        @Override
+        public ConnectionRequest requestConnection(final HttpRoute route, final Object state) {
+            final Integer hostMax = getMaxPerHost(route.getTargetHost());
+            if (hostMax != null && getMaxPerRoute(route) != hostMax) {
+                setMaxPerRoute(route, hostMax);
+            }
+            final ConnectionRequest request = super.requestConnection(route, state);
+            final Timer timer = this.leaseTimer;
+            if (timer == null) {
+                return request;
+            }
+            return new ConnectionRequest() {
+                @Override
+                public HttpClientConnection get(final long timeout, final TimeUnit tunit)
+                        throws InterruptedException, ExecutionException, ConnectionPoolTimeoutException {
+                    final Timer.Context context = timer.time();
+                    try {
+                        return request.get(timeout, tunit);
+                    } finally {
+                        context.stop();
+                    }
+                }
+
+                @Override
+                public boolean cancel() {
+                    return request.cancel();
+                }
+            };
+        }
+
+        @Nullable
+        private Integer getMaxPerHost(final HttpHost target) {
+            if (this.maxPerHost.isEmpty()) {
+                return null;
+            }
+            final String hostName = target.getHostName().toLowerCase(Locale.ROOT);
+            final boolean secure = "https".equalsIgnoreCase(target.getSchemeName());
+            final int defaultPort = secure ? HTTPS_PORT : HTTP_PORT;
+            final int port = target.getPort() >= 0 ? target.getPort() : defaultPort;
+            final Integer max = this.maxPerHost.get(hostName + ":" + port);
+            if (max == null && port == defaultPort) {
+                return this.maxPerHost.get(hostName);
+            }
+            return max;
+        }
+    }
+
+    /**
+     * Use the keep alive sent by the server or the configured default duration.
+     */
+    private static final class KeepAliveStrategy extends DefaultConnectionKeepAliveStrategy {
+        private volatile long defaultDuration = TimeUnit.SECONDS.toMillis(DEFAULT_KEEP_ALIVE_DURATION);
+
+        @Override
+        public long getKeepAliveDuration(final HttpResponse response, final HttpContext context) {
+            final long duration = super.getKeepAliveDuration(response, context);
+            return duration > 0 ? duration : this.defaultDuration;
+        }
     }
 
     /**
@@ -104,14 +455,18 @@ public class MfClientHttpRequestFactoryImpl extends HttpComponentsClientHttpRequ
         private final HttpRequestBase request;
         private final HttpContext context;
         private final ByteArrayOutputStream outputStream;
+        @Nullable
+        private final ExecutorService ioExecutor;
         private Configuration configuration;
 
         Request(@Nonnull final HttpClient client,
                 @Nonnull final HttpRequestBase request,
-                @Nonnull final HttpContext context) {
+                @Nonnull final HttpContext context,
+                @Nullable final ExecutorService ioExecutor) {
             this.client = client;
             this.request = request;
             this.context = context;
+            this.ioExecutor = ioExecutor;
             this.outputStream = new ByteArrayOutputStream();
         }
 
@@ -169,8 +524,140 @@ public class MfClientHttpRequestFactoryImpl extends HttpComponentsClientHttpRequ
                     closer.close();
                 }
             }
-            HttpResponse response = this.client.execute(this.request, this.context);
-            return new Response(response);
+            if (this.ioExecutor == null) {
+                HttpResponse response = this.client.execute(this.request, this.context);
+                return new Response(response);
+            }
+            return new Response(executeInIoThread());
+        }
+
+        private HttpResponse executeInIoThread() throws IOException {
+            final Configuration currentConfiguration = this.configuration;
+            final Future<HttpResponse> future = this.ioExecutor.submit(new Callable<HttpResponse>() {
+                @Override
+                public HttpResponse call() throws Exception {
+                    CURRENT_CONFIGURATION.set(currentConfiguration);
+                    try {
+                        final HttpResponse response = Request.this.client.execute(Request.this.request, Request.this.context);
+                        final HttpEntity entity = response.getEntity();
+                        if (entity != null && entity.getContentLength() >= 0 &&
+                            entity.getContentLength() <= MAX_BUFFERED_RESPONSE_SIZE) {
+                            // read the small bodies here, this also releases the connection
+                            response.setEntity(new BufferedHttpEntity(entity));
+                        } else if (entity != null) {
+                            // the big or chunked bodies are streamed by the caller, don't let it block a worker
+                            response.setEntity(new ManagedBlockingHttpEntity(entity));
+                        }
+                        return response;
+                    } finally {
+                        CURRENT_CONFIGURATION.remove();
+                    }
+                }
+            });
+            try {
+                if (!future.isDone()) {
+                    ForkJoinPool.managedBlock(new ForkJoinPool.ManagedBlocker() {
+                        @Override
+                        public boolean block() throws InterruptedException {
+                            try {
+                                future.get();
+                            } catch (ExecutionException e) {
+                                // reported by the future.get() below
+                            }
+                            return true;
+                        }
+
+                        @Override
+                        public boolean isReleasable() {
+                            return future.isDone();
+                        }
+                    });
+                }
+                return future.get();
+            } catch (InterruptedException e) {
+                this.request.abort();
+                future.cancel(true);
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for " + getURI());
+            } catch (ExecutionException e) {
+                final Throwable cause = e.getCause();
+                if (cause instanceof IOException) {
+                    throw (IOException) cause;
+                }
+                throw ExceptionUtils.getRuntimeException(cause);
+            }
+        }
+    }
+
+    /**
+     * Entity whose content is read within a {@link ForkJoinPool.ManagedBlocker}, so a fork join worker waiting for a slow
+     * server lets the pool start a compensation thread.
+     */
+    static final class ManagedBlockingHttpEntity extends HttpEntityWrapper {
+        ManagedBlockingHttpEntity(final HttpEntity wrappedEntity) {
+            super(wrappedEntity);
+        }
+
+        @Override
+        public InputStream getContent() throws IOException {
+            return new ManagedBlockingInputStream(super.getContent());
+        }
+    }
+
+    /**
+     * Input stream that does the blocking reads within a {@link ForkJoinPool.ManagedBlocker} when called from a fork join
+     * worker.
+     */
+    static final class ManagedBlockingInputStream extends FilterInputStream {
+        ManagedBlockingInputStream(final InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            final byte[] buffer = new byte[1];
+            int read;
+            do {
+                read = read(buffer, 0, 1);
+            } while (read == 0);
+            return read < 0 ? -1 : buffer[0] & 0xff;
+        }
+
+        @Override
+        public int read(@Nonnull final byte[] b, final int off, final int len) throws IOException {
+            if (!ForkJoinTask.inForkJoinPool() || this.in.available() > 0) {
+                return this.in.read(b, off, len);
+            }
+            final int[] read = new int[1];
+            final IOException[] error = new IOException[1];
+            try {
+                ForkJoinPool.managedBlock(new ForkJoinPool.ManagedBlocker() {
+                    private boolean done = false;
+
+                    @Override
+                    public boolean block() {
+                        try {
+                            read[0] = ManagedBlockingInputStream.this.in.read(b, off, len);
+                        } catch (IOException e) {
+                            error[0] = e;
+                        }
+                        this.done = true;
+                        return true;
+                    }
+
+                    @Override
+                    public boolean isReleasable() {
+                        return this.done;
+                    }
+                });
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while reading the response");
+            }
+            if (error[0] != null) {
+                throw error[0];
+            }
+            return read[0];
         }
     }
 
@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2014  Camptocamp
+ *
+ * This file is part of MapFish Print
+ *
+ * MapFish Print is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MapFish Print is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MapFish Print.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.mapfish.print.map;
+
+import com.google.common.collect.Maps;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationContext;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.event.ContextRefreshedEvent;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import javax.annotation.Nullable;
+
+/**
+ * Index of the {@link org.mapfish.print.map.MapLayerFactoryPlugin} beans by the layer type names they support.
+ * <p></p>
+ * Looking up the plugins in the application context by type is done for each layer of each map (and each page of an atlas), so
+ * they are indexed once when first needed and again each time the context is refreshed.
+ */
+public final class MapLayerFactoryPluginRegistry implements ApplicationListener<ContextRefreshedEvent> {
+    @Autowired
+    private ApplicationContext applicationContext;
+
+    private volatile Map<String, MapLayerFactoryPlugin<?>> pluginsByTypeName = null;
+
+    @Override
+    public void onApplicationEvent(final ContextRefreshedEvent event) {
+        if (event.getApplicationContext() == this.applicationContext) {
+            this.pluginsByTypeName = loadPlugins();
+        }
+    }
+
+    /**
+     * Get the plugin for a layer type.
+     *
+     * @param typeName the value of the 'type' property of the layer, case insensitive.
+     * @return the plugin or null if no plugin supports that type.
+     */
+    @Nullable
+    public MapLayerFactoryPlugin<?> get(final String typeName) {
+        return getPlugins().get(typeName.toLowerCase());
+    }
+
+    /**
+     * Get all the supported layer types.
+     */
+    public Set<String> getTypeNames() {
+        return getPlugins().keySet();
+    }
+
+    private Map<String, MapLayerFactoryPlugin<?>> getPlugins() {
+        Map<String, MapLayerFactoryPlugin<?>> plugins = this.pluginsByTypeName;
+        if (plugins == null) {
+            plugins = loadPlugins();
+            this.pluginsByTypeName = plugins;
+        }
+        return plugins;
+    }
+
+    private Map<String, MapLayerFactoryPlugin<?>> loadPlugins() {
+        final Map<String, MapLayerFactoryPlugin<?>> plugins = Maps.newLinkedHashMap();
+        final Map<String, MapLayerFactoryPlugin> beans = this.applicationContext.getBeansOfType(MapLayerFactoryPlugin.class);
+        for (MapLayerFactoryPlugin<?> plugin : beans.values()) {
+            for (String typeName : plugin.getTypeNames()) {
+                // as before, the first plugin supporting a type wins
+                if (!plugins.containsKey(typeName)) {
+                    plugins.put(typeName, plugin);
+                }
+            }
+        }
+        return Collections.unmodifiableMap(plugins);
+    }
+}
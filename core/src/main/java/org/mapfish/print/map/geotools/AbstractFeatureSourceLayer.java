@@ -19,19 +19,46 @@
 
 package org.mapfish.print.map.geotools;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.Lists;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.Lineal;
+import com.vividsolutions.jts.geom.Polygonal;
+import com.vividsolutions.jts.simplify.DouglasPeuckerSimplifier;
+import com.vividsolutions.jts.simplify.TopologyPreservingSimplifier;
 import org.geotools.data.FeatureSource;
 import org.geotools.data.collection.CollectionFeatureSource;
+import org.geotools.data.collection.ListFeatureCollection;
+import org.geotools.data.collection.SpatialIndexFeatureCollection;
+import org.geotools.data.collection.SpatialIndexFeatureSource;
 import org.geotools.data.simple.SimpleFeatureCollection;
+import org.geotools.data.simple.SimpleFeatureIterator;
+import org.geotools.factory.CommonFactoryFinder;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.geotools.geometry.jts.ReferencedEnvelope;
 import org.geotools.map.FeatureLayer;
 import org.geotools.map.Layer;
+import org.geotools.referencing.CRS;
+import org.geotools.referencing.crs.DefaultEngineeringCRS;
+import org.geotools.renderer.lite.MetaBufferEstimator;
 import org.geotools.styling.Style;
 import org.geotools.styling.visitor.RescaleStyleVisitor;
+import org.mapfish.print.ExceptionUtils;
 import org.mapfish.print.attribute.map.MapfishMapContext;
 import org.mapfish.print.http.MfClientHttpRequestFactory;
 import org.mapfish.print.map.AbstractLayerParams;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.filter.FilterFactory2;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import javax.annotation.Nonnull;
 
@@ -41,6 +68,21 @@ import javax.annotation.Nonnull;
  * @author Jesse on 3/26/14.
  */
 public abstract class AbstractFeatureSourceLayer extends AbstractGeotoolsLayer {
+    private static final Logger LOGGER = LoggerFactory.getLogger(AbstractFeatureSourceLayer.class);
+
+    /**
+     * The in-memory feature sources smaller than that are rendered without a spatial index.
+     */
+    private static final int SPATIAL_INDEX_MIN_FEATURES = 100;
+
+    /**
+     * The spatial indexes of the in-memory feature sources.  The renderer only asks for the features in the map envelope
+     * (expanded by the size of the symbols), with the index it doesn't go through all the features of the source to find them.
+     * The indexes are kept as long as the source is used, so the layers sharing a source (pages of an atlas, overview map)
+     * share its index.
+     */
+    private static final Cache<FeatureSource<?, ?>, FeatureSource<?, ?>> SPATIAL_INDEXES =
+            CacheBuilder.newBuilder().weakKeys().build();
 
     protected FeatureSourceSupplier featureSourceSupplier;
     protected FeatureSource<?, ?> featureSource = null;
@@ -101,7 +143,88 @@ public abstract class AbstractFeatureSourceLayer extends AbstractGeotoolsLayer {
             style = (Style) scale.getCopy();
         }
 
-        return Lists.newArrayList(new FeatureLayer(source, style));
+        FeatureSource<?, ?> renderedSource = getIndexedFeatureSource(source);
+        final Double generalization = getGeneralization();
+        if (generalization != null && generalization > 0.0) {
+            renderedSource = generalize(renderedSource, style, mapContext, generalization);
+        }
+
+        return Lists.newArrayList(new FeatureLayer(renderedSource, style));
+    }
+
+    private Double getGeneralization() {
+        if (this.params instanceof AbstractVectorLayerParam) {
+            return ((AbstractVectorLayerParam) this.params).generalization;
+        }
+        return null;
+    }
+
+    /**
+     * Simplify the geometries of the features that will be rendered.  The features in the map envelope (expanded by the size of the
+     * symbols, as the renderer does) are copied with the simplified geometries in a new source.
+     */
+    private static FeatureSource<?, ?> generalize(final FeatureSource<?, ?> source, final Style style,
+                                                  final MapfishMapContext mapContext, final double generalization)
+            throws IOException {
+        if (!(source.getSchema() instanceof SimpleFeatureType) || source.getSchema().getGeometryDescriptor() == null) {
+            return source;
+        }
+        final SimpleFeatureType schema = (SimpleFeatureType) source.getSchema();
+        final ReferencedEnvelope envelope = mapContext.toReferencedEnvelope();
+        final CoordinateReferenceSystem crs = schema.getCoordinateReferenceSystem();
+        if (crs != null && crs != DefaultEngineeringCRS.GENERIC_2D &&
+            !CRS.equalsIgnoreMetadata(crs, envelope.getCoordinateReferenceSystem())) {
+            // the tolerance would not be in the units of the features
+            LOGGER.debug("Features not generalized since they are not in the projection of the map.");
+            return source;
+        }
+
+        final double resolution = envelope.getWidth() / mapContext.getMapSize().getWidth();
+        final double tolerance = generalization * resolution;
+        final MetaBufferEstimator bufferEstimator = new MetaBufferEstimator();
+        style.accept(bufferEstimator);
+        envelope.expandBy(bufferEstimator.getBuffer() * resolution + tolerance);
+
+        final FilterFactory2 filterFactory = CommonFactoryFinder.getFilterFactory2();
+        final SimpleFeatureCollection features = (SimpleFeatureCollection) source.getFeatures(filterFactory.bbox(
+                filterFactory.property(schema.getGeometryDescriptor().getLocalName()), envelope));
+        final ListFeatureCollection generalized = new ListFeatureCollection(schema);
+        final SimpleFeatureIterator iterator = features.features();
+        try {
+            while (iterator.hasNext()) {
+                final SimpleFeature feature = SimpleFeatureBuilder.copy(iterator.next());
+                final Geometry geometry = (Geometry) feature.getDefaultGeometry();
+                if (geometry instanceof Polygonal) {
+                    feature.setDefaultGeometry(TopologyPreservingSimplifier.simplify(geometry, tolerance));
+                } else if (geometry instanceof Lineal) {
+                    feature.setDefaultGeometry(DouglasPeuckerSimplifier.simplify(geometry, tolerance));
+                }
+                generalized.add(feature);
+            }
+        } finally {
+            iterator.close();
+        }
+        return new CollectionFeatureSource(generalized);
+    }
+
+    private static FeatureSource<?, ?> getIndexedFeatureSource(final FeatureSource<?, ?> source) throws IOException {
+        if (!(source instanceof CollectionFeatureSource)) {
+            return source;
+        }
+        final SimpleFeatureCollection features = ((CollectionFeatureSource) source).getFeatures();
+        if (features.size() < SPATIAL_INDEX_MIN_FEATURES) {
+            return source;
+        }
+        try {
+            return SPATIAL_INDEXES.get(source, new Callable<FeatureSource<?, ?>>() {
+                @Override
+                public FeatureSource<?, ?> call() {
+                    return new SpatialIndexFeatureSource(new SpatialIndexFeatureCollection(features));
+                }
+            });
+        } catch (ExecutionException e) {
+            throw ExceptionUtils.getRuntimeException(e.getCause());
+        }
     }
 
     public final void setFeatureCollection(final SimpleFeatureCollection featureCollection) {
@@ -66,10 +66,12 @@ public abstract class AbstractGeotoolsLayer implements MapLayer {
     }
 
 
+    // CSOFF: DesignForExtension -- subclasses may combine compatible layers
     @Override
-    public final Optional<MapLayer> tryAddLayer(final MapLayer newLayer) {
+    public Optional<MapLayer> tryAddLayer(final MapLayer newLayer) {
         return Optional.absent();
     }
+    // CSON: DesignForExtension
 
     @Override
     public void render(final Graphics2D graphics2D,
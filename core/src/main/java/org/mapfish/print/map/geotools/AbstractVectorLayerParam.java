@@ -43,4 +43,14 @@ public abstract class AbstractVectorLayerParam extends AbstractLayerParams {
      */
     @HasDefaultValue
     public Boolean renderAsSvg;
+    /**
+     * Simplify the geometries before rendering them.  The value is the maximum distance, in pixels of the print, between the
+     * simplified and the original geometries, so the simplification depends on the scale and the DPI of the map.  The topology
+     * of the polygons is preserved.
+     * <p></p>
+     * Dense lines and polygons are rendered faster and make smaller SVG and PDF files, a value around 0.5 is not visible.
+     * By default the geometries are not simplified.
+     */
+    @HasDefaultValue
+    public Double generalization;
 }
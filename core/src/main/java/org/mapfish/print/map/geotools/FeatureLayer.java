@@ -91,14 +91,15 @@ public final class FeatureLayer extends AbstractFeatureSourceLayer {
 
         private FeatureSourceSupplier createFeatureSourceSupplier(
                 final SimpleFeatureCollection features) {
-            return new FeatureSourceSupplier() {
+            // the same collection is given to the layers of all the maps of a job
+            return new MemoizedFeatureSourceSupplier(features, new FeatureSourceSupplier() {
                 @Override
                 public FeatureSource load(
                         final MfClientHttpRequestFactory requestFactory,
                         final MapfishMapContext mapContext) {
                     return new CollectionFeatureSource(features);
                 }
-            };
+            });
         }
 
         /**
@@ -20,14 +20,15 @@
 package org.mapfish.print.map.geotools;
 
 import com.google.common.annotations.VisibleForTesting;
-import com.google.common.collect.Sets;
+import com.google.common.collect.Lists;
 import com.google.common.io.ByteStreams;
 import com.google.common.io.CharSource;
-import com.google.common.io.CharStreams;
 import com.google.common.io.Closer;
 import com.google.common.io.Files;
 import com.vividsolutions.jts.geom.Geometry;
+import org.geotools.data.collection.ListFeatureCollection;
 import org.geotools.data.simple.SimpleFeatureCollection;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
 import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
 import org.geotools.referencing.CRS;
 import org.geotools.referencing.crs.DefaultEngineeringCRS;
@@ -37,10 +38,9 @@ import org.json.JSONObject;
 import org.mapfish.print.Constants;
 import org.mapfish.print.ExceptionUtils;
 import org.mapfish.print.FileUtils;
-import org.mapfish.print.PrintException;
 import org.mapfish.print.config.Template;
 import org.mapfish.print.http.MfClientHttpRequestFactory;
-import org.geotools.geojson.feature.PFeatureJSON;
+import org.opengis.feature.simple.SimpleFeature;
 import org.opengis.feature.simple.SimpleFeatureType;
 import org.opengis.referencing.FactoryException;
 import org.opengis.referencing.NoSuchAuthorityCodeException;
@@ -53,28 +53,33 @@ import org.springframework.http.client.ClientHttpRequest;
 import org.springframework.http.client.ClientHttpResponse;
 
 import java.io.BufferedReader;
-import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.Reader;
+import java.io.StringReader;
 import java.net.MalformedURLException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
-import java.util.Iterator;
-import java.util.Set;
-import javax.annotation.Nonnull;
+import java.util.List;
+import java.util.Map;
+import javax.annotation.Nullable;
 
 /**
  * Parser for GeoJson features collection.
  * <p></p>
+ * The GeoJson is read in a single pass from the file or the http response, see {@link StreamingGeoJsonReader}.
+ * <p></p>
  * Created by Stéphane Brunner on 16/4/14.
  */
 public class FeaturesParser {
     private static final Logger LOGGER = LoggerFactory.getLogger(FeaturesParser.class);
+    private static final String GEOMETRY_ATTRIBUTE = "geometry";
     private final MfClientHttpRequestFactory httpRequestFactory;
     private final boolean forceLongitudeFirst;
+    private final RemoteFeaturesCache remoteFeaturesCache;
 
     /**
      * Construct.
@@ -83,8 +88,21 @@ public class FeaturesParser {
      * @param forceLongitudeFirst if true then force longitude coordinate as first coordinate
      */
     public FeaturesParser(final MfClientHttpRequestFactory httpRequestFactory, final boolean forceLongitudeFirst) {
+        this(httpRequestFactory, forceLongitudeFirst, null);
+    }
+
+    /**
+     * Construct.
+     *
+     * @param httpRequestFactory  the HTTP request factory
+     * @param forceLongitudeFirst if true then force longitude coordinate as first coordinate
+     * @param remoteFeaturesCache the cache of the features downloaded from http urls, can be null.
+     */
+    public FeaturesParser(final MfClientHttpRequestFactory httpRequestFactory, final boolean forceLongitudeFirst,
+                          @Nullable final RemoteFeaturesCache remoteFeaturesCache) {
         this.httpRequestFactory = httpRequestFactory;
         this.forceLongitudeFirst = forceLongitudeFirst;
+        this.remoteFeaturesCache = remoteFeaturesCache;
     }
 
     /**
@@ -118,27 +136,36 @@ public class FeaturesParser {
             return null;
         }
 
-        final String geojsonString;
         Closer closer = Closer.create();
         try {
             Reader input;
             if (url.getProtocol().equalsIgnoreCase("file")) {
                 final CharSource charSource = Files.asCharSource(new File(url.getFile()), Constants.DEFAULT_CHARSET);
                 input = closer.register(charSource.openBufferedStream());
+            } else if (this.remoteFeaturesCache != null) {
+                return this.remoteFeaturesCache.get(template.getConfiguration(), this.httpRequestFactory, url.toURI(),
+                        "geojson:" + this.forceLongitudeFirst,
+                        new RemoteFeaturesCache.FeaturesReader() {
+                            @Override
+                            public SimpleFeatureCollection read(final InputStream body) throws IOException {
+                                return readFeatureCollection(
+                                        new BufferedReader(new InputStreamReader(body, Constants.DEFAULT_CHARSET)));
+                            }
+                        });
             } else {
                 final ClientHttpResponse response = closer.register(this.httpRequestFactory.createRequest(url.toURI(),
                         HttpMethod.GET).execute());
 
                 input = closer.register(new BufferedReader(new InputStreamReader(response.getBody(), Constants.DEFAULT_CHARSET)));
             }
-            geojsonString = CharStreams.toString(input);
+            return readFeatureCollection(input);
         } catch (URISyntaxException e) {
             throw ExceptionUtils.getRuntimeException(e);
+        } catch (Throwable t) {
+            throw closer.rethrow(t);
         } finally {
             closer.close();
         }
-
-        return treatStringAsGeoJson(geojsonString);
     }
 
     /**
@@ -149,99 +176,72 @@ public class FeaturesParser {
      * @throws IOException
      */
     public final SimpleFeatureCollection treatStringAsGeoJson(final String geoJsonString) throws IOException {
-        return readFeatureCollection(geoJsonString);
+        return readFeatureCollection(new StringReader(geoJsonString));
     }
 
-    private SimpleFeatureCollection readFeatureCollection(final String geojsonData) throws IOException {
-        String convertedGeojsonObject = convertToGeoJsonCollection(geojsonData);
-
-        PFeatureJSON geoJsonReader = new PFeatureJSON();
-        final SimpleFeatureType featureType = createFeatureType(convertedGeojsonObject);
-        if (featureType != null) {
-            geoJsonReader.setFeatureType(featureType);
-        }
-        ByteArrayInputStream input = new ByteArrayInputStream(convertedGeojsonObject.getBytes(Constants.DEFAULT_CHARSET));
-
-        return (SimpleFeatureCollection) geoJsonReader.readFeatureCollection(input);
-    }
+    private SimpleFeatureCollection readFeatureCollection(final Reader input) throws IOException {
+        final StreamingGeoJsonReader geoJsonReader = new StreamingGeoJsonReader();
+        geoJsonReader.read(input);
 
-    private String convertToGeoJsonCollection(final String geojsonData) {
-        String convertedGeojsonObject = geojsonData.trim();
-        if (convertedGeojsonObject.startsWith("[")) {
-            convertedGeojsonObject = "{\"type\": \"FeatureCollection\", \"features\": " + convertedGeojsonObject + "}";
+        final SimpleFeatureType featureType = createFeatureType(geoJsonReader);
+        final SimpleFeatureBuilder featureBuilder = new SimpleFeatureBuilder(featureType);
+        final List<StreamingGeoJsonReader.ParsedFeature> parsedFeatures = geoJsonReader.getFeatures();
+        final List<SimpleFeature> features = Lists.newArrayListWithCapacity(parsedFeatures.size());
+        for (int i = 0; i < parsedFeatures.size(); i++) {
+            final StreamingGeoJsonReader.ParsedFeature parsedFeature = parsedFeatures.get(i);
+            // release the parsed properties as soon as the feature is built
+            parsedFeatures.set(i, null);
+            for (Map.Entry<?, ?> property : parsedFeature.getProperties().entrySet()) {
+                featureBuilder.set((String) property.getKey(), property.getValue());
+            }
+            featureBuilder.set(GEOMETRY_ATTRIBUTE, parsedFeature.getGeometry());
+            features.add(featureBuilder.buildFeature(parsedFeature.getId()));
         }
-        return convertedGeojsonObject;
+        return new ListFeatureCollection(featureType, features);
     }
 
-    private SimpleFeatureType createFeatureType(@Nonnull final String geojsonData) {
-        try {
-            JSONObject geojson = new JSONObject(geojsonData);
-            if (geojson.has("type") && geojson.getString("type").equalsIgnoreCase("FeatureCollection")) {
-                CoordinateReferenceSystem crs = parseCoordinateReferenceSystem(this.httpRequestFactory, geojson,
-                        this.forceLongitudeFirst);
-                SimpleFeatureTypeBuilder builder = new SimpleFeatureTypeBuilder();
-                builder.setName("GeosjonFeatureType");
-
-                final JSONArray features = geojson.getJSONArray("features");
-
-                if (features.length() == 0) {
-                    // do not try to build the feature type if there are no features
-                    return null;
-                }
-
-                Set<String> allAttributes = Sets.newHashSet();
-                Class<Geometry> geomType = null;
-                for (int i = 0; i < features.length(); i++) {
-                    final JSONObject feature = features.getJSONObject(i);
-                    final JSONObject properties = feature.getJSONObject("properties");
-                    final Iterator keys = properties.keys();
-                    while (keys.hasNext()) {
-                        String nextKey = (String) keys.next();
-                        if (!allAttributes.contains(nextKey)) {
-                            allAttributes.add(nextKey);
-                            builder.add(nextKey, Object.class);
-                        }
-                        if (geomType != Geometry.class) {
-                            Class<Geometry> thisGeomType = parseGeometryType(feature);
-                            if (thisGeomType != null) {
-                                if (geomType == null) {
-                                    geomType = thisGeomType;
-                                } else if (geomType != thisGeomType) {
-                                    geomType = Geometry.class;
-                                }
-                            }
-                        }
-                    }
-                }
-
-                builder.add("geometry", geomType, crs);
-                builder.setDefaultGeometry("geometry");
-                return builder.buildFeatureType();
-            } else {
-                return null;
+    private SimpleFeatureType createFeatureType(final StreamingGeoJsonReader geoJsonReader) {
+        CoordinateReferenceSystem crs = DefaultEngineeringCRS.GENERIC_2D;
+        final Map<?, ?> crsJson = geoJsonReader.getCrs();
+        if (crsJson != null) {
+            try {
+                final JSONObject geojson = new JSONObject();
+                geojson.put("crs", toJson(crsJson));
+                crs = parseCoordinateReferenceSystem(this.httpRequestFactory, geojson, this.forceLongitudeFirst);
+            } catch (JSONException e) {
+                throw ExceptionUtils.getRuntimeException(e);
             }
-        } catch (JSONException e) {
-            throw new PrintException("Invalid geoJSON: \n" + geojsonData + ": " + e.getMessage(), e);
         }
 
+        SimpleFeatureTypeBuilder builder = new SimpleFeatureTypeBuilder();
+        builder.setName("GeosjonFeatureType");
+        for (String attribute : geoJsonReader.getAttributes()) {
+            builder.add(attribute, Object.class);
+        }
+        Class<? extends Geometry> geomType = geoJsonReader.getGeometryType();
+        if (geomType == null) {
+            geomType = Geometry.class;
+        }
+        builder.add(GEOMETRY_ATTRIBUTE, geomType, crs);
+        builder.setDefaultGeometry(GEOMETRY_ATTRIBUTE);
+        return builder.buildFeatureType();
     }
 
-    @SuppressWarnings("unchecked")
-    private Class<Geometry> parseGeometryType(@Nonnull final JSONObject featureJson) throws JSONException {
-        JSONObject geomJson = featureJson.optJSONObject("geometry");
-        if (geomJson == null) {
-            return null;
-        }
-        String geomTypeString = geomJson.optString("type", "Geometry");
-        if (geomTypeString.equalsIgnoreCase("Positions")) {
-            return Geometry.class;
-        } else {
-            try {
-                return (Class<Geometry>) Class.forName("com.vividsolutions.jts.geom." + geomTypeString);
-            } catch (ClassNotFoundException e) {
-                throw new RuntimeException("Unrecognized geometry type in geojson: " + geomTypeString);
+    private static Object toJson(final Object value) throws JSONException {
+        if (value instanceof Map) {
+            final JSONObject json = new JSONObject();
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                json.put((String) entry.getKey(), toJson(entry.getValue()));
+            }
+            return json;
+        } else if (value instanceof List) {
+            final JSONArray json = new JSONArray();
+            for (Object item : (List<?>) value) {
+                json.put(toJson(item));
             }
+            return json;
         }
+        return value == null ? JSONObject.NULL : value;
     }
 
     @VisibleForTesting
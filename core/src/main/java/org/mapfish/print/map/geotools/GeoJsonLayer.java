@@ -49,6 +49,7 @@ import org.opengis.feature.Feature;
 import org.opengis.feature.GeometryAttribute;
 import org.opengis.feature.Property;
 import org.opengis.feature.simple.SimpleFeature;
+import org.springframework.beans.factory.annotation.Autowired;
 
 import java.awt.*;
 import java.awt.geom.*;
@@ -270,6 +271,9 @@ public final class GeoJsonLayer extends AbstractFeatureSourceLayer {
         private static final String TYPE = "geojson";
         private static final String COMPATIBILITY_TYPE = "vector";
 
+        @Autowired
+        private RemoteFeaturesCache remoteFeaturesCache;
+
         /**
          * Constructor.
          */
@@ -296,12 +300,13 @@ public final class GeoJsonLayer extends AbstractFeatureSourceLayer {
 
         private FeatureSourceSupplier createFeatureSourceSupplier(final Template template,
                                                                     final String geoJsonString) {
-            return new FeatureSourceSupplier() {
+            return new MemoizedFeatureSourceSupplier(geoJsonString, new FeatureSourceSupplier() {
                 @Nonnull
                 @Override
                 public FeatureSource load(@Nonnull final MfClientHttpRequestFactory requestFactory,
                                           @Nonnull final MapfishMapContext mapContext) {
-                    final FeaturesParser parser = new FeaturesParser(requestFactory, mapContext.isForceLongitudeFirst());
+                    final FeaturesParser parser = new FeaturesParser(requestFactory, mapContext.isForceLongitudeFirst(),
+                            Plugin.this.remoteFeaturesCache);
                     SimpleFeatureCollection featureCollection;
                     try {
                         featureCollection = parser.autoTreat(template, geoJsonString);
@@ -310,7 +315,7 @@ public final class GeoJsonLayer extends AbstractFeatureSourceLayer {
                         throw ExceptionUtils.getRuntimeException(e);
                     }
                 }
-            };
+            });
         }
     }
 
@@ -19,6 +19,7 @@
 
 package org.mapfish.print.map.geotools;
 
+import com.google.common.io.CharStreams;
 import org.eclipse.emf.ecore.resource.URIHandler;
 import org.geotools.data.FeatureSource;
 import org.geotools.data.collection.CollectionFeatureSource;
@@ -26,6 +27,7 @@ import org.geotools.data.simple.SimpleFeatureCollection;
 import org.geotools.gml2.GMLConfiguration;
 import org.geotools.xml.Configuration;
 import org.geotools.xml.Parser;
+import org.mapfish.print.Constants;
 import org.mapfish.print.ExceptionUtils;
 import org.mapfish.print.FileUtils;
 import org.mapfish.print.URIUtils;
@@ -37,6 +39,8 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.xml.sax.SAXException;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.io.StringReader;
 import java.net.MalformedURLException;
 import java.net.URISyntaxException;
@@ -83,6 +87,8 @@ public final class GmlLayer extends AbstractFeatureSourceLayer {
 
         @Autowired
         private URIHandler cachingUrihandler;
+        @Autowired
+        private RemoteFeaturesCache remoteFeaturesCache;
 
         /**
          * Constructor.
@@ -111,7 +117,7 @@ public final class GmlLayer extends AbstractFeatureSourceLayer {
 
         private FeatureSourceSupplier createFeatureSourceSupplier(final Template template,
                                                                     final String url) {
-            return new FeatureSourceSupplier() {
+            return new MemoizedFeatureSourceSupplier(url, new FeatureSourceSupplier() {
                 @Nonnull
                 @Override
                 public FeatureSource load(@Nonnull final MfClientHttpRequestFactory requestFactory,
@@ -127,7 +133,7 @@ public final class GmlLayer extends AbstractFeatureSourceLayer {
                     }
                     return new CollectionFeatureSource(featureCollection);
                 }
-            };
+            });
         }
 
         private SimpleFeatureCollection createFeatureSource(final Template template,
@@ -137,14 +143,16 @@ public final class GmlLayer extends AbstractFeatureSourceLayer {
                 URL url = new URL(gmlString);
                 FileUtils.testForLegalFileUrl(template.getConfiguration(), url);
                 try {
-                    final String gmlData = URIUtils.toString(httpRequestFactory, url.toURI());
-                    final int endIndex = 200;
-                    String startOfData = gmlData.substring(0, endIndex);
-                    if (startOfData.contains("\"http://www.opengis.net/gml/3.2\"")) {
-                        return parseGml32(gmlData);
-                    } else {
-                        return parseGml3(gmlData);
+                    if (this.remoteFeaturesCache == null) {
+                        return parseGml(URIUtils.toString(httpRequestFactory, url.toURI()));
                     }
+                    return this.remoteFeaturesCache.get(template.getConfiguration(), httpRequestFactory, url.toURI(), TYPE,
+                            new RemoteFeaturesCache.FeaturesReader() {
+                                @Override
+                                public SimpleFeatureCollection read(final InputStream input) throws IOException {
+                                    return parseGml(CharStreams.toString(new InputStreamReader(input, Constants.DEFAULT_CHARSET)));
+                                }
+                            });
                 } catch (URISyntaxException e) {
                     throw ExceptionUtils.getRuntimeException(e);
                 }
@@ -154,6 +162,16 @@ public final class GmlLayer extends AbstractFeatureSourceLayer {
         }
 
 
+        private SimpleFeatureCollection parseGml(final String gmlData) throws IOException {
+            final int endIndex = 200;
+            String startOfData = gmlData.substring(0, endIndex);
+            if (startOfData.contains("\"http://www.opengis.net/gml/3.2\"")) {
+                return parseGml32(gmlData);
+            } else {
+                return parseGml3(gmlData);
+            }
+        }
+
         private SimpleFeatureCollection parseGml3(final String gmlData) throws IOException {
             Parser gmlV3Parser = createParser(GML_3_PARSER);
             gmlV3Parser.setStrict(false);
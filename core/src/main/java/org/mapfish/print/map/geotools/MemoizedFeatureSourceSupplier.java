@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2014  Camptocamp
+ *
+ * This file is part of MapFish Print
+ *
+ * MapFish Print is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MapFish Print is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MapFish Print.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.mapfish.print.map.geotools;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import org.geotools.data.FeatureSource;
+import org.mapfish.print.ExceptionUtils;
+import org.mapfish.print.attribute.map.MapfishMapContext;
+import org.mapfish.print.http.MfClientHttpRequestFactory;
+
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import javax.annotation.Nonnull;
+
+/**
+ * A {@link org.mapfish.print.map.geotools.FeatureSourceSupplier} loading the feature source only once per print job for a given
+ * source of data.
+ * <p></p>
+ * The layers are created again for each map, so without it a remote dataset would be downloaded and parsed for the main map,
+ * for the overview map and for each page of an atlas.  The http request factory is created for each print job and given to all
+ * its maps, so it is used as the key of the job.  Sharing the source also allows to share its spatial index.
+ */
+public final class MemoizedFeatureSourceSupplier implements FeatureSourceSupplier {
+    private static final Cache<MfClientHttpRequestFactory, Cache<Object, FeatureSource>> SOURCES_PER_JOB =
+            CacheBuilder.newBuilder().weakKeys().build();
+
+    private final Object key;
+    private final FeatureSourceSupplier supplier;
+
+    /**
+     * Constructor.
+     *
+     * @param key      identifies the data of the source in a print job, for example its url.  It must implement equals and
+     *                 hashCode.
+     * @param supplier the supplier loading the source.
+     */
+    public MemoizedFeatureSourceSupplier(@Nonnull final Object key, @Nonnull final FeatureSourceSupplier supplier) {
+        this.key = key;
+        this.supplier = supplier;
+    }
+
+    @Nonnull
+    @Override
+    public FeatureSource load(@Nonnull final MfClientHttpRequestFactory requestFactory,
+                              @Nonnull final MapfishMapContext mapContext) {
+        if (requestFactory == null) {
+            return this.supplier.load(requestFactory, mapContext);
+        }
+        // the axis order changes how the data is parsed
+        final Object sourceKey = Arrays.asList(this.key, mapContext.isForceLongitudeFirst());
+        try {
+            return getSources(requestFactory).get(sourceKey, new Callable<FeatureSource>() {
+                @Override
+                public FeatureSource call() {
+                    return MemoizedFeatureSourceSupplier.this.supplier.load(requestFactory, mapContext);
+                }
+            });
+        } catch (ExecutionException e) {
+            throw ExceptionUtils.getRuntimeException(e.getCause());
+        } catch (UncheckedExecutionException e) {
+            throw ExceptionUtils.getRuntimeException(e.getCause());
+        }
+    }
+
+    private static Cache<Object, FeatureSource> getSources(final MfClientHttpRequestFactory requestFactory) {
+        try {
+            return SOURCES_PER_JOB.get(requestFactory, new Callable<Cache<Object, FeatureSource>>() {
+                @Override
+                public Cache<Object, FeatureSource> call() {
+                    return CacheBuilder.newBuilder().build();
+                }
+            });
+        } catch (ExecutionException e) {
+            throw ExceptionUtils.getRuntimeException(e.getCause());
+        }
+    }
+}
@@ -0,0 +1,293 @@
+/*
+ * Copyright (C) 2014  Camptocamp
+ *
+ * This file is part of MapFish Print
+ *
+ * MapFish Print is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MapFish Print is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MapFish Print.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.mapfish.print.map.geotools;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.cache.Weigher;
+import com.google.common.primitives.Ints;
+import com.vividsolutions.jts.geom.Geometry;
+import org.geotools.data.DataUtilities;
+import org.geotools.data.collection.ListFeatureCollection;
+import org.geotools.data.simple.SimpleFeatureCollection;
+import org.geotools.data.simple.SimpleFeatureIterator;
+import org.mapfish.print.config.Configuration;
+import org.mapfish.print.http.MfClientHttpRequestFactory;
+import org.mapfish.print.map.tiled.TileCache;
+import org.opengis.feature.simple.SimpleFeature;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.client.ClientHttpRequest;
+import org.springframework.http.client.ClientHttpResponse;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.util.List;
+import java.util.Locale;
+import javax.annotation.Nullable;
+import javax.annotation.PostConstruct;
+
+/**
+ * A cache of the features parsed from the remote GeoJSON and GML documents, shared by all the print jobs.
+ * <p></p>
+ * The key is the configuration, the normalized URL and the headers identifying the user (see {@link TileCache#createKey}).
+ * Each time a cached document is used it is revalidated with a conditional request (If-None-Match and If-Modified-Since), so
+ * only the documents having an ETag or a Last-Modified header are cached.  A document which has not changed is neither
+ * downloaded nor parsed again.
+ * <p></p>
+ * The memory used by an entry is estimated from its number of features, attributes and coordinates (the parsed features take
+ * many times the size of the downloaded document), the least recently used entries are evicted when the configured maximum
+ * is reached.
+ * <p></p>
+ * The cached feature collections are shared by the jobs, they must not be modified.
+ */
+public final class RemoteFeaturesCache {
+    private static final Logger LOGGER = LoggerFactory.getLogger(RemoteFeaturesCache.class);
+    private static final String[] NOT_CACHEABLE = {"no-store", "private"};
+    // CSOFF:MagicNumber
+    private static final long DEFAULT_MAX_MEMORY_SIZE = 128L * 1024 * 1024;
+    // rough sizes on the heap of a 64 bits JVM
+    private static final int FEATURE_SIZE = 96;
+    private static final int ATTRIBUTE_SIZE = 24;
+    private static final int STRING_SIZE = 40;
+    private static final int GEOMETRY_SIZE = 96;
+    private static final int COORDINATE_SIZE = 48;
+    // CSON:MagicNumber
+
+    @Autowired
+    private MetricRegistry metricRegistry;
+
+    private boolean enabled = true;
+    private long maxMemorySize = DEFAULT_MAX_MEMORY_SIZE;
+
+    private Cache<String, CachedFeatures> cache;
+
+    /**
+     * Parses the features of a downloaded document.
+     */
+    public interface FeaturesReader {
+        /**
+         * Parse the features.
+         *
+         * @param input the body of the response.
+         * @return the features or null if the document doesn't contain features.
+         */
+        @Nullable
+        SimpleFeatureCollection read(InputStream input) throws IOException;
+    }
+
+    public void setEnabled(final boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * The maximum memory used by the cached features in bytes, estimated from the number of features, attributes and
+     * coordinates.
+     *
+     * @param maxMemorySize the maximum memory used by the cached features.
+     */
+    public void setMaxMemorySize(final long maxMemorySize) {
+        this.maxMemorySize = maxMemorySize;
+    }
+
+    /**
+     * Called by spring after the bean has been created and populated.
+     */
+    @PostConstruct
+    public void init() {
+        this.cache = CacheBuilder.newBuilder()
+                .maximumWeight(this.maxMemorySize)
+                .weigher(new Weigher<String, CachedFeatures>() {
+                    @Override
+                    public int weigh(final String key, final CachedFeatures value) {
+                        return Ints.saturatedCast(value.size);
+                    }
+                })
+                .removalListener(new RemovalListener<String, CachedFeatures>() {
+                    @Override
+                    public void onRemoval(final RemovalNotification<String, CachedFeatures> notification) {
+                        if (notification.wasEvicted()) {
+                            RemoteFeaturesCache.this.metricRegistry.counter(name("evictions")).inc();
+                        }
+                    }
+                })
+                .build();
+    }
+
+    /**
+     * Download and parse the features of a remote document, or get them from the cache if the document hasn't changed.
+     * Only the http and https uris are cached.
+     *
+     * @param configuration      the configuration of the print job.
+     * @param httpRequestFactory the request factory of the print job.
+     * @param uri                the uri of the document.
+     * @param parsingKey         identifies how the document is parsed (format, axis order...).
+     * @param reader             parses the document.
+     * @return the features or null if the document doesn't contain features.
+     */
+    @Nullable
+    public SimpleFeatureCollection get(@Nullable final Configuration configuration, final MfClientHttpRequestFactory httpRequestFactory,
+                                       final URI uri, final String parsingKey, final FeaturesReader reader) throws IOException {
+        final ClientHttpRequest request = httpRequestFactory.createRequest(uri, HttpMethod.GET);
+        if (!this.enabled || this.cache == null || !isHttp(uri)) {
+            return read(request, reader).features;
+        }
+
+        final String key = parsingKey + "\n" + TileCache.createKey(configuration, request);
+        final CachedFeatures cached = this.cache.getIfPresent(key);
+        if (cached != null) {
+            if (cached.eTag != null) {
+                request.getHeaders().setIfNoneMatch(cached.eTag);
+            }
+            if (cached.lastModified >= 0) {
+                request.getHeaders().setIfModifiedSince(cached.lastModified);
+            }
+        }
+
+        final CachedFeatures loaded;
+        final ClientHttpResponse response = request.execute();
+        try {
+            if (cached != null && response.getStatusCode() == HttpStatus.NOT_MODIFIED) {
+                this.metricRegistry.counter(name("hits")).inc();
+                return cached.features;
+            }
+            loaded = read(response, reader);
+        } finally {
+            response.close();
+        }
+
+        this.metricRegistry.counter(name(cached == null ? "misses" : "modified")).inc();
+        if (loaded.features != null && loaded.isCacheable()) {
+            this.cache.put(key, loaded);
+        } else if (cached != null) {
+            this.cache.invalidate(key);
+        }
+        return loaded.features;
+    }
+
+    private static CachedFeatures read(final ClientHttpRequest request, final FeaturesReader reader) throws IOException {
+        final ClientHttpResponse response = request.execute();
+        try {
+            return read(response, reader);
+        } finally {
+            response.close();
+        }
+    }
+
+    private static CachedFeatures read(final ClientHttpResponse response, final FeaturesReader reader) throws IOException {
+        SimpleFeatureCollection features = reader.read(response.getBody());
+        if (features != null && !(features instanceof ListFeatureCollection)) {
+            // the collections returned by the parsers can't always be iterated concurrently
+            features = new ListFeatureCollection(features.getSchema(), DataUtilities.list(features));
+        }
+        final HttpHeaders headers = response.getHeaders();
+        long lastModified = -1;
+        try {
+            lastModified = headers.getLastModified();
+        } catch (IllegalArgumentException e) {
+            LOGGER.debug("Invalid Last-Modified header: " + headers.getFirst("Last-Modified"));
+        }
+        return new CachedFeatures(features, headers.getETag(), lastModified, features == null ? 0 : estimateSize(features),
+                response.getStatusCode() == HttpStatus.OK && isStorable(headers));
+    }
+
+    /**
+     * Estimate the memory used by the features.
+     *
+     * @param features the features.
+     */
+    static long estimateSize(final SimpleFeatureCollection features) {
+        long size = 0;
+        final SimpleFeatureIterator iterator = features.features();
+        try {
+            while (iterator.hasNext()) {
+                final SimpleFeature feature = iterator.next();
+                size += FEATURE_SIZE;
+                for (Object value : feature.getAttributes()) {
+                    size += ATTRIBUTE_SIZE;
+                    if (value instanceof String) {
+                        size += STRING_SIZE + 2L * ((String) value).length();
+                    } else if (value instanceof Geometry) {
+                        final Geometry geometry = (Geometry) value;
+                        size += GEOMETRY_SIZE * geometry.getNumGeometries() + COORDINATE_SIZE * (long) geometry.getNumPoints();
+                    }
+                }
+            }
+        } finally {
+            iterator.close();
+        }
+        return size;
+    }
+
+    private static boolean isHttp(final URI uri) {
+        return "http".equalsIgnoreCase(uri.getScheme()) || "https".equalsIgnoreCase(uri.getScheme());
+    }
+
+    private static boolean isStorable(final HttpHeaders headers) {
+        // the header elements can be split in several values, see MfClientHttpRequestFactoryImpl.Response.getHeaders()
+        final List<String> cacheControls = headers.get("Cache-Control");
+        if (cacheControls != null) {
+            for (String cacheControl : cacheControls) {
+                for (String directive : cacheControl.toLowerCase(Locale.ROOT).split(",")) {
+                    for (String notCacheable : NOT_CACHEABLE) {
+                        if (directive.trim().equals(notCacheable)) {
+                            return false;
+                        }
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    private static String name(final String metricName) {
+        return RemoteFeaturesCache.class.getName() + "." + metricName;
+    }
+
+    private static final class CachedFeatures {
+        private final SimpleFeatureCollection features;
+        private final String eTag;
+        private final long lastModified;
+        private final long size;
+        private final boolean storable;
+
+        private CachedFeatures(final SimpleFeatureCollection features, final String eTag, final long lastModified,
+                               final long size, final boolean storable) {
+            this.features = features;
+            this.eTag = eTag;
+            this.lastModified = lastModified;
+            this.size = size;
+            this.storable = storable;
+        }
+
+        private boolean isCacheable() {
+            // without validator the document would have to be downloaded anyway
+            return this.storable && (this.eTag != null || this.lastModified >= 0);
+        }
+    }
+}
@@ -0,0 +1,359 @@
+/*
+ * Copyright (C) 2014  Camptocamp
+ *
+ * This file is part of MapFish Print
+ *
+ * MapFish Print is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MapFish Print is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MapFish Print.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.mapfish.print.map.geotools;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.geom.LinearRing;
+import com.vividsolutions.jts.geom.Point;
+import com.vividsolutions.jts.geom.Polygon;
+import org.json.simple.parser.ContentHandler;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+import org.mapfish.print.PrintException;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import javax.annotation.Nullable;
+
+/**
+ * Reads a GeoJSON feature collection (or an array of features, or a single feature) in one pass from a reader.
+ * <p></p>
+ * The document is never held in memory, only the feature being read is, as a small tree of maps and lists.  Its geometry and
+ * properties are kept and the union of the attributes and of the geometry types is collected on the fly, so that the feature
+ * type can be created once the whole document is read.
+ */
+final class StreamingGeoJsonReader implements ContentHandler {
+    private static final String FEATURES = "features";
+
+    private final GeometryFactory geometryFactory = new GeometryFactory();
+
+    private final Deque<Object> containers = new ArrayDeque<Object>();
+    private final Deque<String> keys = new ArrayDeque<String>();
+    private Object root;
+    private List<Object> featuresArray;
+
+    private final List<ParsedFeature> features = Lists.newArrayList();
+    private final Set<String> attributes = Sets.newLinkedHashSet();
+    private Class<? extends Geometry> geometryType = null;
+
+    /**
+     * Read the features.
+     *
+     * @param reader the GeoJSON
+     */
+    void read(final Reader reader) throws IOException {
+        try {
+            new JSONParser().parse(reader, this);
+        } catch (ParseException e) {
+            throw new PrintException("Invalid geoJSON: " + e, e);
+        }
+        if (this.root instanceof Map && isFeature(this.root)) {
+            // a single feature
+            @SuppressWarnings("unchecked")
+            final Map<String, Object> feature = (Map<String, Object>) this.root;
+            addFeature(feature);
+        }
+    }
+
+    /**
+     * The features read, in the order of the document.
+     */
+    List<ParsedFeature> getFeatures() {
+        return this.features;
+    }
+
+    /**
+     * The names of all the properties found in the features, in the order they were first found.
+     */
+    Set<String> getAttributes() {
+        return this.attributes;
+    }
+
+    /**
+     * The common type of the geometries, {@link Geometry} if they have different types and null if there are no geometries.
+     */
+    @Nullable
+    Class<? extends Geometry> getGeometryType() {
+        return this.geometryType;
+    }
+
+    /**
+     * The crs member of the collection, if any.
+     */
+    @Nullable
+    Map<?, ?> getCrs() {
+        if (this.root instanceof Map) {
+            final Object crs = ((Map<?, ?>) this.root).get("crs");
+            if (crs instanceof Map) {
+                return (Map<?, ?>) crs;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public void startJSON() {
+        this.containers.clear();
+        this.keys.clear();
+        this.root = null;
+        this.featuresArray = null;
+    }
+
+    @Override
+    public void endJSON() {
+        // nothing to do
+    }
+
+    @Override
+    public boolean startObject() {
+        this.containers.push(Maps.newLinkedHashMap());
+        return true;
+    }
+
+    @Override
+    public boolean endObject() {
+        final Object object = this.containers.pop();
+        if (this.featuresArray != null && this.containers.peek() == this.featuresArray) {
+            // the features are converted and dropped as soon as they are read
+            @SuppressWarnings("unchecked")
+            final Map<String, Object> feature = (Map<String, Object>) object;
+            addFeature(feature);
+        } else {
+            addValue(object);
+        }
+        return true;
+    }
+
+    @Override
+    public boolean startObjectEntry(final String key) {
+        this.keys.push(key);
+        return true;
+    }
+
+    @Override
+    public boolean endObjectEntry() {
+        this.keys.pop();
+        return true;
+    }
+
+    @Override
+    public boolean startArray() {
+        final List<Object> array = Lists.newArrayList();
+        if (this.containers.isEmpty() ||
+            (this.containers.size() == 1 && this.containers.peek() instanceof Map && FEATURES.equals(this.keys.peek()))) {
+            this.featuresArray = array;
+        }
+        this.containers.push(array);
+        return true;
+    }
+
+    @Override
+    public boolean endArray() {
+        addValue(this.containers.pop());
+        return true;
+    }
+
+    @Override
+    public boolean primitive(final Object value) {
+        addValue(value);
+        return true;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void addValue(final Object value) {
+        final Object parent = this.containers.peek();
+        if (parent == null) {
+            this.root = value;
+        } else if (parent instanceof List) {
+            ((List<Object>) parent).add(value);
+        } else {
+            ((Map<String, Object>) parent).put(this.keys.peek(), value);
+        }
+    }
+
+    private static boolean isFeature(final Object object) {
+        return "Feature".equalsIgnoreCase(String.valueOf(((Map<?, ?>) object).get("type")));
+    }
+
+    private void addFeature(final Map<String, Object> feature) {
+        final Object id = feature.get("id");
+        final Geometry geometry;
+        try {
+            geometry = parseGeometry(feature.get("geometry"));
+        } catch (IllegalArgumentException e) {
+            // thrown by JTS for the rings that are not closed or too short
+            throw new PrintException("Invalid geoJSON geometry of the feature " + id + ": " + e.getMessage(), e);
+        }
+        final Object propertiesObject = feature.get("properties");
+        final Map<?, ?> properties;
+        if (propertiesObject == null) {
+            properties = Maps.newHashMap();
+        } else if (propertiesObject instanceof Map) {
+            properties = (Map<?, ?>) propertiesObject;
+        } else {
+            throw new PrintException("Invalid geoJSON, the properties of the feature " + id + " must be an object: " +
+                                     propertiesObject);
+        }
+        for (Object key : properties.keySet()) {
+            this.attributes.add((String) key);
+        }
+        if (geometry != null && this.geometryType != Geometry.class) {
+            if (this.geometryType == null) {
+                this.geometryType = geometry.getClass();
+            } else if (this.geometryType != geometry.getClass()) {
+                this.geometryType = Geometry.class;
+            }
+        }
+        this.features.add(new ParsedFeature(id == null ? null : id.toString(), geometry, properties));
+    }
+
+    @Nullable
+    private Geometry parseGeometry(@Nullable final Object geometryObject) {
+        if (!(geometryObject instanceof Map)) {
+            return null;
+        }
+        final Map<?, ?> geometryJson = (Map<?, ?>) geometryObject;
+        final String type = String.valueOf(geometryJson.get("type"));
+        if (type.equalsIgnoreCase("GeometryCollection")) {
+            final List<?> geometriesJson = toList(geometryJson.get("geometries"), "geometries");
+            final Geometry[] geometries = new Geometry[geometriesJson.size()];
+            for (int i = 0; i < geometries.length; i++) {
+                geometries[i] = parseGeometry(geometriesJson.get(i));
+            }
+            return this.geometryFactory.createGeometryCollection(geometries);
+        }
+        final List<?> coordinates = toList(geometryJson.get("coordinates"), "coordinates");
+        if (type.equalsIgnoreCase("Point")) {
+            return this.geometryFactory.createPoint(toCoordinate(coordinates));
+        } else if (type.equalsIgnoreCase("MultiPoint")) {
+            final Point[] points = new Point[coordinates.size()];
+            for (int i = 0; i < points.length; i++) {
+                points[i] = this.geometryFactory.createPoint(toCoordinate(coordinates.get(i)));
+            }
+            return this.geometryFactory.createMultiPoint(points);
+        } else if (type.equalsIgnoreCase("LineString")) {
+            return this.geometryFactory.createLineString(toCoordinates(coordinates));
+        } else if (type.equalsIgnoreCase("MultiLineString")) {
+            final LineString[] lines = new LineString[coordinates.size()];
+            for (int i = 0; i < lines.length; i++) {
+                lines[i] = this.geometryFactory.createLineString(toCoordinates(coordinates.get(i)));
+            }
+            return this.geometryFactory.createMultiLineString(lines);
+        } else if (type.equalsIgnoreCase("Polygon")) {
+            return toPolygon(coordinates);
+        } else if (type.equalsIgnoreCase("MultiPolygon")) {
+            final Polygon[] polygons = new Polygon[coordinates.size()];
+            for (int i = 0; i < polygons.length; i++) {
+                polygons[i] = toPolygon(coordinates.get(i));
+            }
+            return this.geometryFactory.createMultiPolygon(polygons);
+        }
+        throw new PrintException("Invalid geoJSON, unrecognized geometry type: " + type);
+    }
+
+    private Polygon toPolygon(final Object ringsObject) {
+        final List<?> rings = toList(ringsObject, "polygon");
+        if (rings.isEmpty()) {
+            throw new PrintException("Invalid geoJSON, a polygon must have at least one ring");
+        }
+        final LinearRing shell = this.geometryFactory.createLinearRing(toCoordinates(rings.get(0)));
+        final LinearRing[] holes = new LinearRing[rings.size() - 1];
+        for (int i = 0; i < holes.length; i++) {
+            holes[i] = this.geometryFactory.createLinearRing(toCoordinates(rings.get(i + 1)));
+        }
+        return this.geometryFactory.createPolygon(shell, holes);
+    }
+
+    private static Coordinate[] toCoordinates(final Object positionsObject) {
+        final List<?> positions = toList(positionsObject, "positions");
+        final Coordinate[] coordinates = new Coordinate[positions.size()];
+        for (int i = 0; i < coordinates.length; i++) {
+            coordinates[i] = toCoordinate(positions.get(i));
+        }
+        return coordinates;
+    }
+
+    private static Coordinate toCoordinate(final Object positionObject) {
+        final List<?> position = toList(positionObject, "position");
+        if (position.size() < 2) {
+            throw new PrintException("Invalid geoJSON, a position must have at least two numbers: " + position);
+        }
+        final double x = toNumber(position.get(0));
+        final double y = toNumber(position.get(1));
+        if (position.size() > 2) {
+            return new Coordinate(x, y, toNumber(position.get(2)));
+        }
+        return new Coordinate(x, y);
+    }
+
+    private static List<?> toList(@Nullable final Object value, final String name) {
+        if (!(value instanceof List)) {
+            throw new PrintException("Invalid geoJSON, the " + name + " must be an array: " + value);
+        }
+        return (List<?>) value;
+    }
+
+    private static double toNumber(@Nullable final Object value) {
+        if (!(value instanceof Number)) {
+            throw new PrintException("Invalid geoJSON, the coordinates must be numbers: " + value);
+        }
+        return ((Number) value).doubleValue();
+    }
+
+    /**
+     * A feature as read from the GeoJSON.
+     */
+    static final class ParsedFeature {
+        private final String id;
+        private final Geometry geometry;
+        private final Map<?, ?> properties;
+
+        ParsedFeature(@Nullable final String id, @Nullable final Geometry geometry, final Map<?, ?> properties) {
+            this.id = id;
+            this.geometry = geometry;
+            this.properties = properties;
+        }
+
+        @Nullable
+        String getId() {
+            return this.id;
+        }
+
+        @Nullable
+        Geometry getGeometry() {
+            return this.geometry;
+        }
+
+        Map<?, ?> getProperties() {
+            return this.properties;
+        }
+    }
+}
@@ -19,10 +19,14 @@
 
 package org.mapfish.print.map.image.wms;
 
+import com.google.common.base.Optional;
+import com.google.common.collect.Lists;
 import com.google.common.io.Closer;
 import com.vividsolutions.jts.util.Assert;
 import org.geotools.coverage.grid.GridCoverage2D;
 import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.mapfish.print.ExceptionUtils;
+import org.mapfish.print.attribute.map.MapLayer;
 import org.mapfish.print.attribute.map.MapfishMapContext;
 import org.mapfish.print.http.MfClientHttpRequestFactory;
 import org.mapfish.print.map.geotools.StyleSupplier;
@@ -38,7 +42,11 @@ import java.awt.Graphics2D;
 import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
 import java.net.URI;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import javax.imageio.ImageIO;
 
 import static java.awt.image.BufferedImage.TYPE_INT_ARGB_PRE;
@@ -50,6 +58,8 @@ import static java.awt.image.BufferedImage.TYPE_INT_ARGB_PRE;
  */
 public final class WmsLayer extends AbstractSingleImageLayer {
     private static final Logger LOGGER = LoggerFactory.getLogger(WmsLayer.class);
+    private final ExecutorService executorService;
+    private final StyleSupplier<GridCoverage2D> styleSupplier;
     private final WmsLayerParam params;
 
     /**
@@ -63,9 +73,29 @@ public final class WmsLayer extends AbstractSingleImageLayer {
                        final StyleSupplier<GridCoverage2D> styleSupplier,
                        final WmsLayerParam params) {
         super(executorService, styleSupplier, params);
+        this.executorService = executorService;
+        this.styleSupplier = styleSupplier;
         this.params = params;
     }
 
+    /**
+     * Merge the new layer with this layer if both can be requested with a single GetMap request, see
+     * {@link WmsLayerParam#canMerge(WmsLayerParam)}.
+     *
+     * @param newLayer the layer to combine with this layer, it is rendered below this layer.
+     */
+    @Override
+    public Optional<MapLayer> tryAddLayer(final MapLayer newLayer) {
+        if (newLayer instanceof WmsLayer) {
+            final WmsLayerParam newParams = ((WmsLayer) newLayer).params;
+            if (this.params.canMerge(newParams)) {
+                return Optional.<MapLayer>of(new WmsLayer(this.executorService, this.styleSupplier,
+                        this.params.mergeAbove(newParams)));
+            }
+        }
+        return Optional.absent();
+    }
+
     @Override
     protected BufferedImage loadImage(final MfClientHttpRequestFactory requestFactory,
                                       final MapfishMapContext transformer,
@@ -75,9 +105,19 @@ public final class WmsLayer extends AbstractSingleImageLayer {
 
         final Rectangle paintArea = transformer.getPaintArea();
         ReferencedEnvelope envelope = transformer.getBounds().toReferencedEnvelope(paintArea, transformer.getDPI());
+
+        if (useMetaTiles(paintArea)) {
+            return loadMetaTiles(requestFactory, commonUri, paintArea, envelope, transformer.getDPI());
+        }
+
         URI uri = WmsUtilities.makeWmsGetLayerRequest(requestFactory, wmsLayerParam, commonUri, paintArea.getSize(),
                 transformer.getDPI(), envelope);
+        return loadImage(requestFactory, uri, paintArea);
+    }
 
+    private BufferedImage loadImage(final MfClientHttpRequestFactory requestFactory,
+                                    final URI uri,
+                                    final Rectangle paintArea) throws Throwable {
         Closer closer = Closer.create();
         try {
             final ClientHttpResponse response = closer.register(requestFactory.createRequest(uri, HttpMethod.GET).execute());
@@ -97,6 +137,83 @@ public final class WmsLayer extends AbstractSingleImageLayer {
         }
     }
 
+    /**
+     * Meta tiling is not used if the rotation is done by the server since each meta tile would be rotated around its own
+     * center.
+     */
+    private boolean useMetaTiles(final Rectangle paintArea) {
+        final Integer size = this.params.metaTileSize;
+        return size != null && size > 0 && (paintArea.width > size || paintArea.height > size) &&
+               !supportsNativeRotation();
+    }
+
+    /**
+     * Split the paint area in meta tiles of at most {@link WmsLayerParam#metaTileSize} pixels (gutter included), load them
+     * in parallel and draw them in one image.
+     */
+    private BufferedImage loadMetaTiles(final MfClientHttpRequestFactory requestFactory,
+                                        final URI commonUri,
+                                        final Rectangle paintArea,
+                                        final ReferencedEnvelope envelope,
+                                        final double dpi) throws Throwable {
+        final int gutter = this.params.metaTileGutter != null ? Math.max(0, this.params.metaTileGutter) : 0;
+        final int tileSize = Math.max(1, this.params.metaTileSize - 2 * gutter);
+        final double resolutionX = envelope.getWidth() / paintArea.width;
+        final double resolutionY = envelope.getHeight() / paintArea.height;
+
+        final List<Rectangle> tiles = Lists.newArrayList();
+        final List<Callable<BufferedImage>> tasks = Lists.newArrayList();
+        for (int y = 0; y < paintArea.height; y += tileSize) {
+            for (int x = 0; x < paintArea.width; x += tileSize) {
+                final Rectangle tile = new Rectangle(x, y, Math.min(tileSize, paintArea.width - x),
+                        Math.min(tileSize, paintArea.height - y));
+                final Rectangle request = new Rectangle(tile.x - gutter, tile.y - gutter,
+                        tile.width + 2 * gutter, tile.height + 2 * gutter);
+                final ReferencedEnvelope tileEnvelope = new ReferencedEnvelope(
+                        envelope.getMinX() + request.x * resolutionX,
+                        envelope.getMinX() + (request.x + request.width) * resolutionX,
+                        envelope.getMaxY() - (request.y + request.height) * resolutionY,
+                        envelope.getMaxY() - request.y * resolutionY,
+                        envelope.getCoordinateReferenceSystem());
+                final URI uri = WmsUtilities.makeWmsGetLayerRequest(requestFactory, this.params, commonUri,
+                        request.getSize(), dpi, tileEnvelope);
+                tiles.add(tile);
+                tasks.add(new Callable<BufferedImage>() {
+                    @Override
+                    public BufferedImage call() throws Exception {
+                        try {
+                            return loadImage(requestFactory, uri, request);
+                        } catch (Throwable t) {
+                            throw ExceptionUtils.getRuntimeException(t);
+                        }
+                    }
+                });
+            }
+        }
+        LOGGER.debug("Loading " + this.params.layers.length + " WMS layer(s) in " + tasks.size() + " meta tiles");
+
+        final List<Future<BufferedImage>> images = this.executorService.invokeAll(tasks);
+        final BufferedImage image = new BufferedImage(paintArea.width, paintArea.height, TYPE_INT_ARGB_PRE);
+        final Graphics2D graphics = image.createGraphics();
+        try {
+            for (int i = 0; i < tiles.size(); i++) {
+                final Rectangle tile = tiles.get(i);
+                final BufferedImage tileImage;
+                try {
+                    tileImage = images.get(i).get();
+                } catch (ExecutionException e) {
+                    throw e.getCause();
+                }
+                graphics.drawImage(tileImage,
+                        tile.x, tile.y, tile.x + tile.width, tile.y + tile.height,
+                        gutter, gutter, gutter + tile.width, gutter + tile.height, null);
+            }
+        } finally {
+            graphics.dispose();
+        }
+        return image;
+    }
+
     private BufferedImage createErrorImage(final Rectangle area) {
         final BufferedImage bufferedImage = new BufferedImage(area.width, area.height, TYPE_INT_ARGB_PRE);
         final Graphics2D graphics = bufferedImage.createGraphics();
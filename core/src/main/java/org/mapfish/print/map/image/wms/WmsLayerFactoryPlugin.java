@@ -27,7 +27,9 @@ import org.mapfish.print.map.geotools.AbstractGridCoverageLayerPlugin;
 import org.mapfish.print.map.style.StyleParser;
 import org.springframework.beans.factory.annotation.Autowired;
 
+import java.net.URI;
 import java.util.Collections;
+import java.util.Map;
 import java.util.Set;
 import javax.annotation.Nonnull;
 
@@ -44,6 +46,37 @@ public final class WmsLayerFactoryPlugin extends AbstractGridCoverageLayerPlugin
     private ForkJoinPool forkJoinPool;
     @Autowired
     private StyleParser styleParser;
+    private int metaTileSize = 0;
+    private int metaTileGutter = 0;
+    private Map<String, Integer> metaTileSizePerHost = Collections.emptyMap();
+
+    /**
+     * Set the default maximum width and height in pixels of a GetMap request, bigger maps are fetched as several meta tiles.
+     * 0 disables the meta tiling.
+     *
+     * @param metaTileSize the size in pixels.
+     */
+    public void setMetaTileSize(final int metaTileSize) {
+        this.metaTileSize = metaTileSize;
+    }
+
+    /**
+     * Set the default number of pixels added on each side of the meta tiles.
+     *
+     * @param metaTileGutter the gutter in pixels.
+     */
+    public void setMetaTileGutter(final int metaTileGutter) {
+        this.metaTileGutter = metaTileGutter;
+    }
+
+    /**
+     * Set the maximum size of the GetMap requests for specific servers, overriding {@link #setMetaTileSize(int)}.
+     *
+     * @param metaTileSizePerHost the size in pixels by 'host' or 'host:port'.
+     */
+    public void setMetaTileSizePerHost(final Map<String, Integer> metaTileSizePerHost) {
+        this.metaTileSizePerHost = metaTileSizePerHost;
+    }
 
 
     @Override
@@ -61,9 +94,24 @@ public final class WmsLayerFactoryPlugin extends AbstractGridCoverageLayerPlugin
     public WmsLayer parse(@Nonnull final Template template,
                           @Nonnull final WmsLayerParam layerData) throws Throwable {
 
+        if (layerData.metaTileSize == null) {
+            layerData.metaTileSize = getServerMetaTileSize(new URI(layerData.baseURL));
+        }
+        if (layerData.metaTileGutter == null) {
+            layerData.metaTileGutter = this.metaTileGutter;
+        }
+
         String styleRef = layerData.rasterStyle;
         return new WmsLayer(this.forkJoinPool,
                 super.<GridCoverage2D>createStyleSupplier(template, styleRef),
                 layerData);
     }
+
+    private int getServerMetaTileSize(final URI uri) {
+        Integer size = this.metaTileSizePerHost.get(uri.getHost() + ":" + uri.getPort());
+        if (size == null) {
+            size = this.metaTileSizePerHost.get(uri.getHost());
+        }
+        return size != null ? size : this.metaTileSize;
+    }
 }
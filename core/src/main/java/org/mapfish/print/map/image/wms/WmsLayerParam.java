@@ -19,6 +19,8 @@
 
 package org.mapfish.print.map.image.wms;
 
+import com.google.common.base.Objects;
+import com.google.common.collect.ObjectArrays;
 import com.vividsolutions.jts.util.Assert;
 
 import org.mapfish.print.map.tiled.AbstractWMXLayerParams;
@@ -28,6 +30,9 @@ import org.slf4j.LoggerFactory;
 
 import java.net.URISyntaxException;
 import java.util.Arrays;
+import java.util.Map;
+
+import static org.mapfish.print.Constants.OPACITY_PRECISION;
 
 
 /**
@@ -83,6 +88,21 @@ public class WmsLayerParam extends AbstractWMXLayerParams {
     @HasDefaultValue
     public String imageFormat = "image/png";
 
+    /**
+     * The maximum width and height in pixels of a GetMap request.  If the map is bigger (large paper formats or high dpi) it is
+     * split into several requests (meta tiles) that are fetched in parallel and stitched together.  If not set the value
+     * configured for the server is used.  0 disables the splitting.
+     */
+    @HasDefaultValue
+    public Integer metaTileSize;
+
+    /**
+     * The number of pixels added on each side of the meta tiles and cropped afterwards, to avoid cut labels along the seams.  If
+     * not set the value configured for the server is used.
+     */
+    @HasDefaultValue
+    public Integer metaTileGutter;
+
 
     @Override
     public final String getBaseUrl() {
@@ -115,6 +135,73 @@ public class WmsLayerParam extends AbstractWMXLayerParams {
         }
     }
 
+    /**
+     * Check if the layers of the other params can be requested in the same GetMap request as the layers of these params.
+     * <p></p>
+     * It is the case if they use the same server (base URL, version, server type), the same image format, the same custom
+     * and mergeable params and the same raster style, and if both are fully opaque (merging semi-transparent layers would
+     * change the rendering).
+     *
+     * @param other the params of the other layer.
+     */
+    public final boolean canMerge(final WmsLayerParam other) {
+        return Objects.equal(this.baseURL, other.baseURL) &&
+               Objects.equal(this.version, other.version) &&
+               Objects.equal(this.imageFormat, other.imageFormat) &&
+               this.serverType == other.serverType &&
+               this.useNativeAngle == other.useNativeAngle &&
+               this.failOnError == other.failOnError &&
+               Objects.equal(this.rasterStyle, other.rasterStyle) &&
+               1.0 - this.opacity < OPACITY_PRECISION && 1.0 - other.opacity < OPACITY_PRECISION &&
+               getCustomParams().equals(other.getCustomParams()) &&
+               getMergeableParams().equals(other.getMergeableParams());
+    }
+
+    /**
+     * Create the params requesting the layers of these params above the layers of the other params.  The params must be
+     * compatible, see {@link #canMerge(WmsLayerParam)}.
+     *
+     * @param below the params of the layer drawn below this layer.
+     */
+    public final WmsLayerParam mergeAbove(final WmsLayerParam below) {
+        final WmsLayerParam merged = new WmsLayerParam();
+        merged.baseURL = this.baseURL;
+        merged.version = this.version;
+        merged.imageFormat = this.imageFormat;
+        merged.serverType = this.serverType;
+        merged.useNativeAngle = this.useNativeAngle;
+        merged.failOnError = this.failOnError;
+        merged.rasterStyle = this.rasterStyle;
+        merged.opacity = this.opacity;
+        merged.mergeableParams = this.mergeableParams;
+        merged.metaTileSize = this.metaTileSize;
+        merged.metaTileGutter = this.metaTileGutter;
+        for (Map.Entry<String, String> entry : getCustomParams().entries()) {
+            merged.setCustomParam(entry.getKey(), entry.getValue());
+        }
+        if (below.name.isEmpty() || this.name.isEmpty()) {
+            merged.name = below.name + this.name;
+        } else {
+            merged.name = below.name + "," + this.name;
+        }
+
+        // the first layer is the bottom layer
+        merged.layers = ObjectArrays.concat(below.layers, this.layers, String.class);
+        if (this.styles != null || below.styles != null) {
+            merged.styles = ObjectArrays.concat(getStylesOrDefault(below), getStylesOrDefault(this), String.class);
+        }
+        return merged;
+    }
+
+    private static String[] getStylesOrDefault(final WmsLayerParam param) {
+        if (param.styles != null) {
+            return param.styles;
+        }
+        final String[] styles = new String[param.layers.length];
+        Arrays.fill(styles, "");
+        return styles;
+    }
+
     /**
      * The WMS server type.
      */
@@ -19,7 +19,10 @@
 
 package org.mapfish.print.map.style;
 
+import com.google.common.base.Objects;
 import com.google.common.base.Optional;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.Lists;
 import org.geotools.factory.CommonFactoryFinder;
 import org.geotools.styling.SLDTransformer;
@@ -27,6 +30,7 @@ import org.geotools.styling.Style;
 import org.geotools.styling.StyleFactory;
 import org.geotools.styling.StyledLayerDescriptor;
 import org.geotools.styling.UserLayer;
+import org.geotools.styling.visitor.DuplicatingStyleVisitor;
 import org.mapfish.print.ExceptionUtils;
 import org.mapfish.print.attribute.map.MapfishMapContext;
 import org.mapfish.print.config.Configuration;
@@ -35,19 +39,55 @@ import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.client.ClientHttpRequestFactory;
 
+import java.net.URI;
+import java.net.URISyntaxException;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 import javax.annotation.Nonnull;
 
 /**
  * Parse a style using all the available {@link StyleParserPlugin} registered with the spring application context.
+ * <p></p>
+ * The parsed styles are cached per configuration, a configuration is replaced when its file changes so the styles it refers to
+ * are parsed again.  Since the styles can refer to files, the entries also expire after {@link #setCacheTtl(int)} seconds.
+ * Only the inline styles and the files of the configuration are cached, the styles referred to by a url (http...) are always
+ * loaded with the request factory of the job, so that its processors (restricted uris, forwarded headers...) apply.  Each
+ * call returns a copy of the cached style since the layers modify them (for example for the opacity).
  *
  * @author Jesse on 3/26/14.
  */
 public final class StyleParser {
     private static final Logger LOGGER = LoggerFactory.getLogger(StyleParser.class);
+    private static final int DEFAULT_CACHE_SIZE = 1000;
+    private static final int DEFAULT_CACHE_TTL = 300;
+
  @Autowired
  private List<StyleParserPlugin> plugins = Lists.newArrayList();
 
+    private int cacheSize = DEFAULT_CACHE_SIZE;
+    private int cacheTtl = DEFAULT_CACHE_TTL;
+    private final Cache<Configuration, Cache<StyleKey, Style>> cache = CacheBuilder.newBuilder().weakKeys().build();
+
+    /**
+     * The maximum number of parsed styles kept per configuration. 0 disables the cache.
+     *
+     * @param cacheSize the number of styles
+     */
+    public void setCacheSize(final int cacheSize) {
+        this.cacheSize = cacheSize;
+    }
+
+    /**
+     * The time after which a parsed style is loaded and parsed again, to see the changes of the files and of the remote styles.
+     *
+     * @param cacheTtl the time in seconds
+     */
+    public void setCacheTtl(final int cacheTtl) {
+        this.cacheTtl = cacheTtl;
+    }
+
     /**
      * Load style using one of the plugins or return Optional.absent().
      *  @param configuration the configuration for the current request.
@@ -59,6 +99,66 @@ public final class StyleParser {
                                                @Nonnull final ClientHttpRequestFactory clientHttpRequestFactory,
                                                final String styleString,
                                                final MapfishMapContext mapContext) {
+        if (styleString == null || configuration == null || this.cacheSize == 0 || isUrl(styleString)) {
+            return parseStyle(configuration, clientHttpRequestFactory, styleString, mapContext);
+        }
+
+        final Cache<StyleKey, Style> styles = getStyles(configuration);
+        final StyleKey key = new StyleKey(styleString, mapContext);
+        Style style = styles.getIfPresent(key);
+        if (style == null) {
+            final Optional<? extends Style> parsed = parseStyle(configuration, clientHttpRequestFactory, styleString, mapContext);
+            if (!parsed.isPresent()) {
+                // not cached, the style may be a url that is not reachable now
+                return parsed;
+            }
+            style = parsed.get();
+            styles.put(key, style);
+        }
+        return Optional.of(copy(style));
+    }
+
+    /**
+     * True if the style is loaded from a url other than a file, its access depends on the request factory of the job.
+     */
+    private static boolean isUrl(final String styleString) {
+        final int indexRef = styleString.lastIndexOf(SLDParserPlugin.STYLE_INDEX_REF_SEPARATOR);
+        final String styleRef = indexRef < 0 ? styleString : styleString.substring(0, indexRef);
+        try {
+            final String scheme = new URI(styleRef.trim()).getScheme();
+            return scheme != null && !scheme.equalsIgnoreCase("file");
+        } catch (URISyntaxException e) {
+            // an inline style or a file
+            return false;
+        }
+    }
+
+    private Cache<StyleKey, Style> getStyles(final Configuration configuration) {
+        try {
+            return this.cache.get(configuration, new Callable<Cache<StyleKey, Style>>() {
+                @Override
+                public Cache<StyleKey, Style> call() {
+                    return CacheBuilder.newBuilder()
+                            .maximumSize(StyleParser.this.cacheSize)
+                            .expireAfterWrite(StyleParser.this.cacheTtl, TimeUnit.SECONDS)
+                            .build();
+                }
+            });
+        } catch (ExecutionException e) {
+            throw ExceptionUtils.getRuntimeException(e.getCause());
+        }
+    }
+
+    private static Style copy(final Style style) {
+        final DuplicatingStyleVisitor duplicator = new DuplicatingStyleVisitor();
+        style.accept(duplicator);
+        return (Style) duplicator.getCopy();
+    }
+
+    private Optional<? extends Style> parseStyle(final Configuration configuration,
+                                                 final ClientHttpRequestFactory clientHttpRequestFactory,
+                                                 final String styleString,
+                                                 final MapfishMapContext mapContext) {
         if (styleString != null) {
         for (StyleParserPlugin plugin : this.plugins) {
             try {
@@ -88,4 +188,37 @@ public final class StyleParser {
         }
         return Optional.absent();
     }
+
+    /**
+     * The style string and the parts of the map context that a plugin could use to parse it.
+     */
+    private static final class StyleKey {
+        private final String styleString;
+        private final double dpi;
+        private final Boolean dpiSensitiveStyle;
+
+        StyleKey(final String styleString, final MapfishMapContext mapContext) {
+            this.styleString = styleString;
+            this.dpi = mapContext == null ? 0 : mapContext.getDPI();
+            this.dpiSensitiveStyle = mapContext == null ? null : mapContext.isDpiSensitiveStyle();
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            final StyleKey other = (StyleKey) o;
+            return Double.compare(this.dpi, other.dpi) == 0 && this.styleString.equals(other.styleString) &&
+                   Objects.equal(this.dpiSensitiveStyle, other.dpiSensitiveStyle);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hashCode(this.styleString, this.dpi, this.dpiSensitiveStyle);
+        }
+    }
 }
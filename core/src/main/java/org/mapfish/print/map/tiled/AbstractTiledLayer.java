@@ -25,6 +25,7 @@ import org.geotools.map.GridCoverageLayer;
 import org.geotools.map.Layer;
 import org.mapfish.print.attribute.map.MapBounds;
 import org.mapfish.print.attribute.map.MapfishMapContext;
+import org.mapfish.print.config.Configuration;
 import org.mapfish.print.http.MfClientHttpRequestFactory;
 import org.mapfish.print.map.AbstractLayerParams;
 import org.mapfish.print.map.geotools.AbstractGeotoolsLayer;
@@ -45,19 +46,27 @@ public abstract class AbstractTiledLayer extends AbstractGeotoolsLayer {
 
     private final StyleSupplier<GridCoverage2D> styleSupplier;
     private final ForkJoinPool forkJoinPool;
+    private final TileLoader tileLoader;
+    private final Configuration configuration;
 
     /**
      * Constructor.
      * @param forkJoinPool the thread pool for doing the rendering.
      * @param styleSupplier strategy for loading the style for this layer
      * @param params the parameters for this layer
+     * @param tileLoader the object limiting the concurrent tile downloads
+     * @param configuration the configuration of the layer, the cached tiles are not shared with the other configurations
      */
     protected AbstractTiledLayer(final ForkJoinPool forkJoinPool,
                                  final StyleSupplier<GridCoverage2D> styleSupplier,
-                                 final AbstractLayerParams params) {
+                                 final AbstractLayerParams params,
+                                 final TileLoader tileLoader,
+                                 final Configuration configuration) {
         super(forkJoinPool, params);
         this.forkJoinPool = forkJoinPool;
         this.styleSupplier = styleSupplier;
+        this.tileLoader = tileLoader;
+        this.configuration = configuration;
     }
 
     @Override
@@ -69,7 +78,7 @@ public abstract class AbstractTiledLayer extends AbstractGeotoolsLayer {
         Rectangle paintArea = new Rectangle(mapContext.getMapSize());
         TileCacheInformation tileCacheInformation = createTileInformation(bounds, paintArea, dpi, isFirstLayer);
         final TileLoaderTask task = new TileLoaderTask(httpRequestFactory, dpi,
-                mapContext, tileCacheInformation, getFailOnError());
+                mapContext, tileCacheInformation, getFailOnError(), this.tileLoader, this.configuration);
         final GridCoverage2D gridCoverage2D = this.forkJoinPool.invoke(task);
 
         GridCoverageLayer layer = new GridCoverageLayer(gridCoverage2D, this.styleSupplier.load(httpRequestFactory, gridCoverage2D,
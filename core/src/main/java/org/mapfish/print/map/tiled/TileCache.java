@@ -0,0 +1,426 @@
+/*
+ * Copyright (C) 2014  Camptocamp
+ *
+ * This file is part of MapFish Print
+ *
+ * MapFish Print is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MapFish Print is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MapFish Print.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.mapfish.print.map.tiled;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.base.Charsets;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.cache.Weigher;
+import com.google.common.collect.Multimap;
+import com.google.common.collect.Ordering;
+import com.google.common.collect.TreeMultimap;
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Files;
+import org.mapfish.print.URIUtils;
+import org.mapfish.print.config.Configuration;
+import org.mapfish.print.config.WorkingDirectories;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.client.ClientHttpRequest;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.annotation.Nullable;
+import javax.annotation.PostConstruct;
+
+/**
+ * A cache of the tiles downloaded by the tiled layers, shared by all the print jobs.
+ * <p></p>
+ * The tiles are kept encoded in two tiers: an in-memory LRU cache and a cache on disk in the working directory.
+ * The key is the normalized tile URL (which contains all the layer parameters) and the headers identifying the user.
+ * The time to live is the configured one, shortened by the Cache-Control max-age or the Expires header of the
+ * response if present.  Responses with a no-store, no-cache or private Cache-Control are not cached.
+ */
+public final class TileCache {
+    private static final Logger LOGGER = LoggerFactory.getLogger(TileCache.class);
+    private static final String[] KEY_HEADERS = {"Authorization", "Cookie"};
+    private static final String[] NOT_CACHEABLE = {"no-store", "no-cache", "private"};
+    private static final String MAX_AGE = "max-age=";
+    // CSOFF:MagicNumber
+    private static final long DEFAULT_MAX_MEMORY_SIZE = 64L * 1024 * 1024;
+    private static final long DEFAULT_MAX_DISK_SIZE = 1024L * 1024 * 1024;
+    private static final int DEFAULT_TIME_TO_LIVE = 24 * 3600;
+    private static final double DISK_EVICTION_RATIO = 0.9;
+    // CSON:MagicNumber
+
+    @Autowired
+    private MetricRegistry metricRegistry;
+    @Autowired
+    private WorkingDirectories workingDirectories;
+
+    private boolean enabled = true;
+    private long maxMemorySize = DEFAULT_MAX_MEMORY_SIZE;
+    private long maxDiskSize = DEFAULT_MAX_DISK_SIZE;
+    private int timeToLive = DEFAULT_TIME_TO_LIVE;
+    private boolean honorCacheControl = true;
+
+    private Cache<String, CachedTile> memoryCache;
+    private File directory;
+    private final AtomicLong diskSize = new AtomicLong();
+
+    public void setEnabled(final boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * The maximum size of the in-memory cache in bytes, 0 disables the in-memory cache.
+     *
+     * @param maxMemorySize the maximum size of the tiles kept in memory.
+     */
+    public void setMaxMemorySize(final long maxMemorySize) {
+        this.maxMemorySize = maxMemorySize;
+    }
+
+    /**
+     * The maximum size of the cache on disk in bytes, 0 disables the cache on disk.
+     *
+     * @param maxDiskSize the maximum size of the tiles kept on disk.
+     */
+    public void setMaxDiskSize(final long maxDiskSize) {
+        this.maxDiskSize = maxDiskSize;
+    }
+
+    /**
+     * The maximum time in seconds a tile is kept.
+     *
+     * @param timeToLive the time to live in seconds.
+     */
+    public void setTimeToLive(final int timeToLive) {
+        this.timeToLive = timeToLive;
+    }
+
+    /**
+     * If true (the default) the Cache-Control and Expires headers of the responses are taken into account.
+     *
+     * @param honorCacheControl honor the Cache-Control header.
+     */
+    public void setHonorCacheControl(final boolean honorCacheControl) {
+        this.honorCacheControl = honorCacheControl;
+    }
+
+    /**
+     * Called by spring after the bean has been created and populated.
+     */
+    @PostConstruct
+    public void init() {
+        this.memoryCache = CacheBuilder.newBuilder()
+                .maximumWeight(this.maxMemorySize)
+                .weigher(new Weigher<String, CachedTile>() {
+                    @Override
+                    public int weigh(final String key, final CachedTile value) {
+                        return value.data.length;
+                    }
+                })
+                .expireAfterWrite(this.timeToLive, TimeUnit.SECONDS)
+                .removalListener(new RemovalListener<String, CachedTile>() {
+                    @Override
+                    public void onRemoval(final RemovalNotification<String, CachedTile> notification) {
+                        if (notification.wasEvicted()) {
+                            TileCache.this.metricRegistry.counter(name("memory.evictions")).inc();
+                        }
+                    }
+                })
+                .build();
+        this.directory = new File(this.workingDirectories.getWorking(), "tileCache");
+        final File[] files = this.directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                this.diskSize.addAndGet(file.length());
+            }
+        }
+    }
+
+    /**
+     * Get the encoded tile for the request, or null if it is not in the cache.
+     *
+     * @param configuration the configuration of the layer.
+     * @param request       the tile request.
+     */
+    @Nullable
+    public byte[] get(@Nullable final Configuration configuration, final ClientHttpRequest request) {
+        if (!this.enabled) {
+            return null;
+        }
+        final String key = createKey(configuration, request);
+        CachedTile tile = this.memoryCache.getIfPresent(key);
+        if (tile != null && !tile.isExpired()) {
+            this.metricRegistry.counter(name("memory.hits")).inc();
+            return tile.data;
+        }
+        tile = readFromDisk(key);
+        if (tile != null) {
+            this.metricRegistry.counter(name("disk.hits")).inc();
+            this.memoryCache.put(key, tile);
+            return tile.data;
+        }
+        this.metricRegistry.counter(name("misses")).inc();
+        return null;
+    }
+
+    /**
+     * Add a downloaded tile to the cache, if the response headers allow it.
+     *
+     * @param configuration   the configuration of the layer.
+     * @param request         the tile request.
+     * @param responseHeaders the headers of the response.
+     * @param data            the encoded tile.
+     */
+    public void put(@Nullable final Configuration configuration, final ClientHttpRequest request,
+                    final HttpHeaders responseHeaders, final byte[] data) {
+        if (!this.enabled) {
+            return;
+        }
+        final long timeToLiveMs = getTimeToLive(responseHeaders);
+        if (timeToLiveMs <= 0) {
+            return;
+        }
+        final String key = createKey(configuration, request);
+        final CachedTile tile = new CachedTile(data, System.currentTimeMillis() + timeToLiveMs);
+        this.memoryCache.put(key, tile);
+        writeToDisk(key, tile);
+    }
+
+    private long getTimeToLive(final HttpHeaders responseHeaders) {
+        final long maxTimeToLive = TimeUnit.SECONDS.toMillis(this.timeToLive);
+        if (!this.honorCacheControl) {
+            return maxTimeToLive;
+        }
+        // the header elements can be split in several values, see MfClientHttpRequestFactoryImpl.Response.getHeaders()
+        final List<String> cacheControls = responseHeaders.get("Cache-Control");
+        if (cacheControls != null) {
+            Long maxAge = null;
+            for (String cacheControl : cacheControls) {
+                for (String directive : cacheControl.toLowerCase(Locale.ROOT).split(",")) {
+                    directive = directive.trim();
+                    if (Arrays.asList(NOT_CACHEABLE).contains(directive)) {
+                        return 0;
+                    }
+                    if (directive.startsWith(MAX_AGE)) {
+                        try {
+                            maxAge = Long.parseLong(directive.substring(MAX_AGE.length()).trim());
+                        } catch (NumberFormatException e) {
+                            LOGGER.debug("Invalid max-age in Cache-Control: " + cacheControl);
+                        }
+                    }
+                }
+            }
+            if (maxAge != null) {
+                return Math.min(maxTimeToLive, TimeUnit.SECONDS.toMillis(maxAge));
+            }
+        }
+        try {
+            final long expires = responseHeaders.getExpires();
+            if (expires >= 0) {
+                return Math.min(maxTimeToLive, expires - System.currentTimeMillis());
+            }
+        } catch (IllegalArgumentException e) {
+            LOGGER.debug("Invalid Expires header: " + responseHeaders.getFirst("Expires"));
+        }
+        return maxTimeToLive;
+    }
+
+    @Nullable
+    private CachedTile readFromDisk(final String key) {
+        if (this.maxDiskSize <= 0) {
+            return null;
+        }
+        final File file = getFile(key);
+        if (!file.isFile()) {
+            return null;
+        }
+        try {
+            final DataInputStream input = new DataInputStream(new FileInputStream(file));
+            final CachedTile tile;
+            try {
+                final long expires = input.readLong();
+                // the whole stream is read, the file can be replaced by another writer while it is open
+                tile = new CachedTile(ByteStreams.toByteArray(input), expires);
+            } finally {
+                input.close();
+            }
+            if (tile.isExpired()) {
+                deleteFromDisk(file);
+                return null;
+            }
+            // used for the LRU eviction
+            if (!file.setLastModified(System.currentTimeMillis())) {
+                LOGGER.debug("Unable to touch the cached tile: " + file);
+            }
+            return tile;
+        } catch (EOFException e) {
+            LOGGER.warn("The cached tile is shorter than its header: " + file);
+            deleteFromDisk(file);
+            return null;
+        } catch (IOException e) {
+            LOGGER.warn("Unable to read the cached tile: " + file, e);
+            deleteFromDisk(file);
+            return null;
+        }
+    }
+
+    private void writeToDisk(final String key, final CachedTile tile) {
+        if (this.maxDiskSize <= 0) {
+            return;
+        }
+        final File file = getFile(key);
+        try {
+            Files.createParentDirs(file);
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream(tile.data.length + (Long.SIZE / Byte.SIZE));
+            final DataOutputStream output = new DataOutputStream(bytes);
+            output.writeLong(tile.expires);
+            output.write(tile.data);
+            output.close();
+            // each writer has its own temporary file, the same tile can be written by several jobs at the same time
+            final File tmpFile = File.createTempFile(file.getName(), ".tmp", file.getParentFile());
+            try {
+                Files.write(bytes.toByteArray(), tmpFile);
+                final long previousSize = file.length();
+                Files.move(tmpFile, file);
+                if (this.diskSize.addAndGet(file.length() - previousSize) > this.maxDiskSize) {
+                    evictFromDisk();
+                }
+            } finally {
+                if (tmpFile.exists() && !tmpFile.delete()) {
+                    LOGGER.debug("Unable to delete the temporary file: " + tmpFile);
+                }
+            }
+        } catch (IOException e) {
+            LOGGER.warn("Unable to write the tile to the cache: " + file, e);
+        }
+    }
+
+    private synchronized void evictFromDisk() {
+        if (this.diskSize.get() <= this.maxDiskSize) {
+            return;
+        }
+        final File[] files = this.directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        final List<File> sortedFiles = new Ordering<File>() {
+            @Override
+            public int compare(final File file1, final File file2) {
+                return Long.compare(file1.lastModified(), file2.lastModified());
+            }
+        }.sortedCopy(Arrays.asList(files));
+        final long targetSize = (long) (this.maxDiskSize * DISK_EVICTION_RATIO);
+        for (File file : sortedFiles) {
+            if (this.diskSize.get() <= targetSize) {
+                break;
+            }
+            if (deleteFromDisk(file)) {
+                this.metricRegistry.counter(name("disk.evictions")).inc();
+            }
+        }
+    }
+
+    private boolean deleteFromDisk(final File file) {
+        final long size = file.length();
+        if (file.delete()) {
+            this.diskSize.addAndGet(-size);
+            return true;
+        }
+        return false;
+    }
+
+    private File getFile(final String key) {
+        return new File(this.directory, Hashing.sha1().hashString(key, Charsets.UTF_8).toString());
+    }
+
+    /**
+     * Create the cache key of the request: the URL with the sorted query parameters and the headers identifying
+     * the user.
+     *
+     * @param configuration the configuration of the request, the credentials of the configurations are not all set in
+     *                      the headers so the cached responses are not shared between the configurations.
+     * @param request       the request.
+     */
+    public static String createKey(@Nullable final Configuration configuration, final ClientHttpRequest request) {
+        final URI uri = request.getURI();
+        final StringBuilder key = new StringBuilder();
+        if (configuration != null) {
+            key.append(configuration.getDirectory().getAbsolutePath()).append('\n');
+        }
+        if (uri.getScheme() != null) {
+            key.append(uri.getScheme().toLowerCase(Locale.ROOT)).append("://");
+        }
+        if (uri.getHost() != null) {
+            key.append(uri.getHost().toLowerCase(Locale.ROOT));
+        }
+        if (uri.getPort() >= 0) {
+            key.append(':').append(uri.getPort());
+        }
+        key.append(uri.getPath());
+
+        final Multimap<String, String> sortedParams = TreeMultimap.create();
+        for (Map.Entry<String, String> entry : URIUtils.getParameters(uri).entries()) {
+            sortedParams.put(entry.getKey(), entry.getValue());
+        }
+        char separator = '?';
+        for (Map.Entry<String, String> entry : sortedParams.entries()) {
+            key.append(separator).append(entry.getKey()).append('=').append(entry.getValue());
+            separator = '&';
+        }
+
+        for (String header : KEY_HEADERS) {
+            final List<String> values = request.getHeaders().get(header);
+            if (values != null && !values.isEmpty()) {
+                key.append('\n').append(header).append(": ").append(values);
+            }
+        }
+        return key.toString();
+    }
+
+    private static String name(final String metricName) {
+        return TileCache.class.getName() + "." + metricName;
+    }
+
+    private static final class CachedTile {
+        private final byte[] data;
+        private final long expires;
+
+        private CachedTile(final byte[] data, final long expires) {
+            this.data = data;
+            this.expires = expires;
+        }
+
+        private boolean isExpired() {
+            return System.currentTimeMillis() > this.expires;
+        }
+    }
+}
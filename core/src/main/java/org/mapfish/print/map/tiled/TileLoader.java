@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2014  Camptocamp
+ *
+ * This file is part of MapFish Print
+ *
+ * MapFish Print is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MapFish Print is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MapFish Print.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.mapfish.print.map.tiled;
+
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import jsr166y.ForkJoinPool;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import java.net.URI;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Shared by all the tiled layers, it limits the number of tiles that are downloaded concurrently, gives access to
+ * the {@link TileCache} and records the tile loading metrics.
+ */
+public final class TileLoader {
+    private static final int DEFAULT_MAX_TILES_IN_FLIGHT_PER_LAYER = 16;
+    private static final int DEFAULT_MAX_REQUESTS_PER_HOST = 32;
+
+    @Autowired
+    private MetricRegistry metricRegistry;
+    @Autowired
+    private TileCache tileCache;
+
+    private int maxTilesInFlightPerLayer = DEFAULT_MAX_TILES_IN_FLIGHT_PER_LAYER;
+    private int maxRequestsPerHost = DEFAULT_MAX_REQUESTS_PER_HOST;
+    private final ConcurrentMap<String, Semaphore> hostPermits = new ConcurrentHashMap<String, Semaphore>();
+
+    /**
+     * The maximum number of tiles of a single layer that are downloaded at the same time.
+     *
+     * @param maxTilesInFlightPerLayer the maximum number of concurrent tile downloads per layer.
+     */
+    public void setMaxTilesInFlightPerLayer(final int maxTilesInFlightPerLayer) {
+        if (maxTilesInFlightPerLayer < 1) {
+            throw new IllegalArgumentException("maxTilesInFlightPerLayer must be at least 1");
+        }
+        this.maxTilesInFlightPerLayer = maxTilesInFlightPerLayer;
+    }
+
+    public int getMaxTilesInFlightPerLayer() {
+        return this.maxTilesInFlightPerLayer;
+    }
+
+    /**
+     * The maximum number of tile requests that are sent at the same time to a given host, all print jobs included.
+     *
+     * @param maxRequestsPerHost the maximum number of concurrent tile requests per host.
+     */
+    public void setMaxRequestsPerHost(final int maxRequestsPerHost) {
+        if (maxRequestsPerHost < 1) {
+            throw new IllegalArgumentException("maxRequestsPerHost must be at least 1");
+        }
+        this.maxRequestsPerHost = maxRequestsPerHost;
+    }
+
+    TileCache getTileCache() {
+        return this.tileCache;
+    }
+
+    /**
+     * Start the timer measuring the time taken to load one tile.  The timer's rate is the number of tiles loaded per second.
+     *
+     * @param uri the uri of the tile.
+     */
+    Timer.Context startTileTimer(final URI uri) {
+        this.metricRegistry.meter(TileLoader.class.getName() + ".tiles:" + uri.getHost()).mark();
+        return this.metricRegistry.timer(TileLoader.class.getName() + ".tile").time();
+    }
+
+    /**
+     * Wait until a request can be sent to the host of the uri.  The wait is done with a managed blocker so the fork join
+     * pool can compensate for the blocked thread.
+     *
+     * @param uri the uri to be requested.
+     */
+    void acquireHostPermit(final URI uri) throws InterruptedException {
+        final Semaphore semaphore = getHostSemaphore(uri);
+        if (!semaphore.tryAcquire()) {
+            ForkJoinPool.managedBlock(new ForkJoinPool.ManagedBlocker() {
+                private boolean acquired = false;
+
+                @Override
+                public boolean block() throws InterruptedException {
+                    if (!this.acquired) {
+                        semaphore.acquire();
+                        this.acquired = true;
+                    }
+                    return true;
+                }
+
+                @Override
+                public boolean isReleasable() {
+                    if (!this.acquired) {
+                        this.acquired = semaphore.tryAcquire();
+                    }
+                    return this.acquired;
+                }
+            });
+        }
+    }
+
+    /**
+     * Release the permit acquired by {@link #acquireHostPermit(java.net.URI)}.
+     *
+     * @param uri the uri that has been requested.
+     */
+    void releaseHostPermit(final URI uri) {
+        getHostSemaphore(uri).release();
+    }
+
+    private Semaphore getHostSemaphore(final URI uri) {
+        final String host = uri.getHost() + ":" + uri.getPort();
+        Semaphore semaphore = this.hostPermits.get(host);
+        if (semaphore == null) {
+            final Semaphore newSemaphore = new Semaphore(this.maxRequestsPerHost);
+            semaphore = this.hostPermits.putIfAbsent(host, newSemaphore);
+            if (semaphore == null) {
+                semaphore = newSemaphore;
+            }
+        }
+        return semaphore;
+    }
+}
@@ -19,8 +19,10 @@
 
 package org.mapfish.print.map.tiled;
 
+import com.codahale.metrics.Timer;
 import com.google.common.base.Optional;
 import com.google.common.collect.Lists;
+import com.google.common.io.ByteStreams;
 import com.vividsolutions.jts.geom.Coordinate;
 import com.vividsolutions.jts.geom.Geometry;
 import com.vividsolutions.jts.geom.GeometryFactory;
@@ -35,6 +37,7 @@ import org.geotools.referencing.operation.transform.AffineTransform2D;
 import org.mapfish.print.ExceptionUtils;
 import org.mapfish.print.attribute.map.MapBounds;
 import org.mapfish.print.attribute.map.MapfishMapContext;
+import org.mapfish.print.config.Configuration;
 import org.mapfish.print.http.MfClientHttpRequestFactory;
 import org.opengis.referencing.crs.CoordinateReferenceSystem;
 import org.opengis.referencing.operation.MathTransform;
@@ -51,8 +54,13 @@ import java.awt.Graphics2D;
 import java.awt.Rectangle;
 import java.awt.geom.AffineTransform;
 import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayDeque;
+import java.util.Deque;
 import java.util.List;
+import javax.annotation.Nullable;
 import javax.imageio.ImageIO;
 
 /**
@@ -69,6 +77,8 @@ public final class TileLoaderTask extends RecursiveTask<GridCoverage2D> {
     private final BufferedImage errorImage;
     private final MfClientHttpRequestFactory httpRequestFactory;
     private final boolean failOnError;
+    private final TileLoader tileLoader;
+    private final Configuration configuration;
     private Optional<Geometry> cachedRotatedMapBounds = null;
 
     /**
@@ -78,12 +88,16 @@ public final class TileLoaderTask extends RecursiveTask<GridCoverage2D> {
      * @param transformer        a transformer for making calculations
      * @param tileCacheInfo      the object used to create the tile requests
      * @param failOnError        fail on tile download error
+     * @param tileLoader         the object limiting the concurrent downloads and recording the metrics
+     * @param configuration      the configuration of the layer, used for the key of the cached tiles
      */
     public TileLoaderTask(final MfClientHttpRequestFactory httpRequestFactory,
                           final double dpi,
                           final MapfishMapContext transformer,
                           final TileCacheInformation tileCacheInfo,
-                          final boolean failOnError) {
+                          final boolean failOnError,
+                          final TileLoader tileLoader,
+                          @Nullable final Configuration configuration) {
         this.bounds = transformer.getBounds();
         this.paintArea = new Rectangle(transformer.getMapSize());
         this.dpi = dpi;
@@ -91,6 +105,8 @@ public final class TileLoaderTask extends RecursiveTask<GridCoverage2D> {
         this.transformer = transformer;
         this.tiledLayer = tileCacheInfo;
         this.failOnError = failOnError;
+        this.tileLoader = tileLoader;
+        this.configuration = configuration;
         final Dimension tileSize = this.tiledLayer.getTileSize();
         this.errorImage = new BufferedImage(tileSize.width, tileSize.height, BufferedImage.TYPE_4BYTE_ABGR);
         Graphics2D graphics = this.errorImage.createGraphics();
@@ -161,7 +177,7 @@ public final class TileLoaderTask extends RecursiveTask<GridCoverage2D> {
                         if (isTileVisible(tileBounds)) {
                             final SingleTileLoaderTask task = new SingleTileLoaderTask(
                                     tileRequest, this.errorImage, xIndex, yIndex,
-                                    this.failOnError);
+                                    this.failOnError, this.tileLoader, this.configuration);
                             loaderTasks.add(task);
                         }
                     } else {
@@ -176,13 +192,7 @@ public final class TileLoaderTask extends RecursiveTask<GridCoverage2D> {
             BufferedImage coverageImage = this.tiledLayer.createBufferedImage(imageWidth, imageHeight);
             Graphics2D graphics = coverageImage.createGraphics();
             try {
-                for (TileTask loaderTask : loaderTasks) {
-                    Tile tile = loaderTask.invoke();
-                    if (tile.image != null) {
-                        graphics.drawImage(tile.image,
-                                tile.xIndex * tileSizeOnScreen.width, tile.yIndex * tileSizeOnScreen.height, null);
-                    }
-                }
+                loadTiles(loaderTasks, graphics, tileSizeOnScreen);
             } finally {
                 graphics.dispose();
             }
@@ -196,6 +206,39 @@ public final class TileLoaderTask extends RecursiveTask<GridCoverage2D> {
         }
     }
 
+    /**
+     * Fork the tile tasks so that up to {@link TileLoader#getMaxTilesInFlightPerLayer()} tiles are downloaded in parallel
+     * and draw the tiles in the coverage image as they are joined.
+     */
+    private void loadTiles(final List<TileTask> loaderTasks, final Graphics2D graphics, final Dimension tileSizeOnScreen) {
+        final int maxInFlight = this.tileLoader.getMaxTilesInFlightPerLayer();
+        final Deque<TileTask> inFlight = new ArrayDeque<TileTask>(maxInFlight);
+        try {
+            for (TileTask loaderTask : loaderTasks) {
+                loaderTask.fork();
+                inFlight.addLast(loaderTask);
+                if (inFlight.size() >= maxInFlight) {
+                    drawTile(graphics, inFlight.removeFirst().join(), tileSizeOnScreen);
+                }
+            }
+            while (!inFlight.isEmpty()) {
+                drawTile(graphics, inFlight.removeFirst().join(), tileSizeOnScreen);
+            }
+        } catch (RuntimeException e) {
+            for (TileTask task : inFlight) {
+                task.cancel(true);
+            }
+            throw e;
+        }
+    }
+
+    private void drawTile(final Graphics2D graphics, final Tile tile, final Dimension tileSizeOnScreen) {
+        if (tile.image != null) {
+            graphics.drawImage(tile.image,
+                    tile.xIndex * tileSizeOnScreen.width, tile.yIndex * tileSizeOnScreen.height, null);
+        }
+    }
+
     private boolean isInTileCacheBounds(final ReferencedEnvelope tileCacheBounds, final ReferencedEnvelope tilesBounds) {
         final double boundsMinX = tilesBounds.getMinX();
         final double boundsMinY = tilesBounds.getMinY();
@@ -276,17 +319,44 @@ public final class TileLoaderTask extends RecursiveTask<GridCoverage2D> {
         private final ClientHttpRequest tileRequest;
         private final BufferedImage errorImage;
         private final boolean failOnError;
+        private final TileLoader tileLoader;
+        private final Configuration configuration;
 
         public SingleTileLoaderTask(final ClientHttpRequest tileRequest, final BufferedImage errorImage, final int tileIndexX,
-                                    final int tileIndexY, final boolean failOnError) {
+                                    final int tileIndexY, final boolean failOnError, final TileLoader tileLoader,
+                                    final Configuration configuration) {
             super(tileIndexX, tileIndexY);
             this.tileRequest = tileRequest;
             this.errorImage = errorImage;
             this.failOnError = failOnError;
+            this.tileLoader = tileLoader;
+            this.configuration = configuration;
         }
 
         @Override
         protected Tile compute() {
+            final byte[] cachedTile = this.tileLoader.getTileCache().get(this.configuration, this.tileRequest);
+            if (cachedTile != null) {
+                return createTile(cachedTile);
+            }
+
+            final URI uri = this.tileRequest.getURI();
+            try {
+                this.tileLoader.acquireHostPermit(uri);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw ExceptionUtils.getRuntimeException(e);
+            }
+            final Timer.Context timerContext = this.tileLoader.startTileTimer(uri);
+            try {
+                return loadTile();
+            } finally {
+                timerContext.stop();
+                this.tileLoader.releaseHostPermit(uri);
+            }
+        }
+
+        private Tile loadTile() {
             ClientHttpResponse response = null;
             try {
                 LOGGER.debug("\n\t" + this.tileRequest.getMethod() + " -- " + this.tileRequest.getURI());
@@ -305,7 +375,24 @@ public final class TileLoaderTask extends RecursiveTask<GridCoverage2D> {
                     return new Tile(null, getTileIndexX(), getTileIndexY());
                 }
 
-                BufferedImage image = ImageIO.read(response.getBody());
+                final byte[] data = ByteStreams.toByteArray(response.getBody());
+                final Tile tile = createTile(data);
+                if (tile.image != this.errorImage) {
+                    this.tileLoader.getTileCache().put(this.configuration, this.tileRequest, response.getHeaders(), data);
+                }
+                return tile;
+            } catch (IOException e) {
+                throw ExceptionUtils.getRuntimeException(e);
+            } finally {
+                if (response != null) {
+                    response.close();
+                }
+            }
+        }
+
+        private Tile createTile(final byte[] data) {
+            try {
+                BufferedImage image = ImageIO.read(new ByteArrayInputStream(data));
                 if (image == null) {
                     LOGGER.warn("The URL: " + this.tileRequest.getURI() + " is an image format that can be decoded");
                     image = this.errorImage;
@@ -314,10 +401,6 @@ public final class TileLoaderTask extends RecursiveTask<GridCoverage2D> {
                 return new Tile(image, getTileIndexX(), getTileIndexY());
             } catch (IOException e) {
                 throw ExceptionUtils.getRuntimeException(e);
-            } finally {
-                if (response != null) {
-                    response.close();
-                }
             }
         }
     }
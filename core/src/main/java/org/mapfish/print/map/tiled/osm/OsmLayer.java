@@ -24,11 +24,13 @@ import org.geotools.coverage.grid.GridCoverage2D;
 import org.geotools.geometry.jts.ReferencedEnvelope;
 import org.mapfish.print.URIUtils;
 import org.mapfish.print.attribute.map.MapBounds;
+import org.mapfish.print.config.Configuration;
 import org.mapfish.print.http.MfClientHttpRequestFactory;
 import org.mapfish.print.map.Scale;
 import org.mapfish.print.map.geotools.StyleSupplier;
 import org.mapfish.print.map.tiled.AbstractTiledLayer;
 import org.mapfish.print.map.tiled.TileCacheInformation;
+import org.mapfish.print.map.tiled.TileLoader;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.http.HttpMethod;
@@ -56,11 +58,15 @@ public final class OsmLayer extends AbstractTiledLayer {
      * @param forkJoinPool  the thread pool for doing the rendering.
      * @param styleSupplier strategy for loading the style for this layer
      * @param param         the information needed to create OSM requests.
+     * @param tileLoader    the object limiting the concurrent tile downloads
+     * @param configuration the configuration of the layer
      */
     public OsmLayer(final ForkJoinPool forkJoinPool,
                     final StyleSupplier<GridCoverage2D> styleSupplier,
-                    final OsmLayerParam param) {
-        super(forkJoinPool, styleSupplier, param);
+                    final OsmLayerParam param,
+                    final TileLoader tileLoader,
+                    final Configuration configuration) {
+        super(forkJoinPool, styleSupplier, param, tileLoader, configuration);
         this.param = param;
     }
 
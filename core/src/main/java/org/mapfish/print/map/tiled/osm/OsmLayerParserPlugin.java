@@ -26,6 +26,7 @@ import org.mapfish.print.config.Template;
 import org.mapfish.print.map.MapLayerFactoryPlugin;
 import org.mapfish.print.map.geotools.AbstractGridCoverageLayerPlugin;
 import org.mapfish.print.map.style.StyleParser;
+import org.mapfish.print.map.tiled.TileLoader;
 import org.springframework.beans.factory.annotation.Autowired;
 
 import java.util.Set;
@@ -43,6 +44,8 @@ public final class OsmLayerParserPlugin extends AbstractGridCoverageLayerPlugin
     private StyleParser parser;
     @Autowired
     private ForkJoinPool forkJoinPool;
+    @Autowired
+    private TileLoader tileLoader;
 
     private Set<String> typenames = Sets.newHashSet("osm");
 
@@ -64,6 +67,8 @@ public final class OsmLayerParserPlugin extends AbstractGridCoverageLayerPlugin
         String styleRef = param.rasterStyle;
         return new OsmLayer(this.forkJoinPool,
                 super.<GridCoverage2D>createStyleSupplier(template, styleRef),
-                param);
+                param,
+                this.tileLoader,
+                template.getConfiguration());
     }
 }
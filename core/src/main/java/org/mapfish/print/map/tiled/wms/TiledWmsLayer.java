@@ -23,11 +23,13 @@ import jsr166y.ForkJoinPool;
 import org.geotools.coverage.grid.GridCoverage2D;
 import org.geotools.geometry.jts.ReferencedEnvelope;
 import org.mapfish.print.attribute.map.MapBounds;
+import org.mapfish.print.config.Configuration;
 import org.mapfish.print.http.MfClientHttpRequestFactory;
 import org.mapfish.print.map.Scale;
 import org.mapfish.print.map.geotools.StyleSupplier;
 import org.mapfish.print.map.tiled.AbstractTiledLayer;
 import org.mapfish.print.map.tiled.TileCacheInformation;
+import org.mapfish.print.map.tiled.TileLoader;
 import org.opengis.referencing.FactoryException;
 import org.springframework.http.HttpMethod;
 import org.springframework.http.client.ClientHttpRequest;
@@ -55,12 +57,16 @@ public final class TiledWmsLayer extends AbstractTiledLayer {
      * @param forkJoinPool  the thread pool for doing the rendering.
      * @param styleSupplier strategy for loading the style for this layer
      * @param param         the information needed to create WMS requests.
+     * @param tileLoader    the object limiting the concurrent tile downloads
+     * @param configuration the configuration of the layer
      */
     public TiledWmsLayer(
             final ForkJoinPool forkJoinPool,
             final StyleSupplier<GridCoverage2D> styleSupplier,
-            final TiledWmsLayerParam param) {
-        super(forkJoinPool, styleSupplier, param);
+            final TiledWmsLayerParam param,
+            final TileLoader tileLoader,
+            final Configuration configuration) {
+        super(forkJoinPool, styleSupplier, param, tileLoader, configuration);
         this.param = param;
     }
 
@@ -25,6 +25,7 @@ import org.geotools.coverage.grid.GridCoverage2D;
 import org.mapfish.print.config.Template;
 import org.mapfish.print.map.MapLayerFactoryPlugin;
 import org.mapfish.print.map.geotools.AbstractGridCoverageLayerPlugin;
+import org.mapfish.print.map.tiled.TileLoader;
 import org.springframework.beans.factory.annotation.Autowired;
 
 import java.util.Set;
@@ -41,6 +42,8 @@ public final class TiledWmsLayerParserPlugin extends AbstractGridCoverageLayerPl
 
     @Autowired
     private ForkJoinPool forkJoinPool;
+    @Autowired
+    private TileLoader tileLoader;
 
     private final Set<String> typenames = Sets.newHashSet("tiledwms");
 
@@ -63,6 +66,8 @@ public final class TiledWmsLayerParserPlugin extends AbstractGridCoverageLayerPl
         String styleRef = param.rasterStyle;
         return new TiledWmsLayer(this.forkJoinPool,
                 super.<GridCoverage2D>createStyleSupplier(template, styleRef),
-                param);
+                param,
+                this.tileLoader,
+                template.getConfiguration());
     }
 }
@@ -26,11 +26,13 @@ import org.geotools.coverage.grid.GridCoverage2D;
 import org.geotools.geometry.jts.ReferencedEnvelope;
 import org.mapfish.print.URIUtils;
 import org.mapfish.print.attribute.map.MapBounds;
+import org.mapfish.print.config.Configuration;
 import org.mapfish.print.http.MfClientHttpRequestFactory;
 import org.mapfish.print.map.Scale;
 import org.mapfish.print.map.geotools.StyleSupplier;
 import org.mapfish.print.map.tiled.AbstractTiledLayer;
 import org.mapfish.print.map.tiled.TileCacheInformation;
+import org.mapfish.print.map.tiled.TileLoader;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.http.HttpMethod;
@@ -60,11 +62,15 @@ public class WMTSLayer extends AbstractTiledLayer {
      * @param executorService the thread pool for doing the rendering.
      * @param styleSupplier   strategy for loading the style for this layer
      * @param param           the information needed to create WMTS requests.
+     * @param tileLoader      the object limiting the concurrent tile downloads
+     * @param configuration   the configuration of the layer
      */
     protected WMTSLayer(final ForkJoinPool executorService,
                         final StyleSupplier<GridCoverage2D> styleSupplier,
-                        final WMTSLayerParam param) {
-        super(executorService, styleSupplier, param);
+                        final WMTSLayerParam param,
+                        final TileLoader tileLoader,
+                        final Configuration configuration) {
+        super(executorService, styleSupplier, param, tileLoader, configuration);
         this.param = param;
     }
 
@@ -25,6 +25,7 @@ import org.geotools.coverage.grid.GridCoverage2D;
 import org.mapfish.print.config.Template;
 import org.mapfish.print.map.MapLayerFactoryPlugin;
 import org.mapfish.print.map.geotools.AbstractGridCoverageLayerPlugin;
+import org.mapfish.print.map.tiled.TileLoader;
 import org.springframework.beans.factory.annotation.Autowired;
 
 import java.util.Set;
@@ -40,6 +41,8 @@ import javax.annotation.Nonnull;
 public final class WmtsLayerParserPlugin extends AbstractGridCoverageLayerPlugin implements MapLayerFactoryPlugin<WMTSLayerParam> {
     @Autowired
     private ForkJoinPool forkJoinPool;
+    @Autowired
+    private TileLoader tileLoader;
 
     private Set<String> typenames = Sets.newHashSet("wmts");
 
@@ -60,6 +63,8 @@ public final class WmtsLayerParserPlugin extends AbstractGridCoverageLayerPlugin
         String styleRef = param.rasterStyle;
         return new WMTSLayer(this.forkJoinPool,
                 super.<GridCoverage2D>createStyleSupplier(template, styleRef),
-                param);
+                param,
+                this.tileLoader,
+                template.getConfiguration());
     }
 }
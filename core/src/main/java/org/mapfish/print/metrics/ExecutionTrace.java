@@ -0,0 +1,346 @@
+/*
+ * Copyright (C) 2014  Camptocamp
+ *
+ * This file is part of MapFish Print
+ *
+ * MapFish Print is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MapFish Print is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MapFish Print.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.mapfish.print.metrics;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.json.JSONException;
+import org.json.JSONWriter;
+
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * The spans (processors, layer renderings, http requests, Jasper fill and export...) of one print job, with their start and
+ * end times and the thread they ran in.
+ * <p></p>
+ * A span is a child of the given parent span, by default of the innermost span still open in the same thread, or of the
+ * root span of the job.  The tasks forked to other threads (processors, layers) must be given their parent explicitly, a
+ * worker thread can run a task of another branch while it waits.  At most maxSpans spans are recorded, the next ones are
+ * only counted.
+ * <p></p>
+ * The trace of the job running in the current thread is available with {@link #getCurrent()}, the processors and layers get
+ * it from the values (see {@link org.mapfish.print.output.Values#EXECUTION_TRACE_KEY}).
+ */
+public final class ExecutionTrace {
+    private static final ThreadLocal<ExecutionTrace> CURRENT = new ThreadLocal<ExecutionTrace>();
+    private static final Span NO_SPAN = new Span(null, null, 0, 0, null, null);
+    private static final double MICROS_PER_MILLI = 1000.0;
+    private static final int DEFAULT_MAX_SPANS = 10000;
+
+    private final String jobId;
+    private final int maxSpans;
+    private final AtomicInteger droppedSpans = new AtomicInteger();
+    private final long startTime = System.currentTimeMillis();
+    private final long startNanos = System.nanoTime();
+    private final AtomicInteger ids = new AtomicInteger();
+    private final List<Span> spans = Lists.newArrayList();
+    // only set while the thread has open spans, the pooled threads don't keep an entry for each trace
+    private final ThreadLocal<Deque<Span>> openSpans = new ThreadLocal<Deque<Span>>();
+    private final Span root;
+
+    /**
+     * Constructor.
+     *
+     * @param jobId the reference of the print job.
+     */
+    public ExecutionTrace(@Nonnull final String jobId) {
+        this(jobId, DEFAULT_MAX_SPANS);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param jobId    the reference of the print job.
+     * @param maxSpans the maximum number of spans recorded.
+     */
+    public ExecutionTrace(@Nonnull final String jobId, final int maxSpans) {
+        this.jobId = jobId;
+        this.maxSpans = maxSpans;
+        this.root = new Span(this, null, this.ids.getAndIncrement(), -1, "job", jobId);
+        this.spans.add(this.root);
+    }
+
+    /**
+     * Get the trace of the print job running in the current thread.
+     */
+    @Nullable
+    public static ExecutionTrace getCurrent() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Set the trace of the print job running in the current thread.
+     *
+     * @param trace the trace, null to clear it.
+     */
+    public static void setCurrent(@Nullable final ExecutionTrace trace) {
+        if (trace == null) {
+            CURRENT.remove();
+        } else {
+            CURRENT.set(trace);
+        }
+    }
+
+    /**
+     * Start a span if there is a trace.
+     *
+     * @param trace    the trace, the returned span does nothing if null.
+     * @param category the kind of span (processor, layer, http...).
+     * @param name     the name of the span.
+     */
+    @Nonnull
+    public static Span start(@Nullable final ExecutionTrace trace, @Nonnull final String category,
+                             @Nonnull final String name) {
+        if (trace == null) {
+            return NO_SPAN;
+        }
+        return trace.start(category, name);
+    }
+
+    /**
+     * Start a span with an explicit parent if there is a trace.
+     *
+     * @param trace    the trace, the returned span does nothing if null.
+     * @param parent   the parent span, null for the innermost span open in the current thread.
+     * @param category the kind of span (processor, layer, http...).
+     * @param name     the name of the span.
+     */
+    @Nonnull
+    public static Span start(@Nullable final ExecutionTrace trace, @Nullable final Span parent,
+                             @Nonnull final String category, @Nonnull final String name) {
+        if (trace == null) {
+            return NO_SPAN;
+        }
+        return trace.start(parent, category, name);
+    }
+
+    /**
+     * Start a span in the current thread.
+     *
+     * @param category the kind of span (processor, layer, http...).
+     * @param name     the name of the span.
+     */
+    @Nonnull
+    public Span start(@Nonnull final String category, @Nonnull final String name) {
+        return start(null, category, name);
+    }
+
+    /**
+     * Start a span with an explicit parent, for the tasks running in another thread than their parent.
+     *
+     * @param parent   the parent span, null for the innermost span open in the current thread.
+     * @param category the kind of span (processor, layer, http...).
+     * @param name     the name of the span.
+     */
+    @Nonnull
+    public Span start(@Nullable final Span parent, @Nonnull final String category, @Nonnull final String name) {
+        final Span parentSpan = parent != null && parent.trace == this ? parent : getCurrentSpan();
+        Deque<Span> stack = this.openSpans.get();
+        if (stack == null) {
+            // the spans can be ended by another thread
+            stack = new ConcurrentLinkedDeque<Span>();
+        }
+        final Span span;
+        synchronized (this.spans) {
+            if (this.spans.size() >= this.maxSpans) {
+                this.droppedSpans.incrementAndGet();
+                return NO_SPAN;
+            }
+            span = new Span(this, stack, this.ids.getAndIncrement(), parentSpan.id, category, name);
+            this.spans.add(span);
+        }
+        stack.addLast(span);
+        this.openSpans.set(stack);
+        return span;
+    }
+
+    /**
+     * Get the innermost span open in the current thread, or the root span.
+     */
+    @Nonnull
+    public Span getCurrentSpan() {
+        final Deque<Span> stack = this.openSpans.get();
+        final Span span = stack == null ? null : stack.peekLast();
+        return span == null ? this.root : span;
+    }
+
+    /**
+     * Get the root span of the job.
+     */
+    @Nonnull
+    public Span getRoot() {
+        return this.root;
+    }
+
+    /**
+     * Mark the end of the job.
+     */
+    public void finish() {
+        this.root.end();
+    }
+
+    public String getJobId() {
+        return this.jobId;
+    }
+
+    private long now() {
+        return TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - this.startNanos);
+    }
+
+    private List<Span> getSpans() {
+        synchronized (this.spans) {
+            return Lists.newArrayList(this.spans);
+        }
+    }
+
+    /**
+     * Write the span tree as JSON, the times are in milliseconds from the start of the job.
+     *
+     * @param json the writer.
+     */
+    public void writeJson(@Nonnull final JSONWriter json) throws JSONException {
+        final Map<Integer, List<Span>> children = Maps.newHashMap();
+        for (Span span : getSpans()) {
+            List<Span> siblings = children.get(span.parentId);
+            if (siblings == null) {
+                siblings = Lists.newArrayList();
+                children.put(span.parentId, siblings);
+            }
+            siblings.add(span);
+        }
+        json.object();
+        json.key("job").value(this.jobId);
+        json.key("startTime").value(this.startTime);
+        json.key("droppedSpans").value(this.droppedSpans.get());
+        json.key("root");
+        writeSpan(json, this.root, children);
+        json.endObject();
+    }
+
+    private void writeSpan(final JSONWriter json, final Span span, final Map<Integer, List<Span>> children)
+            throws JSONException {
+        json.object();
+        json.key("category").value(span.category);
+        json.key("name").value(span.name);
+        json.key("thread").value(span.thread);
+        json.key("start").value(span.start / MICROS_PER_MILLI);
+        if (span.end >= 0) {
+            json.key("end").value(span.end / MICROS_PER_MILLI);
+            json.key("duration").value((span.end - span.start) / MICROS_PER_MILLI);
+        }
+        final List<Span> spanChildren = children.get(span.id);
+        if (spanChildren != null) {
+            json.key("children").array();
+            for (Span child : spanChildren) {
+                writeSpan(json, child, children);
+            }
+            json.endArray();
+        }
+        json.endObject();
+    }
+
+    /**
+     * Write the spans in the trace event format of the Chrome tracing tool (chrome://tracing).
+     *
+     * @param json the writer.
+     */
+    public void writeChromeTrace(@Nonnull final JSONWriter json) throws JSONException {
+        final Map<String, Integer> threads = Maps.newLinkedHashMap();
+        json.object();
+        json.key("traceEvents").array();
+        for (Span span : getSpans()) {
+            Integer tid = threads.get(span.thread);
+            if (tid == null) {
+                tid = threads.size() + 1;
+                threads.put(span.thread, tid);
+            }
+            json.object();
+            json.key("name").value(span.name);
+            json.key("cat").value(span.category);
+            json.key("ph").value("X");
+            json.key("ts").value(span.start);
+            json.key("dur").value(span.end >= 0 ? span.end - span.start : now() - span.start);
+            json.key("pid").value(1);
+            json.key("tid").value(tid);
+            json.endObject();
+        }
+        for (Map.Entry<String, Integer> thread : threads.entrySet()) {
+            json.object();
+            json.key("name").value("thread_name");
+            json.key("ph").value("M");
+            json.key("pid").value(1);
+            json.key("tid").value(thread.getValue());
+            json.key("args").object().key("name").value(thread.getKey()).endObject();
+            json.endObject();
+        }
+        json.endArray();
+        json.key("otherData").object().key("job").value(this.jobId).key("droppedSpans").value(this.droppedSpans.get())
+                .endObject();
+        json.endObject();
+    }
+
+    /**
+     * A timed part of the job.
+     */
+    public static final class Span {
+        private final ExecutionTrace trace;
+        private final Deque<Span> openSpans;
+        private final int id;
+        private final int parentId;
+        private final String category;
+        private final String name;
+        private final String thread;
+        private final long start;
+        private volatile long end = -1;
+
+        private Span(@Nullable final ExecutionTrace trace, @Nullable final Deque<Span> openSpans, final int id,
+                     final int parentId, final String category, final String name) {
+            this.trace = trace;
+            this.openSpans = openSpans;
+            this.id = id;
+            this.parentId = parentId;
+            this.category = category;
+            this.name = name;
+            this.thread = Thread.currentThread().getName();
+            this.start = trace == null ? 0 : trace.now();
+        }
+
+        /**
+         * Mark the end of the span, it is removed from the open spans of the thread that started it.
+         */
+        public void end() {
+            if (this.trace != null && this.end < 0) {
+                this.end = this.trace.now();
+                if (this.openSpans != null) {
+                    this.openSpans.removeLastOccurrence(this);
+                    if (this.openSpans.isEmpty() && this.trace.openSpans.get() == this.openSpans) {
+                        this.trace.openSpans.remove();
+                    }
+                }
+            }
+        }
+    }
+}
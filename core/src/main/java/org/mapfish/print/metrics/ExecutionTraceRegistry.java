@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2014  Camptocamp
+ *
+ * This file is part of MapFish Print
+ *
+ * MapFish Print is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MapFish Print is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MapFish Print.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.mapfish.print.metrics;
+
+import com.google.common.base.Charsets;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.json.JSONWriter;
+import org.mapfish.print.config.WorkingDirectories;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.PostConstruct;
+
+/**
+ * Keeps the execution traces of the last print jobs (see {@link ExecutionTrace}) so they can be looked at with the status of
+ * the jobs, and optionally writes them as Chrome trace event files in the reports directory.
+ */
+public final class ExecutionTraceRegistry {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ExecutionTraceRegistry.class);
+    private static final int DEFAULT_MAX_JOBS = 100;
+    private static final int DEFAULT_MAX_SPANS_PER_JOB = 10000;
+
+    @Autowired
+    private WorkingDirectories workingDirectories;
+
+    private boolean enabled = false;
+    private int maxJobs = DEFAULT_MAX_JOBS;
+    private int maxSpansPerJob = DEFAULT_MAX_SPANS_PER_JOB;
+    private boolean dumpTraces = false;
+    private Cache<String, ExecutionTrace> traces;
+
+    /**
+     * Record the execution traces.  Default is false, the traces contain the URLs of the requests (tiles...) and are kept
+     * in memory.
+     *
+     * @param enabled true to record the traces.
+     */
+    public void setEnabled(final boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * The number of jobs whose trace is kept.  Default is 100.
+     *
+     * @param maxJobs the number of jobs.
+     */
+    public void setMaxJobs(final int maxJobs) {
+        this.maxJobs = maxJobs;
+    }
+
+    /**
+     * The maximum number of spans recorded per job, the next ones are only counted.  Default is 10000.
+     *
+     * @param maxSpansPerJob the number of spans.
+     */
+    public void setMaxSpansPerJob(final int maxSpansPerJob) {
+        this.maxSpansPerJob = maxSpansPerJob;
+    }
+
+    /**
+     * Write the trace of each job to <code>trace-{referenceId}.json</code> in the reports directory, in the Chrome trace event
+     * format.  The files are deleted with the old reports.  Default is false.
+     *
+     * @param dumpTraces true to write the files.
+     */
+    public void setDumpTraces(final boolean dumpTraces) {
+        this.dumpTraces = dumpTraces;
+    }
+
+    /**
+     * Called by spring after the bean has been created and populated.
+     */
+    @PostConstruct
+    public void init() {
+        this.traces = CacheBuilder.newBuilder().maximumSize(this.maxJobs).build();
+    }
+
+    /**
+     * Create the trace of a job.
+     *
+     * @param referenceId the reference of the job.
+     * @return the trace or null if the traces are disabled.
+     */
+    @Nullable
+    public ExecutionTrace create(@Nonnull final String referenceId) {
+        if (!this.enabled) {
+            return null;
+        }
+        final ExecutionTrace trace = new ExecutionTrace(referenceId, this.maxSpansPerJob);
+        this.traces.put(referenceId, trace);
+        return trace;
+    }
+
+    /**
+     * Get the trace of a job.
+     *
+     * @param referenceId the reference of the job.
+     * @return the trace or null if it is not known (anymore).
+     */
+    @Nullable
+    public ExecutionTrace get(@Nonnull final String referenceId) {
+        return this.traces.getIfPresent(referenceId);
+    }
+
+    /**
+     * Mark the end of the job and write its trace if configured.
+     *
+     * @param trace the trace of the job.
+     */
+    public void finished(@Nullable final ExecutionTrace trace) {
+        if (trace == null) {
+            return;
+        }
+        trace.finish();
+        if (this.dumpTraces) {
+            final File file = new File(this.workingDirectories.getReports(), "trace-" + trace.getJobId() + ".json");
+            try {
+                final Writer writer = new OutputStreamWriter(new FileOutputStream(file), Charsets.UTF_8);
+                try {
+                    trace.writeChromeTrace(new JSONWriter(writer));
+                } finally {
+                    writer.close();
+                }
+            } catch (Exception e) {
+                LOGGER.warn("Unable to write the trace of the job " + trace.getJobId() + " to " + file, e);
+            }
+        }
+    }
+}
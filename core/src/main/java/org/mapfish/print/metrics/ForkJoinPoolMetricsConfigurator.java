@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2014  Camptocamp
+ *
+ * This file is part of MapFish Print
+ *
+ * MapFish Print is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MapFish Print is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MapFish Print.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.mapfish.print.metrics;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import jsr166y.ForkJoinPool;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import javax.annotation.PostConstruct;
+
+/**
+ * A bean that will add gauges for tracking the fork join pool used by the processors, the http requests have their own pool
+ * (see {@link org.mapfish.print.http.MfClientHttpRequestFactoryImpl}).
+ */
+public final class ForkJoinPoolMetricsConfigurator {
+
+    @Autowired
+    private MetricRegistry metricRegistry;
+
+    @Autowired
+    private ForkJoinPool forkJoinPool;
+
+    /**
+     * Add the fork join pool gauges.
+     */
+    @PostConstruct
+    public void init() {
+        final ForkJoinPool pool = this.forkJoinPool;
+        this.metricRegistry.register(name("poolSize"), new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                return pool.getPoolSize();
+            }
+        });
+        this.metricRegistry.register(name("active"), new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                return pool.getActiveThreadCount();
+            }
+        });
+        this.metricRegistry.register(name("running"), new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                return pool.getRunningThreadCount();
+            }
+        });
+        this.metricRegistry.register(name("queuedTasks"), new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                return pool.getQueuedTaskCount();
+            }
+        });
+        this.metricRegistry.register(name("queuedSubmissions"), new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                return pool.getQueuedSubmissionCount();
+            }
+        });
+        this.metricRegistry.register(name("steals"), new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                return pool.getStealCount();
+            }
+        });
+    }
+
+    private String name(final String metricName) {
+        return "forkJoinPool." + metricName;
+    }
+}
@@ -29,14 +29,22 @@ import net.sf.jasperreports.engine.DefaultJasperReportsContext;
 import net.sf.jasperreports.engine.JRDataSource;
 import net.sf.jasperreports.engine.JREmptyDataSource;
 import net.sf.jasperreports.engine.JRException;
+import net.sf.jasperreports.engine.JRParameter;
 import net.sf.jasperreports.engine.JRRewindableDataSource;
+import net.sf.jasperreports.engine.JRVirtualizer;
 import net.sf.jasperreports.engine.JasperFillManager;
 import net.sf.jasperreports.engine.JasperPrint;
+import net.sf.jasperreports.engine.JasperReport;
 import net.sf.jasperreports.engine.JasperReportsContext;
 import net.sf.jasperreports.engine.Renderable;
 import net.sf.jasperreports.engine.data.JRMapCollectionDataSource;
 import net.sf.jasperreports.engine.design.JRDesignField;
 import net.sf.jasperreports.engine.util.LocalJasperReportsContext;
+import net.sf.jasperreports.export.ExporterInput;
+import net.sf.jasperreports.export.ExporterInputItem;
+import net.sf.jasperreports.export.SimpleExporterInput;
+import net.sf.jasperreports.export.SimpleExporterInputItem;
+import net.sf.jasperreports.repo.FileRepositoryService;
 import net.sf.jasperreports.repo.RepositoryService;
 import org.json.JSONException;
 import org.mapfish.print.Constants;
@@ -46,25 +54,26 @@ import org.mapfish.print.config.Configuration;
 import org.mapfish.print.config.Template;
 import org.mapfish.print.config.WorkingDirectories;
 import org.mapfish.print.http.MfClientHttpRequestFactoryImpl;
+import org.mapfish.print.metrics.ExecutionTrace;
 import org.mapfish.print.parser.MapfishParser;
+import org.mapfish.print.processor.jasper.InMemoryImageRenderer;
 import org.mapfish.print.processor.jasper.JasperReportBuilder;
 import org.mapfish.print.wrapper.json.PJsonObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.NodeList;
 
-import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.SQLException;
+import java.util.AbstractList;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -72,8 +81,7 @@ import java.util.concurrent.CancellationException;
 import java.util.concurrent.ExecutionException;
 import javax.annotation.Nonnegative;
 import javax.annotation.Nonnull;
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
+import javax.annotation.Nullable;
 
 /**
  * @author Jesse on 5/7/2014.
@@ -87,6 +95,14 @@ public abstract class AbstractJasperReportOutputFormat implements OutputFormat {
     @Autowired
     private WorkingDirectories workingDirectories;
 
+    @Autowired
+    private JasperReportCache jasperReportCache;
+
+    @Autowired
+    private ReportVirtualizerFactory reportVirtualizerFactory;
+
+    private Integer virtualizerMaxPages;
+
     @Autowired
     private MfClientHttpRequestFactoryImpl httpRequestFactory;
 
@@ -99,6 +115,16 @@ public abstract class AbstractJasperReportOutputFormat implements OutputFormat {
      */
     protected abstract void doExport(final OutputStream outputStream, final Print print) throws JRException, IOException;
 
+    /**
+     * Return true if the format exports the report with {@link Print#getExporterInput()}, so the report can be filled and
+     * exported by batches, see {@link Template#setStreamingBatchSize(int)}.
+     */
+    // CSOFF: DesignForExtension
+    protected boolean supportsStreaming() {
+        // CSON: DesignForExtension
+        return false;
+    }
+
     @Autowired
     private MapfishParser parser;
 
@@ -107,16 +133,44 @@ public abstract class AbstractJasperReportOutputFormat implements OutputFormat {
                             final File taskDirectory, final OutputStream outputStream)
             throws Exception {
         final Print print = getJasperPrint(requestData, config, configDir, taskDirectory);
+        try {
+            if (Thread.currentThread().isInterrupted()) {
+                throw new CancellationException();
+            }
 
-        if (Thread.currentThread().isInterrupted()) {
-            throw new CancellationException();
+            final ExecutionTrace.Span span = ExecutionTrace.start(
+                    print.values.getObject(Values.EXECUTION_TRACE_KEY, ExecutionTrace.class), "jasper", "export");
+            try {
+                doExport(outputStream, print);
+            } finally {
+                span.end();
+            }
+        } finally {
+            print.cleanup();
         }
+    }
 
-        doExport(outputStream, print);
+    /**
+     * Set the number of pages of the reports kept in memory for this output format, the other pages are swapped to a file.  It
+     * can be overridden by the template, see {@link Template#setVirtualizerMaxPages(Integer)}.
+     *
+     * @param virtualizerMaxPages the number of pages, 0 to disable the swapping.
+     */
+    public final void setVirtualizerMaxPages(final Integer virtualizerMaxPages) {
+        this.virtualizerMaxPages = virtualizerMaxPages;
     }
 
-    private JasperFillManager getJasperFillManager(@Nonnull final Configuration configuration) {
+    /**
+     * Get the fill manager.  The report is filled from the loaded report object, so the directory of the compiled report
+     * is added to the repositories, like Jasper does when filling a report file, to resolve the relative sub-reports.
+     */
+    private JasperFillManager getJasperFillManager(@Nonnull final Configuration configuration,
+                                                   @Nonnull final File jasperTemplateBuild) {
         LocalJasperReportsContext ctx = getLocalJasperReportsContext(configuration);
+        final List<RepositoryService> repositories = Lists.newArrayList();
+        repositories.add(new FileRepositoryService(ctx, jasperTemplateBuild.getParentFile().getAbsolutePath(), true));
+        repositories.addAll(ctx.getExtensions(RepositoryService.class));
+        ctx.setExtensions(RepositoryService.class, repositories);
         return JasperFillManager.getInstance(ctx);
     }
 
@@ -153,6 +207,43 @@ public abstract class AbstractJasperReportOutputFormat implements OutputFormat {
 
         double[] maxDpi = maxDpi(values);
 
+        final boolean streaming = template.getStreamingBatchSize() > 0 && supportsStreaming();
+        final Integer maxPages = template.getVirtualizerMaxPages() != null ?
+                template.getVirtualizerMaxPages() : this.virtualizerMaxPages;
+        // a streamed report only keeps one batch in memory
+        final JRVirtualizer virtualizer = streaming ? null : this.reportVirtualizerFactory.create(maxPages, taskDirectory);
+        if (virtualizer != null) {
+            values.put(JRParameter.REPORT_VIRTUALIZER, virtualizer);
+        }
+
+        Print print = null;
+        try {
+            print = fillReport(config, template, jasperTemplateFile, jasperTemplateBuild, values, templateName,
+                    maxDpi, streaming);
+            return print;
+        } finally {
+            // the filled report holds the in-memory images it uses, the streamed batches are filled during the export
+            if (print == null || print.batches == null) {
+                InMemoryImageRenderer.unregisterAll(taskDirectory);
+            }
+            if (virtualizer != null) {
+                if (print != null) {
+                    virtualizer.setReadOnly(true);
+                } else {
+                    virtualizer.cleanup();
+                }
+            }
+        }
+    }
+
+    // CSOFF: RedundantThrows
+    // CSOFF: ParameterNumber
+    private Print fillReport(final Configuration config, final Template template, final File jasperTemplateFile,
+                             final File jasperTemplateBuild, final Values values, final String templateName,
+                             final double[] maxDpi, final boolean streaming)
+            throws JRException, SQLException, ExecutionException, JSONException {
+        // CSON: ParameterNumber
+        // CSON: RedundantThrows
         final ForkJoinTask<Values> taskFuture = this.forkJoinPool.submit(template.getProcessorGraph().createTask(values));
 
         try {
@@ -166,9 +257,13 @@ public abstract class AbstractJasperReportOutputFormat implements OutputFormat {
         }
 
         ValuesLogger.log(templateName, template, values);
-        JasperFillManager fillManager = getJasperFillManager(config);
+        JasperFillManager fillManager = getJasperFillManager(config, jasperTemplateBuild);
+        final ExecutionTrace trace = values.getObject(Values.EXECUTION_TRACE_KEY, ExecutionTrace.class);
 
-        checkRequiredValues(config, values, template.getReportTemplate());
+        // loaded after the processors since they may have compiled the report
+        final JasperReportCache.CachedReport report = this.jasperReportCache.get(config, template.getReportTemplate(),
+                jasperTemplateFile, jasperTemplateBuild);
+        checkRequiredValues(report.getParameters(), values, template.getReportTemplate());
 
         final JasperPrint print;
         if (template.getJdbcUrl() != null) {
@@ -179,10 +274,15 @@ public abstract class AbstractJasperReportOutputFormat implements OutputFormat {
                 connection = DriverManager.getConnection(template.getJdbcUrl());
             }
 
-            print = fillManager.fill(
-                    jasperTemplateBuild.getAbsolutePath(),
-                    values.asMap(),
-                    connection);
+            final ExecutionTrace.Span span = ExecutionTrace.start(trace, "jasper", "fill");
+            try {
+                print = fillManager.fill(
+                        report.getReport(),
+                        values.asMap(),
+                        connection);
+            } finally {
+                span.end();
+            }
 
         } else {
             JRDataSource dataSource;
@@ -206,40 +306,54 @@ public abstract class AbstractJasperReportOutputFormat implements OutputFormat {
             } else {
                 dataSource = new JREmptyDataSource();
             }
-            checkRequiredFields(config, dataSource, template.getReportTemplate());
-            print = fillManager.fill(
-                    jasperTemplateBuild.getAbsolutePath(),
-                    values.asMap(),
-                    dataSource);
+            checkRequiredFields(report.getFields(), dataSource, template.getReportTemplate());
+            if (streaming && dataSource instanceof JRMapCollectionDataSource) {
+                final Collection<Map<String, ?>> rows = ((JRMapCollectionDataSource) dataSource).getData();
+                final String notStreamableReason = report.getNotStreamableReason(values.asMap(), rows);
+                if (notStreamableReason == null) {
+                    final StreamedBatches batches = new StreamedBatches(fillManager, report.getReport(), values, rows,
+                            template.getStreamingBatchSize(), maxDpi[0]);
+                    return new Print(getLocalJasperReportsContext(config), batches.first, values, maxDpi[0], maxDpi[1],
+                            null, batches);
+                }
+                LOGGER.warn("The report of the template " + templateName + " is not streamed since " + notStreamableReason +
+                            ", which would be different for each batch.");
+            } else if (streaming) {
+                LOGGER.warn("The table data of the template " + templateName + " is not a collection, the report is not " +
+                            "streamed.");
+            }
+            final ExecutionTrace.Span span = ExecutionTrace.start(trace, "jasper", "fill");
+            try {
+                print = fillManager.fill(
+                        report.getReport(),
+                        values.asMap(),
+                        dataSource);
+            } finally {
+                span.end();
+            }
         }
         print.setProperty(Renderable.PROPERTY_IMAGE_DPI, String.valueOf(Math.round(maxDpi[0])));
-        return new Print(getLocalJasperReportsContext(config), print, values, maxDpi[0], maxDpi[1]);
+        return new Print(getLocalJasperReportsContext(config), print, values, maxDpi[0], maxDpi[1],
+                values.getObject(JRParameter.REPORT_VIRTUALIZER, JRVirtualizer.class), null);
     }
 
-    private void checkRequiredFields(final Configuration configuration, final JRDataSource dataSource, final String reportTemplate) {
+    private void checkRequiredFields(final Map<String, Class<?>> fields, final JRDataSource dataSource,
+                                     final String reportTemplate) {
         if (dataSource instanceof JRRewindableDataSource) {
             JRRewindableDataSource source = (JRRewindableDataSource) dataSource;
             StringBuilder wrongType = new StringBuilder();
             try {
                 while (source.next()) {
-                    final DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-                    factory.setValidating(false);
-                    final DocumentBuilder documentBuilder = factory.newDocumentBuilder();
-                    final byte[] bytes = configuration.loadFile(reportTemplate);
-                    final Document document = documentBuilder.parse(new ByteArrayInputStream(bytes));
-                    final NodeList parameters = document.getElementsByTagName("field");
                     JRDesignField field = new JRDesignField();
-                    for (int i = 0; i < parameters.getLength(); i++) {
-                        final Element param = (Element) parameters.item(i);
-                        final String name = param.getAttribute("name");
+                    for (Map.Entry<String, Class<?>> entry : fields.entrySet()) {
+                        final String name = entry.getKey();
                         field.setName(name);
                         Object record = dataSource.getFieldValue(field);
                         if (record != null) {
-                            final String type = param.getAttribute("class");
-                            Class<?> clazz = Class.forName(type);
+                            final Class<?> clazz = entry.getValue();
                             if (!clazz.isInstance(record)) {
                                 wrongType.append("\t* ").append(name).append(" : ").append(record.getClass().getName());
-                                wrongType.append(" expected type: ").append(type).append("\n");
+                                wrongType.append(" expected type: ").append(clazz.getName()).append("\n");
                             } else {
                                 LOGGER.warn("The field " + name + " in " + reportTemplate + " is not available in at least one of the " +
                                             "rows in the datasource.  This may not be an error.");
@@ -269,28 +383,20 @@ public abstract class AbstractJasperReportOutputFormat implements OutputFormat {
         }
     }
 
-    private void checkRequiredValues(final Configuration configuration, final Values values, final String reportTemplate) {
+    private void checkRequiredValues(final Map<String, Class<?>> parameters, final Values values, final String reportTemplate) {
         StringBuilder missing = new StringBuilder();
         StringBuilder wrongType = new StringBuilder();
         try {
-            final DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-            factory.setValidating(false);
-            final DocumentBuilder documentBuilder = factory.newDocumentBuilder();
-            final byte[] bytes = configuration.loadFile(reportTemplate);
-            final Document document = documentBuilder.parse(new ByteArrayInputStream(bytes));
-            final NodeList parameters = document.getElementsByTagName("parameter");
-            for (int i = 0; i < parameters.getLength(); i++) {
-                final Element param = (Element) parameters.item(i);
-                final String name = param.getAttribute("name");
+            for (Map.Entry<String, Class<?>> entry : parameters.entrySet()) {
+                final String name = entry.getKey();
                 if (!values.containsKey(name)) {
                     missing.append("\t* ").append(name).append("\n");
                 } else {
-                    final String type = param.getAttribute("class");
-                    Class<?> clazz = Class.forName(type);
+                    final Class<?> clazz = entry.getValue();
                     Object value = values.getObject(name, Object.class);
                     if (!clazz.isInstance(value)) {
                         wrongType.append("\t* ").append(name).append(" : ").append(value.getClass().getName());
-                        wrongType.append(" expected type: ").append(type).append("\n");
+                        wrongType.append(" expected type: ").append(clazz.getName()).append("\n");
                     }
                 }
             }
@@ -361,6 +467,89 @@ public abstract class AbstractJasperReportOutputFormat implements OutputFormat {
         return new double[]{maxDpi, maxRequestorDpi};
     }
 
+    /**
+     * The batches of a streamed report, each batch is filled when the exporter gets it and the previous batch is released.
+     */
+    private static final class StreamedBatches extends AbstractList<ExporterInputItem> {
+        private final JasperFillManager fillManager;
+        private final JasperReport report;
+        private final Values values;
+        private final List<Map<String, ?>> rows;
+        private final int batchSize;
+        private final double dpi;
+        private final JasperPrint first;
+        private ExporterInputItem current;
+        private int currentIndex;
+
+        // CSOFF: ParameterNumber
+        StreamedBatches(final JasperFillManager fillManager, final JasperReport report, final Values values,
+                        final Collection<Map<String, ?>> rows, final int batchSize, final double dpi) throws JRException {
+            // CSON: ParameterNumber
+            this.fillManager = fillManager;
+            this.report = report;
+            this.values = values;
+            // copied so that the rows of the written batches can be released
+            this.rows = new ArrayList<Map<String, ?>>(rows);
+            this.batchSize = batchSize;
+            this.dpi = dpi;
+            this.first = fill(0);
+            this.current = new SimpleExporterInputItem(this.first);
+            this.currentIndex = 0;
+        }
+
+        @Override
+        public int size() {
+            return Math.max(1, (this.rows.size() + this.batchSize - 1) / this.batchSize);
+        }
+
+        @Override
+        public ExporterInputItem get(final int index) {
+            if (index == this.currentIndex) {
+                return this.current;
+            }
+            if (index != this.currentIndex + 1) {
+                throw new IllegalStateException("The batches of a streamed report must be read in order, batch " + index +
+                                                " asked after batch " + this.currentIndex);
+            }
+            if (Thread.currentThread().isInterrupted()) {
+                throw new CancellationException();
+            }
+            // release the previous batch before filling the next one
+            this.current = null;
+            try {
+                this.current = new SimpleExporterInputItem(fill(index));
+            } catch (JRException e) {
+                throw ExceptionUtils.getRuntimeException(e);
+            }
+            this.currentIndex = index;
+            return this.current;
+        }
+
+        private JasperPrint fill(final int index) throws JRException {
+            final int from = index * this.batchSize;
+            final int to = Math.min(this.rows.size(), from + this.batchSize);
+            final List<Map<String, ?>> batch = new ArrayList<Map<String, ?>>(this.rows.subList(from, to));
+            for (int i = from; i < to; i++) {
+                this.rows.set(i, null);
+            }
+
+            final ExecutionTrace.Span span = ExecutionTrace.start(
+                    this.values.getObject(Values.EXECUTION_TRACE_KEY, ExecutionTrace.class), "jasper", "fill batch " + index);
+            final JasperPrint print;
+            try {
+                print = this.fillManager.fill(this.report, new HashMap<String, Object>(this.values.asMap()),
+                        new JRMapCollectionDataSource(batch));
+            } finally {
+                span.end();
+            }
+            print.setProperty(Renderable.PROPERTY_IMAGE_DPI, String.valueOf(Math.round(this.dpi)));
+            // the images of the rows are now held by the filled batch
+            InMemoryImageRenderer.unregisterFetched(this.values.getObject(Values.TASK_DIRECTORY_KEY, File.class));
+            LOGGER.debug("Filled the batch " + index + " of a streamed report, rows " + from + " to " + to);
+            return print;
+        }
+    }
+
     /**
      * The print information for doing the export.
      */
@@ -373,15 +562,46 @@ public abstract class AbstractJasperReportOutputFormat implements OutputFormat {
         @Nonnull public final Values values;
 
         // CHECKSTYLE:ON
+        @Nullable private final JRVirtualizer virtualizer;
+        @Nullable private final StreamedBatches batches;
 
+        // CSOFF: ParameterNumber
         private Print(@Nonnull final JasperReportsContext context, @Nonnull final JasperPrint print,
                       @Nonnull final Values values, @Nonnegative final double dpi,
-                      @Nonnegative final double requestorDpi) {
+                      @Nonnegative final double requestorDpi, @Nullable final JRVirtualizer virtualizer,
+                      @Nullable final StreamedBatches batches) {
+            // CSON: ParameterNumber
             this.print = print;
             this.context = context;
             this.values = values;
             this.dpi = dpi;
             this.requestorDpi = requestorDpi;
+            this.virtualizer = virtualizer;
+            this.batches = batches;
+        }
+
+        /**
+         * Get the input of the exporter.  For a streamed report the batches are filled while the exporter reads them and
+         * {@link #print} only contains the first batch.
+         */
+        public ExporterInput getExporterInput() {
+            if (this.batches != null) {
+                return new SimpleExporterInput(this.batches);
+            }
+            return new SimpleExporterInput(this.print);
+        }
+
+        /**
+         * Release the swap file of the report, if any, and the images of a streamed report.  The report can not be used
+         * afterward.
+         */
+        public void cleanup() {
+            if (this.virtualizer != null) {
+                this.virtualizer.cleanup();
+            }
+            if (this.batches != null) {
+                InMemoryImageRenderer.unregisterAll(this.values.getObject(Values.TASK_DIRECTORY_KEY, File.class));
+            }
         }
     }
 
@@ -0,0 +1,365 @@
+/*
+ * Copyright (C) 2014  Camptocamp
+ *
+ * This file is part of MapFish Print
+ *
+ * MapFish Print is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MapFish Print is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MapFish Print.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.mapfish.print.output;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import net.sf.jasperreports.engine.DefaultJasperReportsContext;
+import net.sf.jasperreports.engine.JRBand;
+import net.sf.jasperreports.engine.JRElement;
+import net.sf.jasperreports.engine.JRException;
+import net.sf.jasperreports.engine.JRExpression;
+import net.sf.jasperreports.engine.JRExpressionChunk;
+import net.sf.jasperreports.engine.JRExpressionCollector;
+import net.sf.jasperreports.engine.JRFrame;
+import net.sf.jasperreports.engine.JRSubreport;
+import net.sf.jasperreports.engine.JRVariable;
+import net.sf.jasperreports.engine.JasperReport;
+import net.sf.jasperreports.engine.type.CalculationEnum;
+import net.sf.jasperreports.engine.type.ResetTypeEnum;
+import net.sf.jasperreports.engine.util.JRLoader;
+import org.mapfish.print.config.Configuration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.net.URI;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import javax.annotation.Nullable;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+
+/**
+ * Keeps the compiled Jasper reports of the templates in memory, with the types of the parameters and fields they declare, so
+ * the print jobs don't need to load the compiled report and to parse the template again.
+ * <p></p>
+ * The reports are cached per configuration and are reloaded if the template or the compiled report changes.
+ */
+public final class JasperReportCache {
+    private static final Logger LOGGER = LoggerFactory.getLogger(JasperReportCache.class);
+
+    private final Cache<Configuration, ConcurrentMap<String, CachedReport>> reports =
+            CacheBuilder.newBuilder().weakKeys().build();
+
+    /**
+     * Get the report of a template, loading it if needed.
+     *
+     * @param configuration  the configuration of the template.
+     * @param reportTemplate the path of the template, relative to the configuration directory.
+     * @param templateFile   the template file.
+     * @param buildFile      the compiled template.
+     */
+    public CachedReport get(final Configuration configuration, final String reportTemplate, final File templateFile,
+                            final File buildFile) throws JRException {
+        final ConcurrentMap<String, CachedReport> configurationReports;
+        try {
+            configurationReports = this.reports.get(configuration, new Callable<ConcurrentMap<String, CachedReport>>() {
+                @Override
+                public ConcurrentMap<String, CachedReport> call() {
+                    return Maps.newConcurrentMap();
+                }
+            });
+        } catch (ExecutionException e) {
+            throw new AssertionError(e);
+        }
+
+        final String key = buildFile.getAbsolutePath();
+        CachedReport report = configurationReports.get(key);
+        if (report == null || !report.isUpToDate(templateFile, buildFile)) {
+            LOGGER.debug("Loading the compiled report " + buildFile);
+            report = new CachedReport(configuration, reportTemplate, templateFile, buildFile);
+            configurationReports.put(key, report);
+        }
+        return report;
+    }
+
+    /**
+     * A compiled report and the metadata of its template.
+     */
+    public static final class CachedReport {
+        private final JasperReport report;
+        private final Map<String, Class<?>> parameters;
+        private final Map<String, Class<?>> fields;
+        private final String notStreamableReason;
+        private final File buildDirectory;
+        private final long templateLastModified;
+        private final long buildLastModified;
+
+        private CachedReport(final Configuration configuration, final String reportTemplate, final File templateFile,
+                             final File buildFile) throws JRException {
+            // read the timestamps first so a concurrent change causes a reload
+            this.templateLastModified = templateFile.lastModified();
+            this.buildLastModified = buildFile.lastModified();
+            this.report = (JasperReport) JRLoader.loadObject(buildFile);
+            this.buildDirectory = buildFile.getParentFile();
+
+            try {
+                final DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+                factory.setValidating(false);
+                final DocumentBuilder documentBuilder = factory.newDocumentBuilder();
+                final byte[] bytes = configuration.loadFile(reportTemplate);
+                final Document document = documentBuilder.parse(new ByteArrayInputStream(bytes));
+                this.parameters = getTypes(document, "parameter");
+                this.fields = getTypes(document, "field");
+            } catch (Exception e) {
+                throw new JRException(e);
+            }
+            this.notStreamableReason = getNotStreamableReason(this.report);
+        }
+
+        /**
+         * Each batch of a streamed report is filled as a separate report, so the page numbers, the row numbers, the
+         * calculated variables, the groups, the title and the summary would be per batch.
+         */
+        @Nullable
+        private static String getNotStreamableReason(final JasperReport report) {
+            if (report.getTitle() != null && report.getTitle().getHeight() > 0) {
+                return "it has a title band";
+            }
+            if (report.getSummary() != null && report.getSummary().getHeight() > 0) {
+                return "it has a summary band";
+            }
+            if (report.getGroups() != null && report.getGroups().length > 0) {
+                return "it has groups";
+            }
+            if (report.getVariables() != null) {
+                for (JRVariable variable : report.getVariables()) {
+                    if (!variable.isSystemDefined() && variable.getCalculationValue() != CalculationEnum.NOTHING &&
+                        variable.getCalculationValue() != CalculationEnum.SYSTEM &&
+                        variable.getResetTypeValue() == ResetTypeEnum.REPORT) {
+                        return "the variable " + variable.getName() + " is calculated on the whole report";
+                    }
+                }
+            }
+            if (usesVariable(report, JRVariable.PAGE_NUMBER)) {
+                return "it uses the page numbers";
+            }
+            if (usesVariable(report, JRVariable.REPORT_COUNT)) {
+                return "it uses the row numbers";
+            }
+            return null;
+        }
+
+        private static boolean usesVariable(final JasperReport report, final String variableName) {
+            final List<JRExpression> expressions = JRExpressionCollector.collectExpressions(
+                    DefaultJasperReportsContext.getInstance(), report);
+            for (JRExpression expression : expressions) {
+                if (expression != null && expression.getChunks() != null) {
+                    for (JRExpressionChunk chunk : expression.getChunks()) {
+                        if (chunk.getType() == JRExpressionChunk.TYPE_VARIABLE && variableName.equals(chunk.getText())) {
+                            return true;
+                        }
+                    }
+                }
+            }
+            return false;
+        }
+
+        private static List<JRSubreport> getSubreports(final JasperReport report) {
+            final List<JRSubreport> subreports = Lists.newArrayList();
+            if (report.getAllBands() != null) {
+                for (JRBand band : report.getAllBands()) {
+                    addSubreports(band.getElements(), subreports);
+                }
+            }
+            return subreports;
+        }
+
+        private static void addSubreports(final JRElement[] elements, final List<JRSubreport> subreports) {
+            if (elements == null) {
+                return;
+            }
+            for (JRElement element : elements) {
+                if (element instanceof JRSubreport) {
+                    subreports.add((JRSubreport) element);
+                } else if (element instanceof JRFrame) {
+                    addSubreports(((JRFrame) element).getElements(), subreports);
+                }
+            }
+        }
+
+        /**
+         * The sub-reports referred to by the expression: a constant, a parameter or a field of the rows (like the reportKey of
+         * the !createDataSource processor).
+         *
+         * @return the sub-reports or null if they can't be known.
+         */
+        @Nullable
+        private static Set<Object> getSubreportSources(final JRExpression expression, @Nullable final Map<String, ?> parameters,
+                                                       @Nullable final Collection<Map<String, ?>> rows) {
+            final JRExpressionChunk[] chunks = expression == null ? null : expression.getChunks();
+            if (chunks == null || chunks.length == 0) {
+                return null;
+            }
+            final Set<Object> sources = Sets.newLinkedHashSet();
+            if (chunks.length == 1 && chunks[0].getType() == JRExpressionChunk.TYPE_PARAMETER && parameters != null) {
+                sources.add(parameters.get(chunks[0].getText()));
+            } else if (chunks.length == 1 && chunks[0].getType() == JRExpressionChunk.TYPE_FIELD && rows != null) {
+                for (Map<String, ?> row : rows) {
+                    sources.add(row.get(chunks[0].getText()));
+                }
+            } else {
+                final StringBuilder text = new StringBuilder();
+                for (JRExpressionChunk chunk : chunks) {
+                    if (chunk.getType() != JRExpressionChunk.TYPE_TEXT) {
+                        return null;
+                    }
+                    text.append(chunk.getText());
+                }
+                final String constant = text.toString().trim();
+                if (constant.length() < 2 || !constant.startsWith("\"") || !constant.endsWith("\"")) {
+                    return null;
+                }
+                sources.add(constant.substring(1, constant.length() - 1));
+            }
+            return sources;
+        }
+
+        @Nullable
+        private String getSubreportsNotStreamableReason(final JasperReport parentReport, @Nullable final Map<String, ?> parameters,
+                                                        @Nullable final Collection<Map<String, ?>> rows,
+                                                        final Set<File> inspected) {
+            for (JRSubreport subreport : getSubreports(parentReport)) {
+                final Set<Object> sources = getSubreportSources(subreport.getExpression(), parameters, rows);
+                if (sources == null) {
+                    return "the sub-report " + subreport.getExpression().getText() + " can't be inspected";
+                }
+                for (Object source : sources) {
+                    final JasperReport subreportReport;
+                    try {
+                        subreportReport = loadSubreport(source, inspected);
+                    } catch (JRException e) {
+                        LOGGER.debug("Unable to load the sub-report " + source, e);
+                        return "the sub-report " + source + " can't be inspected";
+                    }
+                    if (subreportReport == null) {
+                        // already inspected
+                        continue;
+                    }
+                    if (usesVariable(subreportReport, JRVariable.PAGE_NUMBER)) {
+                        return "the sub-report " + source + " uses the page numbers";
+                    }
+                    // the parameters and the rows of a nested sub-report are not known
+                    final String reason = getSubreportsNotStreamableReason(subreportReport, null, null, inspected);
+                    if (reason != null) {
+                        return reason;
+                    }
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Load a sub-report given as a report, a file, a path relative to the directory of the report or a file URI.
+         *
+         * @return the report or null if it has already been inspected.
+         */
+        @Nullable
+        private JasperReport loadSubreport(final Object source, final Set<File> inspected) throws JRException {
+            if (source instanceof JasperReport) {
+                return (JasperReport) source;
+            }
+            File file;
+            if (source instanceof File) {
+                file = (File) source;
+            } else if (source instanceof String && ((String) source).startsWith("file:")) {
+                file = new File(URI.create((String) source));
+            } else if (source instanceof String) {
+                file = new File((String) source);
+                if (!file.isAbsolute()) {
+                    file = new File(this.buildDirectory, (String) source);
+                }
+            } else {
+                throw new JRException("Unsupported sub-report: " + source);
+            }
+            if (!inspected.add(file)) {
+                return null;
+            }
+            return (JasperReport) JRLoader.loadObject(file);
+        }
+
+        private static Map<String, Class<?>> getTypes(final Document document, final String tagName)
+                throws ClassNotFoundException {
+            final Map<String, Class<?>> types = Maps.newLinkedHashMap();
+            final NodeList elements = document.getElementsByTagName(tagName);
+            for (int i = 0; i < elements.getLength(); i++) {
+                final Element element = (Element) elements.item(i);
+                types.put(element.getAttribute("name"), Class.forName(element.getAttribute("class")));
+            }
+            return ImmutableMap.copyOf(types);
+        }
+
+        private boolean isUpToDate(final File templateFile, final File buildFile) {
+            return templateFile.lastModified() == this.templateLastModified &&
+                   buildFile.lastModified() == this.buildLastModified;
+        }
+
+        /**
+         * The compiled report.
+         */
+        public JasperReport getReport() {
+            return this.report;
+        }
+
+        /**
+         * The parameters declared in the template, by name.
+         */
+        public Map<String, Class<?>> getParameters() {
+            return this.parameters;
+        }
+
+        /**
+         * The fields declared in the template, by name.
+         */
+        public Map<String, Class<?>> getFields() {
+            return this.fields;
+        }
+
+        /**
+         * Why the report can not be streamed by batches, or null if it can.  The sub-reports are inspected as well, their page
+         * numbers would also restart at each batch.
+         *
+         * @param parameters the parameters of the report.
+         * @param rows       the rows of the report.
+         * @return why the report can't be streamed or null.
+         */
+        @Nullable
+        public String getNotStreamableReason(final Map<String, ?> parameters, final Collection<Map<String, ?>> rows) {
+            if (this.notStreamableReason != null) {
+                return this.notStreamableReason;
+            }
+            return getSubreportsNotStreamableReason(this.report, parameters, rows, Sets.<File>newHashSet());
+        }
+    }
+}
@@ -21,7 +21,6 @@ package org.mapfish.print.output;
 
 import net.sf.jasperreports.engine.JRException;
 import net.sf.jasperreports.engine.export.JRPdfExporter;
-import net.sf.jasperreports.export.SimpleExporterInput;
 import net.sf.jasperreports.export.SimpleOutputStreamExporterOutput;
 import net.sf.jasperreports.export.SimplePdfExporterConfiguration;
 import net.sf.jasperreports.export.type.PdfVersionEnum;
@@ -47,12 +46,17 @@ public final class JasperReportPDFOutputFormat extends AbstractJasperReportOutpu
         return "pdf";
     }
 
+    @Override
+    protected boolean supportsStreaming() {
+        return true;
+    }
+
     @Override
     protected void doExport(final OutputStream outputStream, final Print print) throws JRException {
 
         JRPdfExporter exporter = new JRPdfExporter(print.context);
 
-        exporter.setExporterInput(new SimpleExporterInput(print.print));
+        exporter.setExporterInput(print.getExporterInput());
         exporter.setExporterOutput(new SimpleOutputStreamExporterOutput(outputStream));
 
         SimplePdfExporterConfiguration configuration = new SimplePdfExporterConfiguration();
@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2014  Camptocamp
+ *
+ * This file is part of MapFish Print
+ *
+ * MapFish Print is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MapFish Print is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MapFish Print.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.mapfish.print.output;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import net.sf.jasperreports.engine.JRVirtualizable;
+import net.sf.jasperreports.engine.fill.JRSwapFileVirtualizer;
+import net.sf.jasperreports.engine.util.JRSwapFile;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.annotation.Nullable;
+
+/**
+ * Creates the Jasper virtualizers that swap the pages of big reports to a file in the task directory while the report is
+ * filled and exported, bounding the memory used by each print job.
+ * <p></p>
+ * The number of pages kept in memory can be set for all the reports on this bean, for an output format and for a template
+ * (see {@link org.mapfish.print.config.Template#setVirtualizerMaxPages(Integer)}).  0 disables the virtualization.
+ */
+public final class ReportVirtualizerFactory {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ReportVirtualizerFactory.class);
+    private static final int DEFAULT_BLOCK_SIZE = 4096;
+    private static final int DEFAULT_MIN_GROW_COUNT = 100;
+
+    @Autowired
+    private MetricRegistry metricRegistry;
+
+    private int maxPages = 0;
+    private int blockSize = DEFAULT_BLOCK_SIZE;
+    private int minGrowCount = DEFAULT_MIN_GROW_COUNT;
+
+    /**
+     * Create a virtualizer if the virtualization is enabled.
+     *
+     * @param maxPages      the number of pages kept in memory or null to use the default value.
+     * @param taskDirectory the directory of the print job, where the swap file is written.
+     * @return null if the virtualization is disabled.
+     */
+    @Nullable
+    public SwapFileVirtualizer create(@Nullable final Integer maxPages, final File taskDirectory) {
+        final int pages = maxPages != null ? maxPages : this.maxPages;
+        if (pages <= 0) {
+            return null;
+        }
+        final JRSwapFile swapFile = new JRSwapFile(taskDirectory.getAbsolutePath(), this.blockSize, this.minGrowCount);
+        return new SwapFileVirtualizer(pages, swapFile,
+                this.metricRegistry.meter(ReportVirtualizerFactory.class.getName() + ".pagesOut"),
+                this.metricRegistry.meter(ReportVirtualizerFactory.class.getName() + ".pagesIn"));
+    }
+
+    /**
+     * Set the default number of pages of a report kept in memory, the other pages are swapped to a file.  0 (the default)
+     * disables the virtualization.
+     *
+     * @param maxPages the number of pages.
+     */
+    public void setMaxPages(final int maxPages) {
+        this.maxPages = maxPages;
+    }
+
+    /**
+     * Set the size of the blocks of the swap file.
+     *
+     * @param blockSize the size in bytes.
+     */
+    public void setBlockSize(final int blockSize) {
+        this.blockSize = blockSize;
+    }
+
+    /**
+     * Set the minimum number of blocks the swap file grows by.
+     *
+     * @param minGrowCount the number of blocks.
+     */
+    public void setMinGrowCount(final int minGrowCount) {
+        this.minGrowCount = minGrowCount;
+    }
+
+    /**
+     * A swap file virtualizer counting the pages swapped.
+     */
+    public static final class SwapFileVirtualizer extends JRSwapFileVirtualizer {
+        private final Meter pagesOutMeter;
+        private final Meter pagesInMeter;
+        private final AtomicInteger pagesOut = new AtomicInteger();
+
+        private SwapFileVirtualizer(final int maxSize, final JRSwapFile swapFile, final Meter pagesOutMeter,
+                                    final Meter pagesInMeter) {
+            super(maxSize, swapFile, true);
+            this.pagesOutMeter = pagesOutMeter;
+            this.pagesInMeter = pagesInMeter;
+        }
+
+        @Override
+        protected void pageOut(final JRVirtualizable o) throws IOException {
+            super.pageOut(o);
+            this.pagesOut.incrementAndGet();
+            this.pagesOutMeter.mark();
+        }
+
+        @Override
+        protected void pageIn(final JRVirtualizable o) throws IOException {
+            super.pageIn(o);
+            this.pagesInMeter.mark();
+        }
+
+        @Override
+        public void cleanup() {
+            super.cleanup();
+            LOGGER.debug("Report virtualizer cleaned up, " + this.pagesOut.get() + " pages were swapped out");
+        }
+    }
+}
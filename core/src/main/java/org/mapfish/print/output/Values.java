@@ -35,6 +35,7 @@ import org.mapfish.print.config.Template;
 import org.mapfish.print.http.ConfigFileResolvingHttpRequestFactory;
 import org.mapfish.print.http.MfClientHttpRequestFactory;
 import org.mapfish.print.http.MfClientHttpRequestFactoryImpl;
+import org.mapfish.print.metrics.ExecutionTrace;
 import org.mapfish.print.parser.MapfishParser;
 import org.mapfish.print.servlet.MapPrinterServlet;
 import org.mapfish.print.wrapper.ObjectMissingException;
@@ -77,6 +78,10 @@ public final class Values {
      * The key for the values object for the subreport directory.
      */
     public static final String SUBREPORT_DIR = "SUBREPORT_DIR";
+    /**
+     * The key for the execution trace of the print job, only present if the traces are enabled.
+     */
+    public static final String EXECUTION_TRACE_KEY = "executionTrace";
 
 
     private final Map<String, Object> values = new ConcurrentHashMap<String, Object>();
@@ -118,8 +123,12 @@ public final class Values {
 
         // add task dir. to values so that all processors can access it
         this.values.put(TASK_DIRECTORY_KEY, taskDirectory);
+        final ExecutionTrace trace = ExecutionTrace.getCurrent();
+        if (trace != null) {
+            this.values.put(EXECUTION_TRACE_KEY, trace);
+        }
         this.values.put(CLIENT_HTTP_REQUEST_FACTORY_KEY, new ConfigFileResolvingHttpRequestFactory(httpRequestFactory,
-                template.getConfiguration()));
+                template.getConfiguration(), trace));
         this.values.put(TEMPLATE_KEY, template);
         this.values.put(PDF_CONFIG, template.getPdfConfig());
         this.values.put(SUBREPORT_DIR, jasperTemplateBuild.getAbsolutePath());
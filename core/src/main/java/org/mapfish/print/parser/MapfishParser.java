@@ -19,7 +19,11 @@
 
 package org.mapfish.print.parser;
 
+import com.google.common.base.Optional;
 import com.google.common.base.Predicates;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 
@@ -66,6 +70,23 @@ public final class MapfishParser {
     private static final Logger LOGGER = LoggerFactory.getLogger(MapfishParser.class);
     private static final String POST_CONSTRUCT_METHOD_NAME = "postConstruct";
 
+    /**
+     * The postConstruct method of each parsed class, most of them don't have one and looking it up each time would throw a
+     * {@link NoSuchMethodException} for each parsed object.  Like for the attributes of {@link ParserUtils}, the cached
+     * methods reference their class, so the parsed classes are kept as long as this class.
+     */
+    private static final LoadingCache<Class<?>, Optional<Method>> POST_CONSTRUCT_CACHE = CacheBuilder.newBuilder().build(
+            new CacheLoader<Class<?>, Optional<Method>>() {
+                @Override
+                public Optional<Method> load(final Class<?> parsedClass) {
+                    try {
+                        return Optional.of(parsedClass.getMethod(POST_CONSTRUCT_METHOD_NAME));
+                    } catch (NoSuchMethodException e) {
+                        return Optional.absent();
+                    }
+                }
+            });
+
     /**
      * Populate the param object by obtaining the values from the like names values in the request data object.
      *
@@ -135,12 +156,14 @@ public final class MapfishParser {
             throw new MissingPropertyException(message, missingProperties, getAllAttributeNames(objectToPopulate.getClass()));
         }
 
+        final Optional<Method> method = POST_CONSTRUCT_CACHE.getUnchecked(objectToPopulate.getClass());
+        if (!method.isPresent()) {
+            LOGGER.debug("No " + POST_CONSTRUCT_METHOD_NAME + " method on parameter object.");
+            return;
+        }
         try {
-            final Method method = objectToPopulate.getClass().getMethod(POST_CONSTRUCT_METHOD_NAME);
             LOGGER.debug("Executing " + POST_CONSTRUCT_METHOD_NAME + " method on parameter object.");
-            method.invoke(objectToPopulate);
-        } catch (NoSuchMethodException e) {
-            LOGGER.debug("No " + POST_CONSTRUCT_METHOD_NAME + " method on parameter object.");
+            method.get().invoke(objectToPopulate);
         } catch (InvocationTargetException e) {
             final Throwable targetException = e.getTargetException();
             if (targetException instanceof RuntimeException) {
@@ -23,6 +23,9 @@ import com.google.common.base.Function;
 import com.google.common.base.Functions;
 import com.google.common.base.Predicate;
 import com.google.common.base.Predicates;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
 import com.google.common.collect.Collections2;
 import com.google.common.collect.Sets;
 
@@ -87,6 +90,32 @@ public final class ParserUtils {
             return input.getName();
         }
     };
+
+    /**
+     * The attributes of each inspected class.  Computing them means walking the class hierarchy with
+     * {@link Class#getFields()}, which copies the {@link Field} objects on every call, and the copies have to parse their
+     * annotations again each time they are queried.  This is done for each processor of each print, so the fields are
+     * looked up only once per class.  The cached fields reference their class, so the classes are not unloaded before this
+     * class (weak keys would not change that), the parameter classes are the ones of the print and of its plugins.
+     */
+    private static final LoadingCache<Class<?>, Field[]> ATTRIBUTES_CACHE = CacheBuilder.newBuilder().build(
+            new CacheLoader<Class<?>, Field[]>() {
+                @Override
+                public Field[] load(final Class<?> classToInspect) {
+                    Set<Field> allFields = Sets.newLinkedHashSet();
+                    Class<?> currentClass = classToInspect;
+                    while (currentClass != null && currentClass != Void.class) {
+                        for (Field field : currentClass.getFields()) {
+                            if (allFields.add(field)) {
+                                makeAccessible(field);
+                            }
+                        }
+                        currentClass = currentClass.getSuperclass();
+                    }
+                    return allFields.toArray(new Field[allFields.size()]);
+                }
+            });
+
     private ParserUtils() {
         // intentionally empty.
     }
@@ -119,12 +148,24 @@ public final class ParserUtils {
                                             final Function<Field, V> map, final Predicate<Field> filter) {
 
         if (classToInspect != null && classToInspect != Void.class) {
-            Collection<Field> filteredResults = Collections2.filter(Arrays.asList(classToInspect.getFields()), filter);
-            Collection<? extends V> resultsForClass = Collections2.transform(filteredResults, map);
-            results.addAll(resultsForClass);
-            if (classToInspect.getSuperclass() != null) {
-                getAllAttributes(classToInspect.getSuperclass(), results, map, filter);
-            }
+            Collection<Field> filteredResults = Collections2.filter(Arrays.asList(ATTRIBUTES_CACHE.getUnchecked(classToInspect)),
+                    filter);
+            results.addAll(Collections2.transform(filteredResults, map));
+        }
+    }
+
+    /**
+     * The fields are public, skipping the access checks only spares the cost of doing them on each get and set.  Final fields
+     * are left alone so that they still can't be written.
+     */
+    private static void makeAccessible(final Field field) {
+        if (Modifier.isFinal(field.getModifiers())) {
+            return;
+        }
+        try {
+            field.setAccessible(true);
+        } catch (SecurityException e) {
+            // keep the access checks
         }
     }
 
@@ -45,6 +45,9 @@ import static org.mapfish.print.parser.ParserUtils.getAttributeNames;
  * Represents a graph of the processors dependencies.  The root nodes can execute in parallel but processors with
  * dependencies must wait for their dependencies to complete before execution.
  * <p></p>
+ * The nodes that can run in parallel are started by decreasing critical path: the estimated time (from the previous
+ * executions of the processors) of the longest chain of processors depending on them.
+ * <p></p>
  *
  * @author jesseeichar on 3/24/14.
  */
@@ -186,26 +189,16 @@ public final class ProcessorDependencyGraph {
             LOGGER.debug("Starting to execute processor graph: \n" + graph);
             try {
                 List<ProcessorGraphNode.ProcessorNodeForkJoinTask<?, ?>> tasks = Lists.newArrayListWithExpectedSize(graph.roots.size());
-                // fork all but 1 dependencies (the first will be ran in current thread)
                 for (int i = 0; i < graph.roots.size(); i++) {
                     @SuppressWarnings("unchecked")
                     Optional<ProcessorGraphNode.ProcessorNodeForkJoinTask<?, ?>> task = graph.roots.get(i).createTask(this.execContext);
                     if (task.isPresent()) {
                         tasks.add(task.get());
-                        if (tasks.size() > 1) {
-                            task.get().fork();
-                        }
                     }
                 }
 
-                if (!tasks.isEmpty()) {
-                    // compute one task in current thread so as not to waste threads
-                    tasks.get(0).compute();
-
-                    for (ProcessorGraphNode.ProcessorNodeForkJoinTask task : tasks.subList(1, tasks.size())) {
-                        task.join();
-                    }
-                }
+                // start the longest chains of processors first
+                ProcessorGraphNode.runLongestPathFirst(tasks);
             } finally {
                 LOGGER.debug("Finished executing processor graph: \n" + graph);
             }
@@ -25,15 +25,20 @@ import com.google.common.base.Optional;
 import com.google.common.collect.BiMap;
 import com.google.common.collect.HashBiMap;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import jsr166y.RecursiveTask;
 import org.mapfish.print.ExceptionUtils;
+import org.mapfish.print.metrics.ExecutionTrace;
 import org.mapfish.print.output.Values;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.CancellationException;
 import java.util.concurrent.TimeUnit;
@@ -49,6 +54,12 @@ import javax.annotation.Nonnull;
  */
 public final class ProcessorGraphNode<In, Out> {
     private static final Logger LOGGER = LoggerFactory.getLogger(ProcessorGraphNode.class);
+    /**
+     * The cost of a processor that has never been executed, so before the timers have data the longest path is the one with
+     * the most processors.
+     */
+    private static final double DEFAULT_COST = 1.0;
+    private static final double NANOS_PER_MILLI = 1000000.0;
     private final Processor<In, Out> processor;
     private final List<ProcessorGraphNode<?, ?>> dependencies = Lists.newArrayList();
     private final List<ProcessorGraphNode<?, ?>> requirements = Lists.newArrayList();
@@ -95,6 +106,72 @@ public final class ProcessorGraphNode<In, Out> {
         return !this.requirements.isEmpty();
     }
 
+    private String getTimerName() {
+        return ProcessorGraphNode.class.getName() + "_compute():" + this.processor.getClass();
+    }
+
+    /**
+     * Estimate the time in ms taken by the processor, from the timer of its previous executions.
+     */
+    double getEstimatedCost() {
+        final Timer timer = this.metricRegistry.timer(getTimerName());
+        if (timer.getCount() == 0) {
+            return DEFAULT_COST;
+        }
+        return Math.max(DEFAULT_COST, timer.getSnapshot().getMean() / NANOS_PER_MILLI);
+    }
+
+    /**
+     * Estimate the time in ms of the longest path starting at this node: the cost of this node and of its most expensive
+     * dependency path.
+     *
+     * @param costs the costs already calculated for this graph.
+     */
+    double getCriticalPathCost(final Map<ProcessorGraphNode<?, ?>, Double> costs) {
+        final Double known = costs.get(this);
+        if (known != null) {
+            return known;
+        }
+        double dependenciesCost = 0;
+        for (ProcessorGraphNode<?, ?> dependency : this.dependencies) {
+            dependenciesCost = Math.max(dependenciesCost, dependency.getCriticalPathCost(costs));
+        }
+        final double cost = getEstimatedCost() + dependenciesCost;
+        costs.put(this, cost);
+        return cost;
+    }
+
+    /**
+     * Fork the tasks, the tasks with the longest critical path first, run the longest one in the current thread and wait for
+     * the others.  The forked tasks are stolen by the other threads in the order they are forked.
+     *
+     * @param tasks the tasks to run.
+     */
+    static void runLongestPathFirst(final List<ProcessorNodeForkJoinTask<?, ?>> tasks) {
+        if (tasks.isEmpty()) {
+            return;
+        }
+        final Map<ProcessorGraphNode<?, ?>, Double> costs = Maps.newIdentityHashMap();
+        for (ProcessorNodeForkJoinTask<?, ?> task : tasks) {
+            task.node.getCriticalPathCost(costs);
+        }
+        Collections.sort(tasks, new Comparator<ProcessorNodeForkJoinTask<?, ?>>() {
+            @Override
+            public int compare(final ProcessorNodeForkJoinTask<?, ?> task1, final ProcessorNodeForkJoinTask<?, ?> task2) {
+                return Double.compare(costs.get(task2.node), costs.get(task1.node));
+            }
+        });
+
+        for (ProcessorNodeForkJoinTask<?, ?> task : tasks.subList(1, tasks.size())) {
+            task.fork();
+        }
+        // compute one task in current thread so as not to waste threads
+        tasks.get(0).compute();
+        for (ProcessorNodeForkJoinTask<?, ?> task : tasks.subList(1, tasks.size())) {
+            task.join();
+        }
+    }
+
     /**
      * Create a ForkJoinTask for running in a fork join pool.
      *
@@ -199,8 +276,11 @@ public final class ProcessorGraphNode<In, Out> {
 
             final Processor<In, Out> process = this.node.processor;
             final MetricRegistry registry = this.node.metricRegistry;
-            final String name = ProcessorGraphNode.class.getName() + "_compute():" + process.getClass();
-            Timer.Context timerContext = registry.timer(name).time();
+            Timer.Context timerContext = registry.timer(this.node.getTimerName()).time();
+            // the processors are children of the job, whatever task the worker thread was running before
+            final ExecutionTrace trace = values.getObject(Values.EXECUTION_TRACE_KEY, ExecutionTrace.class);
+            final ExecutionTrace.Span span = ExecutionTrace.start(trace, trace == null ? null : trace.getRoot(), "processor",
+                    process.toString());
             try {
                 In inputParameter = ProcessorUtils.populateInputParameter(process, values);
 
@@ -224,6 +304,7 @@ public final class ProcessorGraphNode<In, Out> {
                     ProcessorUtils.writeProcessorOutputToValues(output, process, values);
                 }
             } finally {
+                span.end();
                 this.execContext.finished(this.node);
                 final long processorTime = TimeUnit.MILLISECONDS.convert(timerContext.stop(), TimeUnit.NANOSECONDS);
                 LOGGER.debug("Time taken to run processor: '" + process.getClass() + "' was " + processorTime + " ms");
@@ -242,26 +323,15 @@ public final class ProcessorGraphNode<In, Out> {
 
             List<ProcessorNodeForkJoinTask<?, ?>> tasks = new ArrayList<ProcessorNodeForkJoinTask<?, ?>>(dependencyNodes.size());
 
-            // fork all but 1 dependencies (the first will be ran in current thread)
             for (final ProcessorGraphNode<?, ?> depNode : dependencyNodes) {
                 Optional<ProcessorNodeForkJoinTask> task = depNode.createTask(this.execContext);
 
                 if (task.isPresent()) {
                     tasks.add(task.get());
-                    if (tasks.size() > 1) {
-                        task.get().fork();
-                    }
                 }
             }
 
-            if (!tasks.isEmpty()) {
-                // compute one task in current thread so as not to waste threads
-                tasks.get(0).compute();
-
-                for (ProcessorNodeForkJoinTask task : tasks.subList(1, tasks.size())) {
-                    task.join();
-                }
-            }
+            runLongestPathFirst(tasks);
         }
     }
 
@@ -0,0 +1,67 @@
+/*
+ * Copyright (C) 2014  Camptocamp
+ *
+ * This file is part of MapFish Print
+ *
+ * MapFish Print is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MapFish Print is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MapFish Print.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.mapfish.print.processor.http;
+
+import com.codahale.metrics.MetricRegistry;
+import org.mapfish.print.config.Configuration;
+import org.mapfish.print.config.HasConfiguration;
+import org.mapfish.print.http.CoalescingHttpRequestFactory;
+import org.mapfish.print.http.MfClientHttpRequestFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+
+/**
+ * <p>This processor coalesces the identical GET requests (same URI and same headers) made at the same time by the
+ * concurrent print jobs using the same configuration: only one request is sent and all the callers get a copy of the
+ * response.</p>
+ * <p>It reduces the load on the servers when many jobs print the same area at the same time.  Since the responses are
+ * buffered in memory, it should not be used for servers returning very large responses.</p>
+ * <p>Example: </p>
+ * <pre><code>
+ * - !coalesceRequests
+ *   matchers:
+ *     - !dnsMatch
+ *       host: tile.openstreetmap.org
+ * </code></pre>
+ *
+ * <p>Can be applied conditionally using matchers, like in {@link RestrictUrisProcessor}
+ * (<a href="processors.html#!restrictUris">!restrictUris</a>).</p>
+ * <p>
+ *     <strong>Note:</strong> if this class is part of a CompositeClientHttpRequestFactoryProcessor (!configureHttpRequests) then
+ *     it should be after the processors changing the URIs or the headers so that all the changes are taken into account.
+ * </p>
+ */
+public final class CoalesceRequestsProcessor extends AbstractClientHttpRequestFactoryProcessor implements HasConfiguration {
+    @Autowired
+    private MetricRegistry metricRegistry;
+    private Configuration configuration;
+
+    @Override
+    public void setConfiguration(final Configuration configuration) {
+        this.configuration = configuration;
+    }
+
+    @Override
+    public MfClientHttpRequestFactory createFactoryWrapper(final ClientHttpFactoryProcessorParam clientHttpFactoryProcessorParam,
+                                                           final MfClientHttpRequestFactory requestFactory) {
+        // the requests of different configurations are not coalesced since they may use different credentials
+        final String keyPrefix = this.configuration != null ? this.configuration.getDirectory().getAbsolutePath() : "";
+        return new CoalescingHttpRequestFactory(requestFactory, this.matchers, keyPrefix, this.metricRegistry);
+    }
+}
@@ -19,7 +19,6 @@
 
 package org.mapfish.print.processor.jasper;
 
-import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import jsr166y.ForkJoinTask;
 import net.sf.jasperreports.engine.JRDataSource;
@@ -43,7 +42,9 @@ import org.mapfish.print.wrapper.json.PJsonObject;
 import org.springframework.beans.factory.annotation.Autowired;
 
 import java.io.File;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -83,6 +84,7 @@ import static org.mapfish.print.attribute.DataSourceAttribute.DataSourceAttribut
  * @author Jesse on 8/26/2014.
  */
 public final class DataSourceProcessor extends AbstractProcessor<DataSourceProcessor.Input, DataSourceProcessor.Output> {
+    private static final double DEFAULT_MAX_HEAP_USAGE = 0.8;
 
     private Map<String, Attribute> attributes = Maps.newHashMap();
 
@@ -96,6 +98,8 @@ public final class DataSourceProcessor extends AbstractProcessor<DataSourceProce
 
     private String reportTemplate;
     private String reportKey;
+    private int maxRowsInFlight = 0;
+    private double maxHeapUsage = DEFAULT_MAX_HEAP_USAGE;
 
     /**
      * Constructor.
@@ -128,6 +132,28 @@ public final class DataSourceProcessor extends AbstractProcessor<DataSourceProce
         this.reportKey = reportKey;
     }
 
+    /**
+     * The maximum number of rows processed at the same time.  The next row is started once the oldest row in progress is done, so
+     * for big atlases the memory used stays flat.  0 (the default) starts all the rows at once.
+     *
+     * @param maxRowsInFlight the number of rows.
+     */
+    public void setMaxRowsInFlight(final int maxRowsInFlight) {
+        this.maxRowsInFlight = maxRowsInFlight;
+    }
+
+    /**
+     * When more than this part of the maximum heap is used, no new row is started before the oldest row in progress is done.
+     * Only used if {@link #setMaxRowsInFlight(int)} is set, otherwise all the rows are started at once.
+     * <p></p>
+     * Default is 0.8, 1 disables it.
+     *
+     * @param maxHeapUsage the ratio of the maximum heap, between 0 and 1.
+     */
+    public void setMaxHeapUsage(final double maxHeapUsage) {
+        this.maxHeapUsage = maxHeapUsage;
+    }
+
     /**
      * All the processors that will executed for each value retrieved from the {@link org.mapfish.print.output.Values} object
      * with the datasource name.  All output values from the processor graph will be the datasource values.
@@ -175,23 +201,8 @@ public final class DataSourceProcessor extends AbstractProcessor<DataSourceProce
     private JRDataSource processInput(@Nonnull final Input input)
             throws JSONException, JRException {
         //CSON:RedundantThrows
-        List<Values> dataSourceValues = Lists.newArrayList();
-        for (Map<String, Object> o : input.datasource.attributesValues) {
-            Values rowValues = new Values(input.values);
-            for (Map.Entry<String, Object> entry : o.entrySet()) {
-                rowValues.put(entry.getKey(), entry.getValue());
-            }
-
-            dataSourceValues.add(rowValues);
-        }
-
-        List<ForkJoinTask<Values>> futures = Lists.newArrayList();
-        if (!dataSourceValues.isEmpty()) {
-            for (Values dataSourceValue : dataSourceValues) {
-                addAttributes(input.template, dataSourceValue);
-                final ForkJoinTask<Values> taskFuture = this.processorGraph.createTask(dataSourceValue).fork();
-                futures.add(taskFuture);
-            }
+        final Map<String, Object>[] attributesValues = input.datasource.attributesValues;
+        if (attributesValues.length > 0) {
             final File reportFile;
             if (this.reportTemplate != null) {
                 final Configuration configuration = input.template.getConfiguration();
@@ -200,14 +211,37 @@ public final class DataSourceProcessor extends AbstractProcessor<DataSourceProce
             } else {
                 reportFile = null;
             }
-            List<Map<String, ?>> rows = new ArrayList<Map<String, ?>>();
+            List<Map<String, ?>> rows = new ArrayList<Map<String, ?>>(attributesValues.length);
+
+            final Deque<ForkJoinTask<Values>> inFlight = new ArrayDeque<ForkJoinTask<Values>>();
+            boolean success = false;
+            try {
+                for (Map<String, Object> o : attributesValues) {
+                    // wait for the oldest rows if too many rows are in progress or if the memory is short
+                    while (!inFlight.isEmpty() && this.maxRowsInFlight > 0 &&
+                           (inFlight.size() >= this.maxRowsInFlight || isHeapFull())) {
+                        rows.add(getRow(inFlight.removeFirst(), reportFile));
+                    }
 
-            for (ForkJoinTask<Values> future : futures) {
-                final Values rowData = future.join();
-                if (reportFile != null) {
-                        rowData.put(this.reportKey, reportFile.getAbsolutePath());
+                    Values rowValues = new Values(input.values);
+                    for (Map.Entry<String, Object> entry : o.entrySet()) {
+                        rowValues.put(entry.getKey(), entry.getValue());
+                    }
+                    addAttributes(input.template, rowValues);
+                    inFlight.addLast(this.processorGraph.createTask(rowValues).fork());
+                }
+                while (!inFlight.isEmpty()) {
+                    rows.add(getRow(inFlight.removeFirst(), reportFile));
+                }
+                success = true;
+            } finally {
+                if (!success) {
+                    // whatever the failure (an exception of a row, of the attributes or an OutOfMemoryError), don't leave
+                    // the forked rows running
+                    for (ForkJoinTask<Values> task : inFlight) {
+                        task.cancel(true);
+                    }
                 }
-                rows.add(rowData.asMap());
             }
 
             return new JRMapCollectionDataSource(rows);
@@ -215,6 +249,20 @@ public final class DataSourceProcessor extends AbstractProcessor<DataSourceProce
         return null;
     }
 
+    private Map<String, Object> getRow(final ForkJoinTask<Values> task, @Nullable final File reportFile) {
+        final Values rowData = task.join();
+        if (reportFile != null) {
+            rowData.put(this.reportKey, reportFile.getAbsolutePath());
+        }
+        return rowData.asMap();
+    }
+
+    private boolean isHeapFull() {
+        final Runtime runtime = Runtime.getRuntime();
+        final long used = runtime.totalMemory() - runtime.freeMemory();
+        return used > runtime.maxMemory() * this.maxHeapUsage;
+    }
+
     private void addAttributes(@Nonnull final Template template,
                                @Nonnull final Values dataSourceValue) throws JSONException {
         dataSourceValue.populateFromAttributes(template, this.parser, this.attributes,
@@ -232,6 +280,12 @@ public final class DataSourceProcessor extends AbstractProcessor<DataSourceProce
                                                             " be non-null.  reportKey: " + this.reportKey +
                                                             " reportTemplate: " + this.reportTemplate));
         }
+        if (this.maxRowsInFlight < 0) {
+            validationErrors.add(new ConfigurationException("maxRowsInFlight must be >= 0, was: " + this.maxRowsInFlight));
+        }
+        if (this.maxHeapUsage <= 0 || this.maxHeapUsage > 1) {
+            validationErrors.add(new ConfigurationException("maxHeapUsage must be in ]0, 1], was: " + this.maxHeapUsage));
+        }
         for (Attribute attribute : this.attributes.values()) {
             attribute.validate(validationErrors, configuration);
         }
@@ -20,10 +20,23 @@
 package org.mapfish.print.processor.jasper;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Joiner;
+import com.google.common.base.Splitter;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.collect.Lists;
 import com.google.common.io.Files;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import net.sf.jasperreports.engine.DefaultJasperReportsContext;
+import net.sf.jasperreports.engine.JRAbstractSvgRenderer;
 import net.sf.jasperreports.engine.JRException;
+import net.sf.jasperreports.engine.JRParameter;
 import net.sf.jasperreports.engine.JasperCompileManager;
+import net.sf.jasperreports.engine.JasperReport;
+import net.sf.jasperreports.engine.JasperReportsContext;
 import net.sf.jasperreports.engine.Renderable;
+import net.sf.jasperreports.engine.RenderableUtil;
 import net.sf.jasperreports.engine.design.JRDesignBand;
 import net.sf.jasperreports.engine.design.JRDesignElement;
 import net.sf.jasperreports.engine.design.JRDesignExpression;
@@ -32,8 +45,16 @@ import net.sf.jasperreports.engine.design.JasperDesign;
 import net.sf.jasperreports.engine.type.HorizontalImageAlignEnum;
 import net.sf.jasperreports.engine.type.ScaleImageEnum;
 import net.sf.jasperreports.engine.type.WhenNoDataTypeEnum;
+import net.sf.jasperreports.engine.util.JRLoader;
+import net.sf.jasperreports.engine.util.JRSaver;
+import net.sf.jasperreports.renderers.BatikRenderer;
 
 import java.awt.Dimension;
+import java.awt.Graphics2D;
+import java.awt.geom.Dimension2D;
+import java.awt.geom.Rectangle2D;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.net.URI;
 import java.util.List;
@@ -41,12 +62,34 @@ import java.util.List;
 /**
  * Creates a Jasper containing overlaid images, which is supposed to
  * be embedded into an another report as sub-report.
+ * <p></p>
+ * The report is only compiled once for each size, the images and the dpi are stored in the properties of a copy of the
+ * compiled report and are drawn by a single image element, see {@link #getRenderer(net.sf.jasperreports.engine.JasperReport)}.
  *
  * @author tsauerwein
  */
 public class ImagesSubReport {
-
-    private final JasperDesign reportDesign;
+    /**
+     * The report property containing the URIs of the graphics, separated by new lines.
+     */
+    static final String GRAPHICS_PROPERTY = "org.mapfish.print.graphics";
+
+    private static final int MAX_COMPILED_REPORTS = 100;
+    private static final LoadingCache<Dimension, byte[]> COMPILED_REPORTS = CacheBuilder.newBuilder()
+            .maximumSize(MAX_COMPILED_REPORTS)
+            .build(new CacheLoader<Dimension, byte[]>() {
+                @Override
+                public byte[] load(final Dimension size) throws JRException {
+                    final JasperReport report = JasperCompileManager.compileReport(createReport(size));
+                    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+                    JRSaver.saveObject(report, out);
+                    return out.toByteArray();
+                }
+            });
+
+    private final List<URI> graphics;
+    private final Dimension size;
+    private final double dpi;
 
     /**
      * Constructor.
@@ -56,10 +99,12 @@ public class ImagesSubReport {
      * @param dpi the dpi of the report
      */
     public ImagesSubReport(final List<URI> graphics, final Dimension size, final double dpi) {
-        this.reportDesign = createReport(graphics, size, dpi);
+        this.graphics = graphics;
+        this.size = new Dimension(size);
+        this.dpi = dpi;
     }
 
-    private JasperDesign createReport(final List<URI> graphics, final Dimension size, final double dpi) {
+    private static JasperDesign createReport(final Dimension size) {
         final JasperDesign design = new JasperDesign();
         design.setName("map");
 
@@ -76,36 +121,19 @@ public class ImagesSubReport {
         JRDesignBand band = new JRDesignBand();
         band.setHeight(size.height);
 
-        // add layer graphics to report
-        addGraphics(graphics, band, size, design);
+        // add the layer graphics to report, they are all drawn by one image element
+        band.addElement(getImage(ImagesSubReport.class.getName() + ".getRenderer($P{" + JRParameter.JASPER_REPORT + "})",
+                size, design));
 
         // note that the images are added to the "NoData" band, this ensures
         // that they are displayed even if no data connection is passed to the
         // sub-report
         design.setNoData(band);
         design.setWhenNoDataType(WhenNoDataTypeEnum.NO_DATA_SECTION);
-        design.setProperty(Renderable.PROPERTY_IMAGE_DPI, String.valueOf(Math.round(dpi)));
         return design;
     }
 
-    private void addGraphics(final List<URI> graphics, final JRDesignBand band,
-            final Dimension size, final JasperDesign design) {
-        for (URI graphicFile : graphics) {
-            String imageExpression;
-
-            final String fileName = new File(graphicFile).getAbsolutePath().replace('\\', '/');
-            if (Files.getFileExtension(fileName).equals("svg")) {
-                imageExpression = "net.sf.jasperreports.renderers.BatikRenderer.getInstance(new java.io.File(\""
-                        + fileName + "\"))";
-            } else {
-                imageExpression = "\"" + fileName + "\"";
-            }
-
-            band.addElement(getImage(imageExpression, size, design));
-        }
-    }
-
-    private JRDesignElement getImage(final String imageExpression, final Dimension mapSize,
+    private static JRDesignElement getImage(final String imageExpression, final Dimension mapSize,
             final JasperDesign design) {
         final JRDesignImage image = new JRDesignImage(design);
 
@@ -124,17 +152,100 @@ public class ImagesSubReport {
     }
 
     /**
-     * Compiles the report into a <code>*.jasper</code> file.
+     * Writes the report into a <code>*.jasper</code> file.  The report is only compiled the first time a report of this size
+     * is requested.
      *
      * @param compiledReportFile The destination file.
      * @throws JRException
      */
     public final void compile(final File compiledReportFile) throws JRException {
-        JasperCompileManager.compileReportToFile(this.reportDesign, compiledReportFile.getAbsolutePath());
+        final JasperReport report = getCompiledReport();
+        JRSaver.saveObject(report, compiledReportFile);
+    }
+
+    @VisibleForTesting
+    protected final JasperReport getCompiledReport() throws JRException {
+        final byte[] compiled;
+        try {
+            compiled = COMPILED_REPORTS.getUnchecked(this.size);
+        } catch (UncheckedExecutionException e) {
+            if (e.getCause() instanceof JRException) {
+                throw (JRException) e.getCause();
+            }
+            throw e;
+        }
+        final JasperReport report = (JasperReport) JRLoader.loadObject(new ByteArrayInputStream(compiled));
+        report.getPropertiesMap().setProperty(GRAPHICS_PROPERTY, Joiner.on('\n').join(this.graphics));
+        report.getPropertiesMap().setProperty(Renderable.PROPERTY_IMAGE_DPI, String.valueOf(Math.round(this.dpi)));
+        return report;
     }
 
     @VisibleForTesting
     protected final JasperDesign getReportDesign() {
-        return this.reportDesign;
+        return createReport(this.size);
+    }
+
+    /**
+     * Create the renderer drawing the graphics of the report, called by the image expression of the report.
+     *
+     * @param report the report being filled.
+     */
+    public static Renderable getRenderer(final JasperReport report) throws JRException {
+        final String graphicsProperty = report.getPropertiesMap().getProperty(GRAPHICS_PROPERTY);
+        final List<Renderable> renderables = Lists.newArrayList();
+        if (graphicsProperty != null) {
+            for (String graphic : Splitter.on('\n').omitEmptyStrings().split(graphicsProperty)) {
+                renderables.add(getRenderable(URI.create(graphic)));
+            }
+        }
+        return new StackedRenderer(renderables, new Dimension(report.getPageWidth(), report.getPageHeight()));
+    }
+
+    /**
+     * Get the renderer of a graphic.  The images registered in memory are drawn directly, the files are loaded like Jasper
+     * loads an image location: the SVG files are parsed when drawn and the raster files are kept encoded and are only decoded
+     * when drawn.
+     */
+    private static Renderable getRenderable(final URI graphic) throws JRException {
+        if (InMemoryImageRenderer.isRegistered(graphic)) {
+            return InMemoryImageRenderer.get(graphic.toString());
+        }
+        final File file = new File(graphic);
+        if (Files.getFileExtension(file.getName()).equals("svg")) {
+            return BatikRenderer.getInstance(file);
+        }
+        return RenderableUtil.getInstance(DefaultJasperReportsContext.getInstance()).getRenderable(file.getAbsolutePath());
+    }
+
+    /**
+     * Draws the graphics on top of each other.
+     */
+    private static final class StackedRenderer extends JRAbstractSvgRenderer {
+        private static final long serialVersionUID = 1L;
+        private final List<Renderable> renderables;
+        private final Dimension size;
+
+        private StackedRenderer(final List<Renderable> renderables, final Dimension size) {
+            this.renderables = renderables;
+            this.size = size;
+        }
+
+        @Override
+        public Dimension2D getDimension(final JasperReportsContext jasperReportsContext) {
+            return this.size;
+        }
+
+        @Override
+        public void render(final JasperReportsContext jasperReportsContext, final Graphics2D graphics,
+                           final Rectangle2D rectangle) throws JRException {
+            for (Renderable renderable : this.renderables) {
+                final Graphics2D layerGraphics = (Graphics2D) graphics.create();
+                try {
+                    renderable.render(jasperReportsContext, layerGraphics, rectangle);
+                } finally {
+                    layerGraphics.dispose();
+                }
+            }
+        }
     }
 }
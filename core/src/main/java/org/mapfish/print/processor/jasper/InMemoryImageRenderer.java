@@ -0,0 +1,154 @@
+/*
+ * Copyright (C) 2014  Camptocamp
+ *
+ * This file is part of MapFish Print
+ *
+ * MapFish Print is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MapFish Print is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MapFish Print.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.mapfish.print.processor.jasper;
+
+import com.google.common.collect.Maps;
+import net.sf.jasperreports.engine.JRAbstractSvgRenderer;
+import net.sf.jasperreports.engine.JRException;
+import net.sf.jasperreports.engine.JasperReportsContext;
+import net.sf.jasperreports.engine.Renderable;
+
+import java.awt.Dimension;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.geom.Dimension2D;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.net.URI;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import javax.imageio.ImageIO;
+
+/**
+ * A Jasper renderer that draws an image kept in memory, so a rendered map layer doesn't need to be encoded to a file and then
+ * read and decoded again by Jasper.
+ * <p></p>
+ * The images are registered by the URI of the file they would have been written to, the sub-report refers to them with
+ * {@link #get(String)}.  The images of a print job are unregistered once the report is filled, see
+ * {@link #unregisterAll(java.io.File)}.  The image is only encoded (as PNG) if the report is serialized.
+ */
+public final class InMemoryImageRenderer extends JRAbstractSvgRenderer {
+    private static final long serialVersionUID = 1L;
+    private static final ConcurrentMap<String, InMemoryImageRenderer> IMAGES = Maps.newConcurrentMap();
+
+    private transient BufferedImage image;
+    private transient volatile boolean fetched = false;
+
+    private InMemoryImageRenderer(final BufferedImage image) {
+        this.image = image;
+    }
+
+    /**
+     * Register an image.
+     *
+     * @param uri   the URI of the file the image stands for.
+     * @param image the image.
+     */
+    public static void register(final URI uri, final BufferedImage image) {
+        IMAGES.put(uri.toString(), new InMemoryImageRenderer(image));
+    }
+
+    /**
+     * Return true if an image is registered for this URI.
+     *
+     * @param uri the URI of the file the image stands for.
+     */
+    public static boolean isRegistered(final URI uri) {
+        return IMAGES.containsKey(uri.toString());
+    }
+
+    /**
+     * Get the renderer of a registered image, called by the image expressions of the reports.
+     *
+     * @param uri the URI of the file the image stands for.
+     */
+    public static Renderable get(final String uri) {
+        final InMemoryImageRenderer renderer = IMAGES.get(uri);
+        if (renderer == null) {
+            throw new IllegalStateException("No image registered for " + uri);
+        }
+        renderer.fetched = true;
+        return renderer;
+    }
+
+    /**
+     * Unregister the images of a print job that have already been used by a report.  Used when a report is filled in
+     * several parts, the images are then held by the filled part only.
+     *
+     * @param taskDirectory the directory of the print job, containing the files the images stand for.
+     */
+    public static void unregisterFetched(final File taskDirectory) {
+        final String prefix = taskDirectory.toURI().toString();
+        final Iterator<Map.Entry<String, InMemoryImageRenderer>> iterator = IMAGES.entrySet().iterator();
+        while (iterator.hasNext()) {
+            final Map.Entry<String, InMemoryImageRenderer> entry = iterator.next();
+            if (entry.getValue().fetched && entry.getKey().startsWith(prefix)) {
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Unregister all the images of a print job.
+     *
+     * @param taskDirectory the directory of the print job, containing the files the images stand for.
+     */
+    public static void unregisterAll(final File taskDirectory) {
+        final String prefix = taskDirectory.toURI().toString();
+        final Iterator<String> iterator = IMAGES.keySet().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().startsWith(prefix)) {
+                iterator.remove();
+            }
+        }
+    }
+
+    @Override
+    public Dimension2D getDimension(final JasperReportsContext jasperReportsContext) {
+        return new Dimension(this.image.getWidth(), this.image.getHeight());
+    }
+
+    @Override
+    public void render(final JasperReportsContext jasperReportsContext, final Graphics2D graphics,
+                       final Rectangle2D rectangle) throws JRException {
+        graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BICUBIC);
+        graphics.drawImage(this.image, (int) rectangle.getX(), (int) rectangle.getY(),
+                (int) rectangle.getWidth(), (int) rectangle.getHeight(), null);
+    }
+
+    private void writeObject(final ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ImageIO.write(this.image, "png", bytes);
+        out.writeObject(bytes.toByteArray());
+    }
+
+    private void readObject(final ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        this.image = ImageIO.read(new ByteArrayInputStream((byte[]) in.readObject()));
+    }
+}
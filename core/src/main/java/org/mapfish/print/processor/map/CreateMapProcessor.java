@@ -26,6 +26,8 @@ import com.vividsolutions.jts.awt.ShapeWriter;
 import com.vividsolutions.jts.geom.Coordinate;
 import com.vividsolutions.jts.geom.Polygon;
 
+import jsr166y.ForkJoinPool;
+import jsr166y.RecursiveTask;
 import net.sf.jasperreports.engine.JRException;
 
 import org.apache.batik.svggen.DefaultStyleHandler;
@@ -50,14 +52,21 @@ import org.mapfish.print.attribute.map.ZoomLevelSnapStrategy;
 import org.mapfish.print.attribute.map.ZoomToFeatures.ZoomType;
 import org.mapfish.print.config.Configuration;
 import org.mapfish.print.config.ConfigurationException;
+import org.mapfish.print.config.Template;
 import org.mapfish.print.http.MfClientHttpRequestFactory;
 import org.mapfish.print.map.Scale;
 import org.mapfish.print.map.geotools.AbstractFeatureSourceLayer;
 import org.mapfish.print.map.geotools.FeatureLayer;
 import org.mapfish.print.map.geotools.grid.GridLayer;
+import org.mapfish.print.metrics.ExecutionTrace;
+import org.mapfish.print.parser.HasDefaultValue;
+import org.mapfish.print.parser.ParserUtils;
 import org.mapfish.print.processor.AbstractProcessor;
 import org.mapfish.print.processor.InternalValue;
+import org.mapfish.print.processor.Processor;
+import org.mapfish.print.processor.ProcessorUtils;
 import org.mapfish.print.processor.jasper.ImagesSubReport;
+import org.mapfish.print.processor.jasper.InMemoryImageRenderer;
 import org.mapfish.print.processor.jasper.JasperReportBuilder;
 import org.opengis.referencing.operation.MathTransform;
 import org.opengis.referencing.operation.TransformException;
@@ -74,8 +83,11 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStreamWriter;
 import java.io.Writer;
+import java.lang.reflect.Field;
 import java.net.URI;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -132,10 +144,20 @@ public final class CreateMapProcessor extends AbstractProcessor<CreateMapProcess
         }
     }
 
+    private static final int DEFAULT_MAX_PARALLEL_LAYERS = 4;
+    private static final long DEFAULT_MAX_PARALLEL_LAYERS_MEMORY = 256L * 1024 * 1024;
+    private static final int BYTES_PER_PIXEL = 4;
+
     @Autowired
     FeatureLayer.Plugin featureLayerPlugin;
+    @Autowired
+    private ForkJoinPool forkJoinPool;
 
     private BufferedImageType imageType = BufferedImageType.TYPE_4BYTE_ABGR;
+    private int maxParallelLayers = DEFAULT_MAX_PARALLEL_LAYERS;
+    private long maxParallelLayersMemory = DEFAULT_MAX_PARALLEL_LAYERS_MEMORY;
+    private boolean flattenRasterLayers = false;
+    private boolean inMemoryRasters = false;
 
     /**
      * Constructor.
@@ -158,7 +180,7 @@ public final class CreateMapProcessor extends AbstractProcessor<CreateMapProcess
         }
         final MapfishMapContext mapContext = createMapContext(mapValues);
         final List<URI> graphics = createLayerGraphics(param.tempTaskDirectory, param.clientHttpRequestFactory,
-                mapValues, context, mapContext);
+                mapValues, context, mapContext, param.executionTrace);
         checkCancelState(context);
         final URI mapSubReport = createMapSubReport(param.tempTaskDirectory, mapValues.getMapSize(), graphics, mapValues.getDpi());
 
@@ -170,6 +192,45 @@ public final class CreateMapProcessor extends AbstractProcessor<CreateMapProcess
         if (this.imageType == null) {
             validationErrors.add(new ConfigurationException("No imageType defined in " + getClass().getName()));
         }
+        if (this.maxParallelLayers < 1) {
+            validationErrors.add(new ConfigurationException("maxParallelLayers must be at least 1 in " + getClass().getName()));
+        }
+        if (this.inMemoryRasters) {
+            validateLayerGraphicsNotUsed(validationErrors, configuration);
+        }
+    }
+
+    /**
+     * The files of the raster layers are not written with {@link #inMemoryRasters}, so fail if another processor of the
+     * template reads the layer graphics.
+     */
+    private void validateLayerGraphicsNotUsed(final List<Throwable> validationErrors, final Configuration configuration) {
+        final String layerGraphicsName;
+        try {
+            layerGraphicsName = ProcessorUtils.getOutputValueName(getOutputPrefix(), getOutputMapperBiMap(),
+                    Output.class.getField("layerGraphics"));
+        } catch (NoSuchFieldException e) {
+            throw ExceptionUtils.getRuntimeException(e);
+        }
+        for (Template template : configuration.getTemplates().values()) {
+            if (!template.getProcessors().contains(this)) {
+                continue;
+            }
+            for (Processor<?, ?> processor : template.getProcessors()) {
+                final Object inputParameter = processor.createInputParameter();
+                if (processor == this || inputParameter == null) {
+                    continue;
+                }
+                for (Field field : ParserUtils.getAllAttributes(inputParameter.getClass())) {
+                    final String inputName = ProcessorUtils.getInputValueName(processor.getInputPrefix(),
+                            processor.getInputMapperBiMap(), field.getName());
+                    if (inputName.equals(layerGraphicsName)) {
+                        validationErrors.add(new ConfigurationException("inMemoryRasters can not be used in " +
+                                getClass().getName() + ", the layer graphics '" + layerGraphicsName + "' are read by " + processor));
+                    }
+                }
+            }
+        }
     }
 
     private URI createMapSubReport(final File printDirectory,
@@ -189,7 +250,8 @@ public final class CreateMapProcessor extends AbstractProcessor<CreateMapProcess
                                           final MfClientHttpRequestFactory clientHttpRequestFactory,
                                           final MapAttribute.MapAttributeValues mapValues,
                                           final ExecutionContext context,
-                                          final MapfishMapContext mapContext)
+                                          final MapfishMapContext mapContext,
+                                          @Nullable final ExecutionTrace trace)
             throws Exception {
         // reverse layer list to draw from bottom to top.  normally position 0 is top-most layer.
         final List<MapLayer> layers = Lists.reverse(Lists.newArrayList(mapValues.getLayers()));
@@ -197,44 +259,193 @@ public final class CreateMapProcessor extends AbstractProcessor<CreateMapProcess
         final AreaOfInterest areaOfInterest = addAreaOfInterestLayer(mapValues, layers);
 
         final String mapKey = UUID.randomUUID().toString();
-        final List<URI> graphics = new ArrayList<URI>(layers.size());
+        // the layers are rendered in other threads, so they are given the span of this processor as parent
+        final ExecutionTrace.Span parentSpan = trace == null ? null : trace.getCurrentSpan();
+        final List<LayerRenderingTask> tasks = new ArrayList<LayerRenderingTask>(layers.size());
         int i = 0;
-        for (MapLayer layer : layers) {
-            checkCancelState(context);
-            boolean isFirstLayer = i == 0;
+        for (List<MapLayer> group : groupLayers(layers)) {
+            tasks.add(new LayerRenderingTask(group, i, new File(printDirectory, mapKey + "_layer_" + i),
+                    clientHttpRequestFactory, context, mapContext, areaOfInterest, trace, parentSpan));
+            i += group.size();
+        }
 
-            File path = null;
-            if (renderAsSvg(layer)) {
-                // render layer as SVG
-                final SVGGraphics2D graphics2D = getSvgGraphics(mapContext.getMapSize());
+        return this.forkJoinPool.invoke(new LayersRenderingTask(tasks, getMaxParallelLayers(mapContext)));
+    }
 
-                try {
-                    Graphics2D clippedGraphics2D = createClippedGraphics(mapContext, areaOfInterest, graphics2D);
-                    layer.render(clippedGraphics2D, clientHttpRequestFactory, mapContext, isFirstLayer);
+    /**
+     * Get the number of layers rendered in parallel, limited by {@link #maxParallelLayers} and by the memory needed by the
+     * images of the layers.
+     */
+    private int getMaxParallelLayers(final MapfishMapContext mapContext) {
+        final long imageSize = (long) mapContext.getMapSize().width * mapContext.getMapSize().height * BYTES_PER_PIXEL;
+        final long maxForMemory = imageSize > 0 ? this.maxParallelLayersMemory / imageSize : Long.MAX_VALUE;
+        return (int) Math.max(1, Math.min(this.maxParallelLayers, maxForMemory));
+    }
 
-                    path = new File(printDirectory, mapKey + "_layer_" + i + ".svg");
-                    saveSvgFile(graphics2D, path);
-                } finally {
-                    graphics2D.dispose();
-                }
+    /**
+     * Group the layers that are rendered to the same file.  If {@link #flattenRasterLayers} is set the adjacent raster layers
+     * are grouped, otherwise each layer is alone.
+     *
+     * @param layers the layers from bottom to top.
+     */
+    private List<List<MapLayer>> groupLayers(final List<MapLayer> layers) {
+        final List<List<MapLayer>> groups = new ArrayList<List<MapLayer>>(layers.size());
+        List<MapLayer> rasterGroup = null;
+        for (MapLayer layer : layers) {
+            if (renderAsSvg(layer) || !this.flattenRasterLayers) {
+                groups.add(Lists.newArrayList(layer));
+                rasterGroup = null;
+            } else if (rasterGroup == null) {
+                rasterGroup = Lists.newArrayList(layer);
+                groups.add(rasterGroup);
             } else {
-                // render layer as raster graphic
-                final BufferedImage bufferedImage = new BufferedImage(mapContext.getMapSize().width,
-                        mapContext.getMapSize().height, this.imageType.value);
+                rasterGroup.add(layer);
+            }
+        }
+        return groups;
+    }
+
+    private URI renderLayers(final List<MapLayer> layers,
+                             final int firstIndex,
+                             final File basePath,
+                             final MfClientHttpRequestFactory clientHttpRequestFactory,
+                             final ExecutionContext context,
+                             final MapfishMapContext mapContext,
+                             final AreaOfInterest areaOfInterest) throws Exception {
+        checkCancelState(context);
+
+        File path;
+        if (layers.size() == 1 && renderAsSvg(layers.get(0))) {
+            // render layer as SVG
+            final SVGGraphics2D graphics2D = getSvgGraphics(mapContext.getMapSize());
+
+            try {
+                Graphics2D clippedGraphics2D = createClippedGraphics(mapContext, areaOfInterest, graphics2D);
+                layers.get(0).render(clippedGraphics2D, clientHttpRequestFactory, mapContext, firstIndex == 0);
+
+                path = new File(basePath.getPath() + ".svg");
+                saveSvgFile(graphics2D, path);
+            } finally {
+                graphics2D.dispose();
+            }
+        } else {
+            // render the layers as one raster graphic, from bottom to top
+            final BufferedImage bufferedImage = new BufferedImage(mapContext.getMapSize().width,
+                    mapContext.getMapSize().height, this.imageType.value);
+            for (int i = 0; i < layers.size(); i++) {
+                checkCancelState(context);
+                // a new graphics for each layer since the layers change its transform and hints
                 Graphics2D graphics2D = createClippedGraphics(mapContext, areaOfInterest, bufferedImage.createGraphics());
                 try {
-                    layer.render(graphics2D, clientHttpRequestFactory, mapContext, isFirstLayer);
-                    path = new File(printDirectory, mapKey + "_layer_" + i + ".png");
-                    ImageIO.write(bufferedImage, "png", path);
+                    layers.get(i).render(graphics2D, clientHttpRequestFactory, mapContext, firstIndex + i == 0);
                 } finally {
                     graphics2D.dispose();
                 }
             }
-            graphics.add(path.toURI());
-            i++;
+            path = new File(basePath.getPath() + ".png");
+            if (this.inMemoryRasters) {
+                InMemoryImageRenderer.register(path.toURI(), bufferedImage);
+            } else {
+                ImageIO.write(bufferedImage, "png", path);
+            }
+        }
+        return path.toURI();
+    }
+
+    /**
+     * Render a group of layers to a file.
+     */
+    private final class LayerRenderingTask extends RecursiveTask<URI> {
+        private final List<MapLayer> layers;
+        private final int firstIndex;
+        private final File basePath;
+        private final MfClientHttpRequestFactory clientHttpRequestFactory;
+        private final ExecutionContext context;
+        private final MapfishMapContext mapContext;
+        private final AreaOfInterest areaOfInterest;
+        private final ExecutionTrace trace;
+        private final ExecutionTrace.Span parentSpan;
+
+        // CSOFF: ParameterNumber
+        private LayerRenderingTask(final List<MapLayer> layers,
+                                   final int firstIndex,
+                                   final File basePath,
+                                   final MfClientHttpRequestFactory clientHttpRequestFactory,
+                                   final ExecutionContext context,
+                                   final MapfishMapContext mapContext,
+                                   final AreaOfInterest areaOfInterest,
+                                   @Nullable final ExecutionTrace trace,
+                                   @Nullable final ExecutionTrace.Span parentSpan) {
+            // CSON: ParameterNumber
+            this.layers = layers;
+            this.firstIndex = firstIndex;
+            this.basePath = basePath;
+            this.clientHttpRequestFactory = clientHttpRequestFactory;
+            this.context = context;
+            this.mapContext = mapContext;
+            this.areaOfInterest = areaOfInterest;
+            this.trace = trace;
+            this.parentSpan = parentSpan;
+        }
+
+        @Override
+        protected URI compute() {
+            final ExecutionTrace.Span span = ExecutionTrace.start(this.trace, this.parentSpan, "layer", getName());
+            try {
+                return renderLayers(this.layers, this.firstIndex, this.basePath, this.clientHttpRequestFactory, this.context,
+                        this.mapContext, this.areaOfInterest);
+            } catch (Exception e) {
+                throw ExceptionUtils.getRuntimeException(e);
+            } finally {
+                span.end();
+            }
         }
 
-        return graphics;
+        private String getName() {
+            final StringBuilder name = new StringBuilder(this.basePath.getName());
+            for (MapLayer layer : this.layers) {
+                name.append(' ').append(layer.getClass().getSimpleName());
+            }
+            return name.toString();
+        }
+    }
+
+    /**
+     * Fork the layer rendering tasks so that up to maxParallelLayers layers are rendered at the same time.  The URIs of the
+     * rendered layers are returned in the order of the tasks.
+     */
+    private static final class LayersRenderingTask extends RecursiveTask<List<URI>> {
+        private final List<LayerRenderingTask> tasks;
+        private final int maxParallelLayers;
+
+        private LayersRenderingTask(final List<LayerRenderingTask> tasks, final int maxParallelLayers) {
+            this.tasks = tasks;
+            this.maxParallelLayers = maxParallelLayers;
+        }
+
+        @Override
+        protected List<URI> compute() {
+            final List<URI> graphics = new ArrayList<URI>(this.tasks.size());
+            final Deque<LayerRenderingTask> inFlight = new ArrayDeque<LayerRenderingTask>(this.maxParallelLayers);
+            try {
+                for (LayerRenderingTask task : this.tasks) {
+                    task.fork();
+                    inFlight.addLast(task);
+                    if (inFlight.size() >= this.maxParallelLayers) {
+                        graphics.add(inFlight.removeFirst().join());
+                    }
+                }
+                while (!inFlight.isEmpty()) {
+                    graphics.add(inFlight.removeFirst().join());
+                }
+            } catch (RuntimeException e) {
+                for (LayerRenderingTask task : inFlight) {
+                    task.cancel(true);
+                }
+                throw e;
+            }
+            return graphics;
+        }
     }
 
     private MapfishMapContext createMapContext(final MapAttribute.MapAttributeValues mapValues) {
@@ -493,6 +704,55 @@ public final class CreateMapProcessor extends AbstractProcessor<CreateMapProcess
         this.imageType = BufferedImageType.lookupValue(imageType);
     }
 
+    /**
+     * Set the maximum number of layers of the map that are rendered at the same time.
+     * <p></p>
+     * Default is 4.
+     *
+     * @param maxParallelLayers the number of layers.
+     */
+    public void setMaxParallelLayers(final int maxParallelLayers) {
+        this.maxParallelLayers = maxParallelLayers;
+    }
+
+    /**
+     * Set the maximum memory (in bytes) used by the images of the layers rendered at the same time.  For big maps it reduces
+     * the number of layers rendered in parallel, at least one layer is always rendered.
+     * <p></p>
+     * Default is 256 MB.
+     *
+     * @param maxParallelLayersMemory the memory in bytes.
+     */
+    public void setMaxParallelLayersMemory(final long maxParallelLayersMemory) {
+        this.maxParallelLayersMemory = maxParallelLayersMemory;
+    }
+
+    /**
+     * If true the adjacent layers that are not rendered as SVG are drawn in the same image, reducing the memory used, the
+     * encoding time and the size of the output.  The SVG layers are still kept separate.
+     * <p></p>
+     * Default is false.
+     *
+     * @param flattenRasterLayers true to flatten the raster layers.
+     */
+    public void setFlattenRasterLayers(final boolean flattenRasterLayers) {
+        this.flattenRasterLayers = flattenRasterLayers;
+    }
+
+    /**
+     * If true the raster layers are given to the map sub-report as in-memory images instead of being encoded to PNG files
+     * and decoded again by Jasper.  The layer graphics of the raster layers then refer to files that are not written, so the
+     * configuration is rejected if another processor reads the layerGraphics output.  It should neither be used if the
+     * Jasper template reads the layerGraphics itself.
+     * <p></p>
+     * Default is false.
+     *
+     * @param inMemoryRasters true to keep the raster layers in memory.
+     */
+    public void setInMemoryRasters(final boolean inMemoryRasters) {
+        this.inMemoryRasters = inMemoryRasters;
+    }
+
     /**
      * The Input object for processor.
      */
@@ -512,6 +772,12 @@ public final class CreateMapProcessor extends AbstractProcessor<CreateMapProcess
          * The path to the temporary directory for the print task.
          */
         public File tempTaskDirectory;
+
+        /**
+         * The execution trace of the print job.  This is added to the values by the framework when the traces are enabled.
+         */
+        @HasDefaultValue
+        public ExecutionTrace executionTrace;
     }
 
     /**
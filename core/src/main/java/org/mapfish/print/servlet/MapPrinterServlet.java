@@ -33,6 +33,8 @@ import org.mapfish.print.ExceptionUtils;
 import org.mapfish.print.MapPrinter;
 import org.mapfish.print.MapPrinterFactory;
 import org.mapfish.print.config.Template;
+import org.mapfish.print.metrics.ExecutionTrace;
+import org.mapfish.print.metrics.ExecutionTraceRegistry;
 import org.mapfish.print.servlet.job.FailedPrintJob;
 import org.mapfish.print.servlet.job.JobManager;
 import org.mapfish.print.servlet.job.JobStatus;
@@ -111,6 +113,10 @@ public class MapPrinterServlet extends BaseMapServlet {
      * The url path to get the status for a print task.
      */
     public static final String STATUS_URL = "/status";
+    /**
+     * The url path, after the status url of a print task, to get its execution trace.
+     */
+    public static final String TRACE_URL = "/trace.json";
     /**
      * The url path to cancel a print task.
      */
@@ -219,6 +225,8 @@ public class MapPrinterServlet extends BaseMapServlet {
     private long maxCreateAndGetWaitTimeInSeconds;
     @Autowired
     private MapPrinterFactory mapPrinterFactory;
+    @Autowired
+    private ExecutionTraceRegistry executionTraceRegistry;
 
 
     /**
@@ -297,6 +305,67 @@ public class MapPrinterServlet extends BaseMapServlet {
         }
     }
 
+    /**
+     * Get the execution trace of a job: the processors, layers, http requests, fill and export with their times (in ms from the
+     * start of the job) and threads.
+     *
+     * @param referenceId   the job reference
+     * @param format        "chrome" to get the trace in the Chrome trace event format (chrome://tracing).
+     * @param traceResponse the response object
+     */
+    @RequestMapping(value = "/{appId}" + STATUS_URL + "/{referenceId:\\S+}" + TRACE_URL, method = RequestMethod.GET)
+    public final void getTraceSpecificAppId(
+            @PathVariable final String referenceId,
+            @RequestParam(value = "format", defaultValue = "") final String format,
+            final HttpServletResponse traceResponse) {
+        getTrace(referenceId, format, traceResponse);
+    }
+
+    /**
+     * Get the execution trace of a job: the processors, layers, http requests, fill and export with their times (in ms from the
+     * start of the job) and threads.
+     *
+     * @param referenceId   the job reference
+     * @param format        "chrome" to get the trace in the Chrome trace event format (chrome://tracing).
+     * @param traceResponse the response object
+     */
+    @RequestMapping(value = STATUS_URL + "/{referenceId:\\S+}" + TRACE_URL, method = RequestMethod.GET)
+    public final void getTrace(
+            @PathVariable final String referenceId,
+            @RequestParam(value = "format", defaultValue = "") final String format,
+            final HttpServletResponse traceResponse) {
+        PrintWriter writer = null;
+        try {
+            // checks that the job exists and can be accessed
+            this.jobManager.getStatus(referenceId);
+            final ExecutionTrace trace = this.executionTraceRegistry.get(referenceId);
+            if (trace == null) {
+                error(traceResponse, "No execution trace for the job " + referenceId, HttpStatus.NOT_FOUND);
+                return;
+            }
+
+            setContentType(traceResponse, null);
+            writer = traceResponse.getWriter();
+            if ("chrome".equals(format)) {
+                trace.writeChromeTrace(new JSONWriter(writer));
+            } else {
+                trace.writeJson(new JSONWriter(writer));
+            }
+        } catch (JSONException e) {
+            LOGGER.error("Error obtaining trace", e);
+            throw ExceptionUtils.getRuntimeException(e);
+        } catch (IOException e) {
+            LOGGER.error("Error obtaining trace", e);
+            throw ExceptionUtils.getRuntimeException(e);
+        } catch (NoSuchReferenceException e) {
+            error(traceResponse, e.getMessage(), HttpStatus.NOT_FOUND);
+        } finally {
+            if (writer != null) {
+                writer.close();
+            }
+        }
+    }
+
     /**
      * Cancel a job.
      *
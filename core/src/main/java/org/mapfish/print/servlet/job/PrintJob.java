@@ -28,6 +28,8 @@ import org.mapfish.print.config.Configuration;
 import org.mapfish.print.config.Template;
 import org.mapfish.print.config.access.AccessAssertion;
 import org.mapfish.print.config.access.AndAccessAssertion;
+import org.mapfish.print.metrics.ExecutionTrace;
+import org.mapfish.print.metrics.ExecutionTraceRegistry;
 import org.mapfish.print.output.OutputFormat;
 import org.mapfish.print.servlet.MapPrinterServlet;
 import org.mapfish.print.servlet.NoSuchAppException;
@@ -67,6 +69,8 @@ public abstract class PrintJob implements Callable<PrintJobStatus> {
     private MetricRegistry metricRegistry;
     @Autowired
     private ApplicationContext applicationContext;
+    @Autowired
+    private ExecutionTraceRegistry executionTraceRegistry;
 
     private SecurityContext securityContext;
 
@@ -131,6 +135,8 @@ public abstract class PrintJob implements Callable<PrintJobStatus> {
         Timer.Context timer = this.metricRegistry.timer(getClass().getName() + " call()").time();
         PJsonObject spec = null;
         MapPrinter mapPrinter = null;
+        final ExecutionTrace trace = this.executionTraceRegistry.create(this.referenceId);
+        ExecutionTrace.setCurrent(trace);
         try {
             LOGGER.info("Starting print job " + this.referenceId);
             spec = PrintJob.this.requestData;
@@ -169,6 +175,8 @@ public abstract class PrintJob implements Callable<PrintJobStatus> {
             return new FailedPrintJob(this.referenceId, getAppId(), getCreateTimeAsDate(), new Date(), 0L,
                     fileName, rootCause.toString(), false, this.access);
         } finally {
+            ExecutionTrace.setCurrent(null);
+            this.executionTraceRegistry.finished(trace);
             final long stop = TimeUnit.MILLISECONDS.convert(timer.stop(), TimeUnit.NANOSECONDS);
             LOGGER.debug("Print Job " + PrintJob.this.referenceId + " completed in " + stop + "ms");
         }
@@ -251,6 +259,7 @@ public abstract class PrintJob implements Callable<PrintJobStatus> {
     final void initForTesting(final ApplicationContext context) {
         this.applicationContext = context;
         this.metricRegistry = context.getBean(MetricRegistry.class);
+        this.executionTraceRegistry = context.getBean(ExecutionTraceRegistry.class);
         this.mapPrinterFactory = new MapPrinterFactory() {
             @Override
             public MapPrinter create(final String app) throws NoSuchAppException {
@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2014  Camptocamp
+ *
+ * This file is part of MapFish Print
+ *
+ * MapFish Print is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MapFish Print is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MapFish Print.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.mapfish.print.http;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.io.ByteStreams;
+import org.junit.Test;
+import org.mapfish.print.processor.http.matcher.UriMatchers;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.client.ClientHttpRequest;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.mock.http.client.MockClientHttpRequest;
+import org.springframework.mock.http.client.MockClientHttpResponse;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class CoalescingHttpRequestFactoryTest {
+    private static final byte[] BODY = {1, 2, 3};
+
+    @Test
+    public void testCoalesce() throws Exception {
+        final AtomicInteger upstreamRequests = new AtomicInteger();
+        final CountDownLatch release = new CountDownLatch(1);
+        final MetricRegistry metricRegistry = new MetricRegistry();
+        final CoalescingHttpRequestFactory factory = new CoalescingHttpRequestFactory(new MfClientHttpRequestFactory() {
+            @Override
+            public void register(final RequestConfigurator callback) {
+            }
+
+            @Override
+            public ClientHttpRequest createRequest(final URI uri, final HttpMethod httpMethod) throws IOException {
+                return new MockClientHttpRequest(httpMethod, uri) {
+                    @Override
+                    public ClientHttpResponse execute() throws IOException {
+                        upstreamRequests.incrementAndGet();
+                        try {
+                            release.await(10, TimeUnit.SECONDS);
+                        } catch (InterruptedException e) {
+                            throw new IOException(e);
+                        }
+                        return new MockClientHttpResponse(BODY, HttpStatus.OK);
+                    }
+                };
+            }
+        }, new UriMatchers(), "", metricRegistry);
+
+        final URI uri = new URI("http://tiles.example.com/1/2/3.png");
+        final Callable<byte[]> task = new Callable<byte[]>() {
+            @Override
+            public byte[] call() throws Exception {
+                final ClientHttpResponse response = factory.createRequest(uri, HttpMethod.GET).execute();
+                try {
+                    return ByteStreams.toByteArray(response.getBody());
+                } finally {
+                    response.close();
+                }
+            }
+        };
+
+        final ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            final Future<byte[]> first = executor.submit(task);
+            while (upstreamRequests.get() == 0) {
+                Thread.sleep(10);
+            }
+            final Future<byte[]> second = executor.submit(task);
+            final String coalescedName = CoalescingHttpRequestFactory.class.getName() + ".coalesced";
+            while (metricRegistry.counter(coalescedName).getCount() == 0) {
+                Thread.sleep(10);
+            }
+            release.countDown();
+
+            assertArrayEquals(BODY, first.get(10, TimeUnit.SECONDS));
+            assertArrayEquals(BODY, second.get(10, TimeUnit.SECONDS));
+            assertEquals(1, upstreamRequests.get());
+
+            // once the first request is finished a new one is sent
+            assertArrayEquals(BODY, executor.submit(task).get(10, TimeUnit.SECONDS));
+            assertEquals(2, upstreamRequests.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,244 @@
+/*
+ * Copyright (C) 2014  Camptocamp
+ *
+ * This file is part of MapFish Print
+ *
+ * MapFish Print is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MapFish Print is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MapFish Print.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.mapfish.print.http;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.io.ByteStreams;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import jsr166y.ForkJoinPool;
+import jsr166y.RecursiveAction;
+import org.apache.http.HttpHost;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class MfClientHttpRequestFactoryImplTest {
+    private static final int TARGET_PORT = 33214;
+    private static final String PREFIX = MfClientHttpRequestFactoryImpl.class.getName() + ".pool.";
+    private static final AtomicInteger SLOW_IN_FLIGHT = new AtomicInteger();
+    private static HttpServer targetServer;
+    private static int slowMaxInFlight = 0;
+
+    private MfClientHttpRequestFactoryImpl factory;
+    private MetricRegistry metricRegistry;
+
+    @BeforeClass
+    public static void setUpServer() throws Exception {
+        targetServer = HttpServer.create(new InetSocketAddress(HttpProxyTest.LOCALHOST, TARGET_PORT), 0);
+        targetServer.createContext("/request", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange httpExchange) throws IOException {
+                final byte[] body = "ok".getBytes("UTF-8");
+                httpExchange.sendResponseHeaders(200, body.length);
+                httpExchange.getResponseBody().write(body);
+                httpExchange.close();
+            }
+        });
+        targetServer.createContext("/slow", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange httpExchange) throws IOException {
+                // chunked body, the first chunk is sent right away and the rest is slow to come
+                httpExchange.sendResponseHeaders(200, 0);
+                httpExchange.getResponseBody().write("o".getBytes("UTF-8"));
+                httpExchange.getResponseBody().flush();
+                final int current = SLOW_IN_FLIGHT.incrementAndGet();
+                synchronized (SLOW_IN_FLIGHT) {
+                    slowMaxInFlight = Math.max(slowMaxInFlight, current);
+                }
+                try {
+                    Thread.sleep(200);
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                } finally {
+                    SLOW_IN_FLIGHT.decrementAndGet();
+                }
+                httpExchange.getResponseBody().write("k".getBytes("UTF-8"));
+                httpExchange.close();
+            }
+        });
+        targetServer.setExecutor(Executors.newCachedThreadPool());
+        targetServer.start();
+    }
+
+    @AfterClass
+    public static void tearDownServer() throws Exception {
+        targetServer.stop(0);
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        this.factory = new MfClientHttpRequestFactoryImpl();
+        this.metricRegistry = new MetricRegistry();
+        ReflectionTestUtils.setField(this.factory, "metricRegistry", this.metricRegistry);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        this.factory.destroy();
+    }
+
+    @Test
+    public void testPoolConfiguration() throws Exception {
+        this.factory.setMaxConnectionsTotal(20);
+        this.factory.setMaxConnectionsPerRoute(5);
+        this.factory.setMaxConnectionsPerHost(ImmutableMap.of("tiles.example.com", 2, "wms.example.com:8080", 3));
+        this.factory.init();
+
+        final PoolingHttpClientConnectionManager connectionManager = getConnectionManager();
+        assertEquals(20, connectionManager.getMaxTotal());
+        assertEquals(5, connectionManager.getDefaultMaxPerRoute());
+        assertEquals(20, getGauge("max"));
+
+        final HttpHost tiles = new HttpHost("tiles.example.com", 80, "http");
+        final HttpHost secureTiles = new HttpHost("tiles.example.com", 443, "https");
+        final HttpHost wms = new HttpHost("wms.example.com", 8080, "http");
+        final HttpHost other = new HttpHost("other.example.com", 80, "http");
+        final HttpHost proxy = new HttpHost("proxy.example.com", 3128, "http");
+
+        assertEquals(2, getMaxPerRoute(new HttpRoute(tiles)));
+        assertEquals(2, getMaxPerRoute(new HttpRoute(secureTiles, null, true)));
+        assertEquals(3, getMaxPerRoute(new HttpRoute(wms)));
+        assertEquals(5, getMaxPerRoute(new HttpRoute(other)));
+        // the limits of the hosts apply to the routes going through a proxy as well
+        assertEquals(2, getMaxPerRoute(new HttpRoute(tiles, proxy)));
+        assertEquals(5, getMaxPerRoute(new HttpRoute(other, proxy)));
+    }
+
+    @Test
+    public void testTimeouts() throws Exception {
+        this.factory.init();
+        RequestConfig config = this.factory.createRequest(new URI("http://example.com/"), HttpMethod.GET)
+                .getUnderlyingRequest().getConfig();
+        // without configuration the requests don't have any timeout
+        assertEquals(-1, config.getConnectTimeout());
+        assertEquals(-1, config.getSocketTimeout());
+        assertEquals(-1, config.getConnectionRequestTimeout());
+
+        this.factory.setConnectTimeout(1000);
+        this.factory.setSocketTimeout(2000);
+        this.factory.setConnectionRequestTimeout(3000);
+        config = this.factory.createRequest(new URI("http://example.com/"), HttpMethod.GET)
+                .getUnderlyingRequest().getConfig();
+        assertEquals(1000, config.getConnectTimeout());
+        assertEquals(2000, config.getSocketTimeout());
+        assertEquals(3000, config.getConnectionRequestTimeout());
+    }
+
+    @Test
+    public void testMetrics() throws Exception {
+        this.factory.init();
+        final URI uri = new URI("http://" + HttpProxyTest.LOCALHOST + ":" + TARGET_PORT + "/request");
+
+        final ClientHttpResponse response = this.factory.createRequest(uri, HttpMethod.GET).execute();
+        try {
+            assertEquals("ok", new String(ByteStreams.toByteArray(response.getBody()), "UTF-8"));
+        } finally {
+            response.close();
+        }
+
+        assertEquals(1, this.metricRegistry.timer(PREFIX + "lease").getCount());
+        assertEquals(0, getGauge("leased"));
+        assertEquals(0, getGauge("pending"));
+    }
+
+    @Test
+    public void testSlowBodyDoesNotStarveForkJoinPool() throws Exception {
+        this.factory.setIoThreads(4);
+        this.factory.setMaxConnectionsPerRoute(4);
+        this.factory.init();
+        final MfClientHttpRequestFactoryImpl requestFactory = this.factory;
+        final URI uri = new URI("http://" + HttpProxyTest.LOCALHOST + ":" + TARGET_PORT + "/slow");
+
+        final List<RecursiveAction> tasks = Lists.newArrayList();
+        final List<String> bodies = Collections.synchronizedList(Lists.<String>newArrayList());
+        for (int i = 0; i < 4; i++) {
+            tasks.add(new RecursiveAction() {
+                @Override
+                protected void compute() {
+                    try {
+                        final ClientHttpResponse response = requestFactory.createRequest(uri, HttpMethod.GET).execute();
+                        try {
+                            bodies.add(new String(ByteStreams.toByteArray(response.getBody()), "UTF-8"));
+                        } finally {
+                            response.close();
+                        }
+                    } catch (IOException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            });
+        }
+
+        // with a single worker the requests can only be concurrent if the pool compensates the blocked reads
+        final ForkJoinPool pool = new ForkJoinPool(1);
+        try {
+            pool.invoke(new RecursiveAction() {
+                @Override
+                protected void compute() {
+                    invokeAll(tasks);
+                }
+            });
+        } finally {
+            pool.shutdownNow();
+        }
+
+        assertEquals(Collections.nCopies(4, "ok"), bodies);
+        assertTrue("max in flight: " + slowMaxInFlight, slowMaxInFlight > 1);
+    }
+
+    private PoolingHttpClientConnectionManager getConnectionManager() {
+        return (PoolingHttpClientConnectionManager) ReflectionTestUtils.getField(this.factory, "connectionManager");
+    }
+
+    private int getMaxPerRoute(final HttpRoute route) {
+        // the per host limits are set on the route when a connection is requested
+        getConnectionManager().requestConnection(route, null).cancel();
+        return getConnectionManager().getMaxPerRoute(route);
+    }
+
+    private int getGauge(final String name) {
+        final Gauge<?> gauge = this.metricRegistry.getGauges().get(PREFIX + name);
+        return (Integer) gauge.getValue();
+    }
+}
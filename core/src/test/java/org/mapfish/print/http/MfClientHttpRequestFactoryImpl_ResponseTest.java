@@ -19,6 +19,7 @@
 
 package org.mapfish.print.http;
 
+import com.google.common.io.ByteStreams;
 import com.sun.net.httpserver.Headers;
 import com.sun.net.httpserver.HttpExchange;
 import com.sun.net.httpserver.HttpHandler;
@@ -77,4 +78,31 @@ public class MfClientHttpRequestFactoryImpl_ResponseTest {
         final ClientHttpResponse response = request.execute();
         assertEquals("application/json; charset=utf8", response.getHeaders().getFirst("Content-Type"));
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testIoThreads() throws Exception {
+        targetServer.createContext("/io", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange httpExchange) throws IOException {
+                final byte[] body = "content".getBytes("UTF-8");
+                httpExchange.sendResponseHeaders(200, body.length);
+                httpExchange.getResponseBody().write(body);
+                httpExchange.close();
+            }
+        });
+
+        MfClientHttpRequestFactoryImpl factory = new MfClientHttpRequestFactoryImpl();
+        factory.setIoThreads(2);
+        factory.init();
+        try {
+            final ConfigurableRequest request = factory.createRequest(
+                    new URI("http://" + HttpProxyTest.LOCALHOST + ":" + TARGET_PORT + "/io"), HttpMethod.GET);
+
+            final ClientHttpResponse response = request.execute();
+            assertEquals(200, response.getRawStatusCode());
+            assertEquals("content", new String(ByteStreams.toByteArray(response.getBody()), "UTF-8"));
+        } finally {
+            factory.destroy();
+        }
+    }
+}
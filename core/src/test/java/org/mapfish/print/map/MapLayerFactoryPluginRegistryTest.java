@@ -0,0 +1,42 @@
+/*
+ * Copyright (C) 2014  Camptocamp
+ *
+ * This file is part of MapFish Print
+ *
+ * MapFish Print is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MapFish Print is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MapFish Print.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.mapfish.print.map;
+
+import org.junit.Test;
+import org.mapfish.print.AbstractMapfishSpringTest;
+import org.mapfish.print.map.geotools.GeoJsonLayer;
+import org.mapfish.print.map.image.wms.WmsLayerFactoryPlugin;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class MapLayerFactoryPluginRegistryTest extends AbstractMapfishSpringTest {
+    @Autowired
+    private MapLayerFactoryPluginRegistry registry;
+
+    @Test
+    public void testGet() throws Exception {
+        assertTrue(this.registry.get("wms") instanceof WmsLayerFactoryPlugin);
+        assertTrue(this.registry.get("GeoJSON") instanceof GeoJsonLayer.Plugin);
+        assertNull(this.registry.get("unknown"));
+        assertTrue(this.registry.getTypeNames().contains("osm"));
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright (C) 2014  Camptocamp
+ *
+ * This file is part of MapFish Print
+ *
+ * MapFish Print is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MapFish Print is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MapFish Print.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.mapfish.print.map.geotools;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.geom.Point;
+import org.geotools.data.FeatureSource;
+import org.geotools.data.collection.CollectionFeatureSource;
+import org.geotools.data.collection.ListFeatureCollection;
+import org.geotools.data.collection.SpatialIndexFeatureSource;
+import org.geotools.factory.CommonFactoryFinder;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
+import org.geotools.map.Layer;
+import org.geotools.styling.Style;
+import org.geotools.styling.StyleBuilder;
+import org.junit.Test;
+import org.mapfish.print.Constants;
+import org.mapfish.print.attribute.map.BBoxMapBounds;
+import org.mapfish.print.attribute.map.MapfishMapContext;
+import org.mapfish.print.http.MfClientHttpRequestFactory;
+import org.mapfish.print.map.AbstractLayerParams;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.filter.FilterFactory2;
+
+import java.awt.Dimension;
+import java.util.List;
+import javax.annotation.Nonnull;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class FeatureLayerTest {
+    private static final int GRID_SIZE = 20;
+
+    @Test
+    public void testSpatialIndex() throws Exception {
+        final CollectionFeatureSource source = new CollectionFeatureSource(createPointGrid());
+        final MapfishMapContext mapContext = new MapfishMapContext(new BBoxMapBounds(null, 0, 0, 10, 10), new Dimension(20, 20), 0,
+                Constants.PDF_DPI, Constants.PDF_DPI, null, true);
+
+        final FeatureLayer layer = createLayer(source);
+        final List<? extends Layer> layers = layer.getLayers(null, mapContext, true);
+        final FeatureSource<?, ?> indexedSource = layers.get(0).getFeatureSource();
+        assertTrue(indexedSource instanceof SpatialIndexFeatureSource);
+
+        final FilterFactory2 filterFactory = CommonFactoryFinder.getFilterFactory2();
+        assertEquals(GRID_SIZE * GRID_SIZE, indexedSource.getFeatures().size());
+        assertEquals(4, indexedSource.getFeatures(filterFactory.bbox("geometry", -0.5, -0.5, 1.5, 1.5, null)).size());
+
+        // the layers of the other pages share the index
+        assertSame(indexedSource, createLayer(source).getLayers(null, mapContext, true).get(0).getFeatureSource());
+    }
+
+    @Test
+    public void testGeneralization() throws Exception {
+        final SimpleFeatureTypeBuilder typeBuilder = new SimpleFeatureTypeBuilder();
+        typeBuilder.setName("lines");
+        typeBuilder.add("geometry", LineString.class);
+        final SimpleFeatureType type = typeBuilder.buildFeatureType();
+
+        // a line zigzagging much less than a pixel
+        final Coordinate[] coordinates = new Coordinate[1001];
+        for (int i = 0; i < coordinates.length; i++) {
+            coordinates[i] = new Coordinate(i / 100.0, 5 + (i % 2) * 0.01);
+        }
+        final SimpleFeatureBuilder builder = new SimpleFeatureBuilder(type);
+        builder.set("geometry", new GeometryFactory().createLineString(coordinates));
+        final ListFeatureCollection features = new ListFeatureCollection(type);
+        features.add(builder.buildFeature(null));
+        final CollectionFeatureSource source = new CollectionFeatureSource(features);
+
+        // 0.5 unit per pixel
+        final MapfishMapContext mapContext = new MapfishMapContext(new BBoxMapBounds(null, 0, 0, 10, 10), new Dimension(20, 20), 0,
+                Constants.PDF_DPI, Constants.PDF_DPI, null, true);
+
+        final GeoJsonLayer.GeoJsonParam params = new GeoJsonLayer.GeoJsonParam();
+        assertSame(source, createLayer(source, params).getLayers(null, mapContext, true).get(0).getFeatureSource());
+
+        params.generalization = 1.0;
+        final FeatureSource<?, ?> generalized = createLayer(source, params).getLayers(null, mapContext, true).get(0)
+                .getFeatureSource();
+        final SimpleFeature feature = (SimpleFeature) generalized.getFeatures().features().next();
+        assertEquals(2, ((Geometry) feature.getDefaultGeometry()).getNumPoints());
+        assertEquals(1001, ((Geometry) features.features().next().getDefaultGeometry()).getNumPoints());
+    }
+
+    private FeatureLayer createLayer(final CollectionFeatureSource source) {
+        return (FeatureLayer) createLayer(source, new FeatureLayer.FeatureLayerParam());
+    }
+
+    private AbstractFeatureSourceLayer createLayer(final CollectionFeatureSource source, final AbstractLayerParams params) {
+        final Style style = new StyleBuilder().createStyle(new StyleBuilder().createPointSymbolizer());
+        final FeatureSourceSupplier featureSourceSupplier = new FeatureSourceSupplier() {
+            @Nonnull
+            @Override
+            public FeatureSource load(@Nonnull final MfClientHttpRequestFactory requestFactory,
+                                      @Nonnull final MapfishMapContext mapContext) {
+                return source;
+            }
+        };
+        final StyleSupplier<FeatureSource> styleSupplier = new StyleSupplier<FeatureSource>() {
+            @Override
+            public Style load(final MfClientHttpRequestFactory requestFactory, final FeatureSource featureSource,
+                              final MapfishMapContext mapContext) {
+                return style;
+            }
+        };
+        if (params instanceof GeoJsonLayer.GeoJsonParam) {
+            return new GeoJsonLayer(null, featureSourceSupplier, styleSupplier, false, params);
+        }
+        return new FeatureLayer(null, featureSourceSupplier, styleSupplier, false, params);
+    }
+
+    private ListFeatureCollection createPointGrid() {
+        final SimpleFeatureTypeBuilder typeBuilder = new SimpleFeatureTypeBuilder();
+        typeBuilder.setName("points");
+        typeBuilder.add("geometry", Point.class);
+        final SimpleFeatureType type = typeBuilder.buildFeatureType();
+
+        final GeometryFactory geometryFactory = new GeometryFactory();
+        final SimpleFeatureBuilder builder = new SimpleFeatureBuilder(type);
+        final ListFeatureCollection features = new ListFeatureCollection(type);
+        for (int x = 0; x < GRID_SIZE; x++) {
+            for (int y = 0; y < GRID_SIZE; y++) {
+                builder.set("geometry", geometryFactory.createPoint(new Coordinate(x, y)));
+                features.add(builder.buildFeature(null));
+            }
+        }
+        return features;
+    }
+}
@@ -22,6 +22,7 @@ package org.mapfish.print.map.geotools;
 import com.google.common.base.Predicate;
 import com.google.common.collect.Iterables;
 import com.google.common.io.Files;
+import com.vividsolutions.jts.geom.Polygon;
 import org.geotools.data.simple.SimpleFeatureCollection;
 import org.geotools.referencing.CRS;
 import org.geotools.referencing.crs.DefaultEngineeringCRS;
@@ -29,11 +30,14 @@ import org.json.JSONObject;
 import org.junit.Test;
 import org.mapfish.print.AbstractMapfishSpringTest;
 import org.mapfish.print.Constants;
+import org.mapfish.print.PrintException;
 import org.mapfish.print.TestHttpClientFactory;
 import org.mapfish.print.config.Configuration;
 import org.mapfish.print.config.ConfigurationFactory;
 import org.mapfish.print.http.ConfigFileResolvingHttpRequestFactory;
 import org.mapfish.print.http.MfClientHttpRequestFactory;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
 import org.opengis.referencing.crs.CoordinateReferenceSystem;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpMethod;
@@ -51,6 +55,9 @@ import javax.annotation.Nullable;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 public class FeaturesParserTest extends AbstractMapfishSpringTest {
 
@@ -213,6 +220,48 @@ public class FeaturesParserTest extends AbstractMapfishSpringTest {
         assertEquals(0, simpleFeatureCollection.size());
     }
 
+    @Test
+    public void testTreatStringAsGeoJsonFeatureType() throws Exception {
+        Configuration configuration = configurationFactory.getConfig(getFile("geojson/config.yaml"));
+        MfClientHttpRequestFactory configRequestFactory = new ConfigFileResolvingHttpRequestFactory(requestFactory, configuration);
+        FeaturesParser featuresParser = new FeaturesParser( configRequestFactory, false);
+
+        final String geojson = Files.toString(getFile(EXAMPLE_GEOJSONFILE), Constants.DEFAULT_CHARSET);
+        final SimpleFeatureCollection features = featuresParser.treatStringAsGeoJson(geojson);
+        final SimpleFeatureType featureType = features.getSchema();
+
+        // the attributes of all the features and the geometry
+        assertEquals(8 + 10 + 1, featureType.getAttributeCount());
+        assertEquals(Polygon.class, featureType.getGeometryDescriptor().getType().getBinding());
+        final SimpleFeature first = (SimpleFeature) features.toArray()[0];
+        assertEquals("Allschwil", first.getAttribute("gemeinde"));
+        assertNull(first.getAttribute("typ"));
+    }
+
+    @Test
+    public void testTreatStringAsGeoJsonInvalid() throws Exception {
+        Configuration configuration = configurationFactory.getConfig(getFile("geojson/config.yaml"));
+        MfClientHttpRequestFactory configRequestFactory = new ConfigFileResolvingHttpRequestFactory(requestFactory, configuration);
+        FeaturesParser featuresParser = new FeaturesParser( configRequestFactory, false);
+
+        final String[] invalidGeojsons = {
+                "{\"type\": \"Feature\", \"properties\": [1, 2], \"geometry\": null}",
+                "{\"type\": \"Feature\", \"properties\": {}, \"geometry\": {\"type\": \"Polygon\", \"coordinates\": []}}",
+                "{\"type\": \"Feature\", \"properties\": {}, \"geometry\": {\"type\": \"Polygon\", " +
+                "\"coordinates\": [[[0, 0], [1, 1]]]}}",
+                "{\"type\": \"Feature\", \"properties\": {}, \"geometry\": {\"type\": \"Point\", \"coordinates\": [\"a\", 1]}}",
+                "{\"type\": \"Feature\", \"properties\": {}, \"geometry\": {\"type\": \"Circle\", \"coordinates\": [0, 0]}}"
+        };
+        for (String geojson : invalidGeojsons) {
+            try {
+                featuresParser.treatStringAsGeoJson(geojson);
+                fail("Expected an invalid geoJSON error for " + geojson);
+            } catch (PrintException e) {
+                assertTrue(e.getMessage(), e.getMessage().startsWith("Invalid geoJSON"));
+            }
+        }
+    }
+
     private int getNumExpectedFeatures(File geojsonExample) {
         final Pattern numExpectedFilesPattern = Pattern.compile(".*-(\\d+)\\.json");
 
@@ -0,0 +1,76 @@
+/*
+ * Copyright (C) 2014  Camptocamp
+ *
+ * This file is part of MapFish Print
+ *
+ * MapFish Print is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MapFish Print is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MapFish Print.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.mapfish.print.map.geotools;
+
+import org.geotools.data.FeatureSource;
+import org.geotools.data.collection.CollectionFeatureSource;
+import org.geotools.data.collection.ListFeatureCollection;
+import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
+import org.junit.Test;
+import org.mapfish.print.Constants;
+import org.mapfish.print.attribute.map.BBoxMapBounds;
+import org.mapfish.print.attribute.map.MapfishMapContext;
+import org.mapfish.print.http.MfClientHttpRequestFactory;
+import org.mapfish.print.http.MfClientHttpRequestFactoryImpl;
+import org.opengis.feature.simple.SimpleFeatureType;
+
+import java.awt.Dimension;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.annotation.Nonnull;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+public class MemoizedFeatureSourceSupplierTest {
+
+    @Test
+    public void testLoadOncePerJob() throws Exception {
+        final AtomicInteger loads = new AtomicInteger();
+        final FeatureSourceSupplier supplier = new FeatureSourceSupplier() {
+            @Nonnull
+            @Override
+            public FeatureSource load(@Nonnull final MfClientHttpRequestFactory requestFactory,
+                                      @Nonnull final MapfishMapContext mapContext) {
+                loads.incrementAndGet();
+                SimpleFeatureTypeBuilder typeBuilder = new SimpleFeatureTypeBuilder();
+                typeBuilder.setName("test");
+                final SimpleFeatureType type = typeBuilder.buildFeatureType();
+                return new CollectionFeatureSource(new ListFeatureCollection(type));
+            }
+        };
+        final MapfishMapContext mapContext = new MapfishMapContext(new BBoxMapBounds(null, 0, 0, 10, 10), new Dimension(20, 20), 0,
+                Constants.PDF_DPI, Constants.PDF_DPI, null, true);
+
+        final MfClientHttpRequestFactory job1 = new MfClientHttpRequestFactoryImpl();
+        final MfClientHttpRequestFactory job2 = new MfClientHttpRequestFactoryImpl();
+
+        // the layers of each map create their own supplier
+        final FeatureSource source = new MemoizedFeatureSourceSupplier("http://example.com/data", supplier).load(job1, mapContext);
+        assertSame(source, new MemoizedFeatureSourceSupplier("http://example.com/data", supplier).load(job1, mapContext));
+        assertEquals(1, loads.get());
+
+        new MemoizedFeatureSourceSupplier("http://example.com/other", supplier).load(job1, mapContext);
+        assertEquals(2, loads.get());
+
+        assertNotSame(source, new MemoizedFeatureSourceSupplier("http://example.com/data", supplier).load(job2, mapContext));
+        assertEquals(3, loads.get());
+    }
+}
@@ -0,0 +1,191 @@
+/*
+ * Copyright (C) 2014  Camptocamp
+ *
+ * This file is part of MapFish Print
+ *
+ * MapFish Print is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MapFish Print is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MapFish Print.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.mapfish.print.map.geotools;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.collect.Lists;
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.LineString;
+import org.geotools.data.collection.ListFeatureCollection;
+import org.geotools.data.simple.SimpleFeatureCollection;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
+import org.junit.Before;
+import org.junit.Test;
+import org.mapfish.print.http.MfClientHttpRequestFactory;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.client.ClientHttpRequest;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.mock.http.client.MockClientHttpRequest;
+import org.springframework.mock.http.client.MockClientHttpResponse;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class RemoteFeaturesCacheTest {
+    private static final String ETAG = "\"v1\"";
+    private static final byte[] BODY = {1, 2, 3};
+
+    private final MetricRegistry metricRegistry = new MetricRegistry();
+    private final List<HttpHeaders> requestHeaders = Lists.newArrayList();
+    private final AtomicInteger reads = new AtomicInteger();
+    private RemoteFeaturesCache cache;
+    private String currentETag = ETAG;
+
+    @Before
+    public void setUp() throws Exception {
+        this.cache = new RemoteFeaturesCache();
+        ReflectionTestUtils.setField(this.cache, "metricRegistry", this.metricRegistry);
+        this.cache.init();
+    }
+
+    @Test
+    public void testRevalidate() throws Exception {
+        final URI uri = new URI("http://example.com/zones.json");
+        final SimpleFeatureCollection first = this.cache.get(null, createRequestFactory(), uri, "geojson", createReader());
+        assertEquals(1, this.reads.get());
+
+        // not modified: the parsed features are shared
+        assertSame(first, this.cache.get(null, createRequestFactory(), uri, "geojson", createReader()));
+        assertEquals(1, this.reads.get());
+        assertEquals(ETAG, this.requestHeaders.get(1).getIfNoneMatch().get(0));
+        assertEquals(1, this.metricRegistry.counter(RemoteFeaturesCache.class.getName() + ".hits").getCount());
+
+        // parsed differently
+        assertNotSame(first, this.cache.get(null, createRequestFactory(), uri, "gml", createReader()));
+        assertEquals(2, this.reads.get());
+
+        // modified
+        this.currentETag = "\"v2\"";
+        final SimpleFeatureCollection modified = this.cache.get(null, createRequestFactory(), uri, "geojson", createReader());
+        assertNotSame(first, modified);
+        assertEquals(3, this.reads.get());
+        assertSame(modified, this.cache.get(null, createRequestFactory(), uri, "geojson", createReader()));
+        assertEquals(3, this.reads.get());
+    }
+
+    @Test
+    public void testNoValidator() throws Exception {
+        this.currentETag = null;
+        final URI uri = new URI("http://example.com/zones.json");
+        this.cache.get(null, createRequestFactory(), uri, "geojson", createReader());
+        this.cache.get(null, createRequestFactory(), uri, "geojson", createReader());
+        assertEquals(2, this.reads.get());
+    }
+
+    @Test
+    public void testEstimatedSize() throws Exception {
+        final long tenFeatures = RemoteFeaturesCache.estimateSize(createFeatures(10, 5));
+        // the parsed features are much bigger than the downloaded document
+        assertTrue(tenFeatures > 10 * 5 * 2 * 8);
+        assertEquals(2 * tenFeatures, RemoteFeaturesCache.estimateSize(createFeatures(20, 5)));
+        assertTrue(RemoteFeaturesCache.estimateSize(createFeatures(10, 50)) > 4 * tenFeatures);
+        assertEquals(0, RemoteFeaturesCache.estimateSize(createFeatures(0, 5)));
+    }
+
+    @Test
+    public void testMaxMemorySize() throws Exception {
+        this.cache.setMaxMemorySize(RemoteFeaturesCache.estimateSize(createFeatures(100, 10)) - 1);
+        this.cache.init();
+        final URI uri = new URI("http://example.com/zones.json");
+        final RemoteFeaturesCache.FeaturesReader reader = createReader(100, 10);
+
+        // the document is small but its features are too big to be kept
+        this.cache.get(null, createRequestFactory(), uri, "geojson", reader);
+        this.cache.get(null, createRequestFactory(), uri, "geojson", reader);
+        assertEquals(2, this.reads.get());
+        assertEquals(2, this.metricRegistry.counter(RemoteFeaturesCache.class.getName() + ".evictions").getCount());
+    }
+
+    private RemoteFeaturesCache.FeaturesReader createReader() {
+        return createReader(0, 0);
+    }
+
+    private RemoteFeaturesCache.FeaturesReader createReader(final int numFeatures, final int numPoints) {
+        return new RemoteFeaturesCache.FeaturesReader() {
+            @Override
+            public SimpleFeatureCollection read(final InputStream input) throws IOException {
+                RemoteFeaturesCacheTest.this.reads.incrementAndGet();
+                return createFeatures(numFeatures, numPoints);
+            }
+        };
+    }
+
+    private static SimpleFeatureCollection createFeatures(final int numFeatures, final int numPoints) {
+        SimpleFeatureTypeBuilder typeBuilder = new SimpleFeatureTypeBuilder();
+        typeBuilder.setName("test");
+        typeBuilder.add("name", String.class);
+        typeBuilder.add("geom", LineString.class);
+        final SimpleFeatureType featureType = typeBuilder.buildFeatureType();
+        final GeometryFactory geometryFactory = new GeometryFactory();
+        final ListFeatureCollection features = new ListFeatureCollection(featureType);
+        for (int i = 0; i < numFeatures; i++) {
+            final Coordinate[] coordinates = new Coordinate[numPoints];
+            for (int j = 0; j < numPoints; j++) {
+                coordinates[j] = new Coordinate(i, j);
+            }
+            features.add(SimpleFeatureBuilder.build(featureType,
+                    new Object[]{"feature", geometryFactory.createLineString(coordinates)}, null));
+        }
+        return features;
+    }
+
+    private MfClientHttpRequestFactory createRequestFactory() {
+        return new MfClientHttpRequestFactory() {
+            @Override
+            public void register(final RequestConfigurator callback) {
+            }
+
+            @Override
+            public ClientHttpRequest createRequest(final URI uri, final HttpMethod httpMethod) throws IOException {
+                return new MockClientHttpRequest(httpMethod, uri) {
+                    @Override
+                    public ClientHttpResponse execute() throws IOException {
+                        final String eTag = RemoteFeaturesCacheTest.this.currentETag;
+                        RemoteFeaturesCacheTest.this.requestHeaders.add(getHeaders());
+                        final MockClientHttpResponse response;
+                        if (eTag != null && getHeaders().getIfNoneMatch().contains(eTag)) {
+                            response = new MockClientHttpResponse(new byte[0], HttpStatus.NOT_MODIFIED);
+                        } else {
+                            response = new MockClientHttpResponse(BODY, HttpStatus.OK);
+                        }
+                        if (eTag != null) {
+                            response.getHeaders().setETag(eTag);
+                        }
+                        return response;
+                    }
+                };
+            }
+        };
+    }
+}
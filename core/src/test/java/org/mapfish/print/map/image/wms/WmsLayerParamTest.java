@@ -0,0 +1,68 @@
+package org.mapfish.print.map.image.wms;
+
+import org.json.JSONObject;
+import org.junit.Test;
+import org.mapfish.print.wrapper.json.PJsonObject;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class WmsLayerParamTest {
+
+    @Test
+    public void testMerge() throws Exception {
+        WmsLayerParam top = createParams("top", "layer3");
+        top.styles = new String[] {"style3"};
+        WmsLayerParam below = createParams("below", "layer1", "layer2");
+
+        assertTrue(top.canMerge(below));
+        final WmsLayerParam merged = top.mergeAbove(below);
+        assertArrayEquals(new String[] {"layer1", "layer2", "layer3"}, merged.layers);
+        assertArrayEquals(new String[] {"", "", "style3"}, merged.styles);
+        assertEquals("below,top", merged.name);
+        assertEquals(top.baseURL, merged.baseURL);
+        assertEquals(top.getCustomParams(), merged.getCustomParams());
+    }
+
+    @Test
+    public void testMergeWithoutStyles() throws Exception {
+        final WmsLayerParam merged = createParams("top", "layer2").mergeAbove(createParams("below", "layer1"));
+        assertArrayEquals(new String[] {"layer1", "layer2"}, merged.layers);
+        assertNull(merged.styles);
+    }
+
+    @Test
+    public void testCannotMerge() throws Exception {
+        WmsLayerParam top = createParams("top", "layer2");
+
+        WmsLayerParam other = createParams("other", "layer1");
+        other.baseURL = "http://other.xyz/geoserver/wms";
+        assertFalse(top.canMerge(other));
+
+        other = createParams("other", "layer1");
+        other.opacity = 0.5;
+        assertFalse(top.canMerge(other));
+
+        other = createParams("other", "layer1");
+        other.imageFormat = "image/jpeg";
+        assertFalse(top.canMerge(other));
+
+        other = createParams("other", "layer1");
+        other.customParams = new PJsonObject(new JSONObject("{\"TIME\":\"2014\"}"), "customParams");
+        assertFalse(top.canMerge(other));
+    }
+
+    private WmsLayerParam createParams(String name, String... layers) throws Exception {
+        WmsLayerParam params = new WmsLayerParam();
+        params.name = name;
+        params.baseURL = "http://test.xyz/geoserver/wms";
+        params.layers = layers;
+        params.imageFormat = "image/png";
+        params.version = "1.1.1";
+        params.customParams = new PJsonObject(new JSONObject("{\"map_resolution\":254}"), "customParams");
+        return params;
+    }
+}
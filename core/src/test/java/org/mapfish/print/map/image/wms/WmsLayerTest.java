@@ -0,0 +1,83 @@
+package org.mapfish.print.map.image.wms;
+
+import com.google.common.base.Predicates;
+import com.google.common.collect.Multimap;
+import org.geotools.referencing.CRS;
+import org.junit.Test;
+import org.mapfish.print.TestHttpClientFactory;
+import org.mapfish.print.URIUtils;
+import org.mapfish.print.attribute.map.CenterScaleMapBounds;
+import org.mapfish.print.attribute.map.MapfishMapContext;
+import org.mapfish.print.map.Scale;
+import org.springframework.http.HttpMethod;
+import org.springframework.mock.http.client.MockClientHttpRequest;
+
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.net.URI;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.imageio.ImageIO;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class WmsLayerTest {
+
+    @Test
+    public void testLoadMetaTiles() throws Throwable {
+        final AtomicInteger requests = new AtomicInteger();
+        TestHttpClientFactory requestFactory = new TestHttpClientFactory();
+        requestFactory.registerHandler(Predicates.<URI>alwaysTrue(), new TestHttpClientFactory.Handler() {
+            @Override
+            public MockClientHttpRequest handleRequest(URI uri, HttpMethod httpMethod) throws Exception {
+                requests.incrementAndGet();
+                final Multimap<String, String> params = URIUtils.getParameters(uri);
+                final int width = Integer.parseInt(params.get("WIDTH").iterator().next());
+                final int height = Integer.parseInt(params.get("HEIGHT").iterator().next());
+                assertTrue(width <= 300 && height <= 300);
+                return ok(uri, createImage(width, height), httpMethod);
+            }
+        });
+
+        WmsLayerParam params = new WmsLayerParam();
+        params.baseURL = "http://test.xyz/geoserver/wms";
+        params.layers = new String[] {"layer1"};
+        params.metaTileSize = 300;
+        params.metaTileGutter = 10;
+
+        final ExecutorService executorService = Executors.newFixedThreadPool(4);
+        try {
+            WmsLayer layer = new WmsLayer(executorService, null, params);
+            MapfishMapContext mapContext = new MapfishMapContext(new CenterScaleMapBounds(CRS.decode("EPSG:3857"),
+                    -8235878.4938425, 4979784.7605681, new Scale(26000)), new Dimension(780, 330), 0, 72, 72, true, false);
+            final BufferedImage image = layer.loadImage(requestFactory, mapContext, true);
+
+            // 3 columns and 2 rows of meta tiles of 280 pixels (300 minus the gutters)
+            assertEquals(6, requests.get());
+            assertEquals(780, image.getWidth());
+            assertEquals(330, image.getHeight());
+            assertEquals(Color.RED.getRGB(), image.getRGB(779, 329));
+            assertEquals(Color.RED.getRGB(), image.getRGB(280, 280));
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+
+    private static byte[] createImage(int width, int height) throws Exception {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D graphics = image.createGraphics();
+        graphics.setColor(Color.BLUE);
+        graphics.fillRect(0, 0, width, height);
+        graphics.setColor(Color.RED);
+        graphics.fillRect(10, 10, width - 20, height - 20);
+        graphics.dispose();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", out);
+        return out.toByteArray();
+    }
+}
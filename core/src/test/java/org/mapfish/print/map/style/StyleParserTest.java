@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2014  Camptocamp
+ *
+ * This file is part of MapFish Print
+ *
+ * MapFish Print is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MapFish Print is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MapFish Print.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.mapfish.print.map.style;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Predicate;
+import com.google.common.io.Files;
+import org.geotools.styling.Style;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mapfish.print.AbstractMapfishSpringTest;
+import org.mapfish.print.Constants;
+import org.mapfish.print.TestHttpClientFactory;
+import org.mapfish.print.attribute.map.BBoxMapBounds;
+import org.mapfish.print.attribute.map.MapfishMapContext;
+import org.mapfish.print.config.Configuration;
+import org.mapfish.print.http.ConfigFileResolvingHttpRequestFactory;
+import org.mapfish.print.servlet.fileloader.ConfigFileLoaderManager;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.client.ClientHttpRequest;
+import org.springframework.http.client.ClientHttpRequestFactory;
+import org.springframework.mock.http.client.MockClientHttpRequest;
+import org.springframework.test.annotation.DirtiesContext;
+
+import java.awt.Dimension;
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+
+public class StyleParserTest extends AbstractMapfishSpringTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Autowired
+    private StyleParser parser;
+    @Autowired
+    private TestHttpClientFactory clientHttpRequestFactory;
+    @Autowired
+    private ConfigFileLoaderManager fileLoaderManager;
+    private MapfishMapContext mapContext = new MapfishMapContext(new BBoxMapBounds(null, 0, 0, 10, 10), new Dimension(20, 20), 0,
+            72, Constants.PDF_DPI, null, true);
+
+    @Test
+    public void testCachedCopies() throws Exception {
+        final File styleFile = this.folder.newFile("style.sld");
+        Files.copy(getFile(StyleParserTest.class, "singleStyle.sld"), styleFile);
+        final Configuration config = new Configuration();
+        config.setConfigurationFile(new File(this.folder.getRoot(), "config.yaml"));
+        config.setFileLoaderManager(this.fileLoaderManager);
+        final ConfigFileResolvingHttpRequestFactory requestFactory = new ConfigFileResolvingHttpRequestFactory(
+                this.clientHttpRequestFactory, config);
+
+        final Optional<? extends Style> first = this.parser.loadStyle(config, requestFactory, "style.sld", this.mapContext);
+        assertTrue(first.isPresent());
+        first.get().featureTypeStyles().clear();
+
+        // the style is not read again and the change done to the first copy is not visible
+        assertTrue(styleFile.delete());
+        final Optional<? extends Style> second = this.parser.loadStyle(config, requestFactory, "style.sld", this.mapContext);
+        assertTrue(second.isPresent());
+        assertNotSame(first.get(), second.get());
+        assertEquals(1, second.get().featureTypeStyles().size());
+
+        // a new configuration (the config file has changed) parses the styles again
+        final Configuration newConfig = new Configuration();
+        newConfig.setConfigurationFile(new File(this.folder.getRoot(), "config.yaml"));
+        newConfig.setFileLoaderManager(this.fileLoaderManager);
+        assertFalse(this.parser.loadStyle(newConfig, new ConfigFileResolvingHttpRequestFactory(this.clientHttpRequestFactory,
+                newConfig), "style.sld", this.mapContext).isPresent());
+    }
+
+    @Test
+    @DirtiesContext
+    public void testUrlStylesNotCached() throws Exception {
+        final AtomicInteger requests = new AtomicInteger();
+        this.clientHttpRequestFactory.registerHandler(new Predicate<URI>() {
+            @Override
+            public boolean apply(URI input) {
+                return "styleparsertest.com".equalsIgnoreCase(input.getHost());
+            }
+        }, new TestHttpClientFactory.Handler() {
+            @Override
+            public MockClientHttpRequest handleRequest(URI uri, HttpMethod httpMethod) throws Exception {
+                requests.incrementAndGet();
+                return ok(uri, Files.toByteArray(getFile(StyleParserTest.class, "singleStyle.sld")), httpMethod);
+            }
+        });
+        final Configuration config = new Configuration();
+        config.setConfigurationFile(new File(this.folder.getRoot(), "config.yaml"));
+        config.setFileLoaderManager(this.fileLoaderManager);
+        final ConfigFileResolvingHttpRequestFactory requestFactory = new ConfigFileResolvingHttpRequestFactory(
+                this.clientHttpRequestFactory, config);
+        final String styleUrl = "http://styleparsertest.com/style.sld";
+
+        assertTrue(this.parser.loadStyle(config, requestFactory, styleUrl, this.mapContext).isPresent());
+        assertTrue(this.parser.loadStyle(config, requestFactory, styleUrl, this.mapContext).isPresent());
+        assertEquals(2, requests.get());
+
+        // a template restricting the uris (or another user) doesn't get the style loaded before
+        final ClientHttpRequestFactory restrictedFactory = new ClientHttpRequestFactory() {
+            @Override
+            public ClientHttpRequest createRequest(URI uri, HttpMethod httpMethod) throws IOException {
+                throw new IOException("Forbidden uri: " + uri);
+            }
+        };
+        assertFalse(this.parser.loadStyle(config, restrictedFactory, styleUrl, this.mapContext).isPresent());
+        assertEquals(2, requests.get());
+    }
+}
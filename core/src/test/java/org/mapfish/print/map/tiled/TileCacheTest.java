@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2014  Camptocamp
+ *
+ * This file is part of MapFish Print
+ *
+ * MapFish Print is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MapFish Print is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MapFish Print.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.mapfish.print.map.tiled;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.io.Files;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mapfish.print.config.Configuration;
+import org.mapfish.print.config.WorkingDirectories;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.mock.http.client.MockClientHttpRequest;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.File;
+import java.net.URI;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+public class TileCacheTest {
+    private static final byte[] DATA = {1, 2, 3, 4};
+
+    private File workingDir;
+    private MetricRegistry metricRegistry;
+
+    @Before
+    public void setUp() throws Exception {
+        this.workingDir = Files.createTempDir();
+        this.metricRegistry = new MetricRegistry();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        new WorkingDirectories().removeDirectory(this.workingDir);
+    }
+
+    @Test
+    public void testCreateKey() throws Exception {
+        final String key1 = TileCache.createKey(null, request("http://Tiles.example.com/wms?LAYERS=a&BBOX=1,2,3,4"));
+        final String key2 = TileCache.createKey(null, request("http://tiles.example.com/wms?BBOX=1,2,3,4&LAYERS=a"));
+        assertEquals(key1, key2);
+
+        final MockClientHttpRequest authRequest = request("http://tiles.example.com/wms?BBOX=1,2,3,4&LAYERS=a");
+        authRequest.getHeaders().add("Authorization", "Basic dXNlcjpwYXNz");
+        assertFalse(key1.equals(TileCache.createKey(null, authRequest)));
+    }
+
+    @Test
+    public void testNotSharedBetweenConfigurations() throws Exception {
+        // the configurations can have different credentials
+        final Configuration configuration1 = new Configuration();
+        configuration1.setConfigurationFile(new File(this.workingDir, "app1/config.yaml"));
+        final Configuration configuration2 = new Configuration();
+        configuration2.setConfigurationFile(new File(this.workingDir, "app2/config.yaml"));
+        final MockClientHttpRequest request = request("http://tiles.example.com/osm/1/2/3.png");
+
+        final TileCache cache = createCache(1024);
+        cache.put(configuration1, request, new HttpHeaders(), DATA);
+        assertArrayEquals(DATA, cache.get(configuration1, request));
+        assertNull(cache.get(configuration2, request));
+        // no temporary file is left
+        final File[] files = new File(this.workingDir, "tileCache").listFiles();
+        assertEquals(1, files.length);
+    }
+
+    @Test
+    public void testMemoryAndDisk() throws Exception {
+        final MockClientHttpRequest request = request("http://tiles.example.com/osm/1/2/3.png");
+        TileCache cache = createCache(1024);
+        assertNull(cache.get(null, request));
+
+        cache.put(null, request, new HttpHeaders(), DATA);
+        assertArrayEquals(DATA, cache.get(null, request));
+        assertEquals(1, this.metricRegistry.counter(TileCache.class.getName() + ".memory.hits").getCount());
+
+        // a new instance only has the tiles on disk
+        cache = createCache(1024);
+        assertArrayEquals(DATA, cache.get(null, request));
+        assertEquals(1, this.metricRegistry.counter(TileCache.class.getName() + ".disk.hits").getCount());
+    }
+
+    @Test
+    public void testCacheControl() throws Exception {
+        final TileCache cache = createCache(1024);
+
+        final MockClientHttpRequest noStoreRequest = request("http://tiles.example.com/osm/1/2/3.png");
+        final HttpHeaders noStoreHeaders = new HttpHeaders();
+        noStoreHeaders.setCacheControl("no-store");
+        cache.put(null, noStoreRequest, noStoreHeaders, DATA);
+        assertNull(cache.get(null, noStoreRequest));
+
+        final MockClientHttpRequest expiredRequest = request("http://tiles.example.com/osm/1/2/4.png");
+        final HttpHeaders expiredHeaders = new HttpHeaders();
+        expiredHeaders.setCacheControl("public, max-age=0");
+        cache.put(null, expiredRequest, expiredHeaders, DATA);
+        assertNull(cache.get(null, expiredRequest));
+
+        final MockClientHttpRequest maxAgeRequest = request("http://tiles.example.com/osm/1/2/5.png");
+        final HttpHeaders maxAgeHeaders = new HttpHeaders();
+        maxAgeHeaders.setCacheControl("public, max-age=600");
+        cache.put(null, maxAgeRequest, maxAgeHeaders, DATA);
+        assertArrayEquals(DATA, cache.get(null, maxAgeRequest));
+    }
+
+    @Test
+    public void testTruncatedFile() throws Exception {
+        final MockClientHttpRequest request = request("http://tiles.example.com/osm/1/2/3.png");
+        createCache(1024).put(null, request, new HttpHeaders(), DATA);
+        final File file = new File(this.workingDir, "tileCache").listFiles()[0];
+
+        // shorter than the expiration date
+        Files.write(new byte[]{1, 2, 3}, file);
+        assertNull(createCache(1024).get(null, request));
+        assertFalse(file.exists());
+    }
+
+    private TileCache createCache(final long maxMemorySize) {
+        final WorkingDirectories workingDirectories = new WorkingDirectories();
+        workingDirectories.setWorking(this.workingDir);
+        final TileCache cache = new TileCache();
+        ReflectionTestUtils.setField(cache, "metricRegistry", this.metricRegistry);
+        ReflectionTestUtils.setField(cache, "workingDirectories", workingDirectories);
+        cache.setMaxMemorySize(maxMemorySize);
+        cache.init();
+        return cache;
+    }
+
+    private static MockClientHttpRequest request(final String uri) throws Exception {
+        return new MockClientHttpRequest(HttpMethod.GET, new URI(uri));
+    }
+}
@@ -0,0 +1,214 @@
+/*
+ * Copyright (C) 2014  Camptocamp
+ *
+ * This file is part of MapFish Print
+ *
+ * MapFish Print is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MapFish Print is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MapFish Print.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.mapfish.print.map.tiled;
+
+import com.codahale.metrics.MetricRegistry;
+import jsr166y.ForkJoinPool;
+import org.geotools.coverage.grid.GridCoverage2D;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.geotools.referencing.CRS;
+import org.junit.After;
+import org.junit.Test;
+import org.mapfish.print.Constants;
+import org.mapfish.print.attribute.map.BBoxMapBounds;
+import org.mapfish.print.attribute.map.MapfishMapContext;
+import org.mapfish.print.http.MfClientHttpRequestFactory;
+import org.mapfish.print.map.DistanceUnit;
+import org.mapfish.print.map.Scale;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.client.ClientHttpRequest;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.mock.http.client.MockClientHttpRequest;
+import org.springframework.mock.http.client.MockClientHttpResponse;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.RenderedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.annotation.Nonnull;
+import javax.imageio.ImageIO;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TileLoaderTaskTest {
+    private static final int TILE_SIZE = 256;
+    private static final int TILES_PER_SIDE = 4;
+    // the tiles of the map are in the rows 12 to 15 of the tile cache
+    private static final int FIRST_ROW = 12;
+    private static final int MAP_SIZE = 1000;
+    private static final long TILE_DELAY_MS = 50;
+
+    private final AtomicInteger requests = new AtomicInteger();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger maxInFlight = new AtomicInteger();
+    private final ForkJoinPool pool = new ForkJoinPool(16);
+
+    @After
+    public void tearDown() {
+        this.pool.shutdownNow();
+    }
+
+    @Test
+    public void testSlidingWindow() throws Exception {
+        final TileLoader tileLoader = createTileLoader(2, 100);
+        final GridCoverage2D coverage = this.pool.invoke(createTask(tileLoader));
+
+        assertEquals(TILES_PER_SIDE * TILES_PER_SIDE, this.requests.get());
+        assertTrue("max in flight: " + this.maxInFlight.get(), this.maxInFlight.get() <= 2);
+        assertTrue("the tiles are not loaded in parallel", this.maxInFlight.get() > 1);
+
+        // each tile is drawn at its place
+        final RenderedImage image = coverage.getRenderedImage();
+        final BufferedImage bufferedImage = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_ARGB);
+        bufferedImage.createGraphics().drawRenderedImage(image, null);
+        for (int x = 0; x < TILES_PER_SIDE; x++) {
+            for (int y = 0; y < TILES_PER_SIDE; y++) {
+                final int pixel = bufferedImage.getRGB(x * TILE_SIZE + TILE_SIZE / 2, y * TILE_SIZE + TILE_SIZE / 2);
+                assertEquals("tile " + x + "/" + y, getTileColor(x, y + FIRST_ROW).getRGB(), pixel);
+            }
+        }
+    }
+
+    @Test
+    public void testMaxRequestsPerHost() throws Exception {
+        final TileLoader tileLoader = createTileLoader(TILES_PER_SIDE * TILES_PER_SIDE, 3);
+        // two layers of the same host
+        final Future<GridCoverage2D> layer1 = this.pool.submit(createTask(tileLoader));
+        final Future<GridCoverage2D> layer2 = this.pool.submit(createTask(tileLoader));
+        layer1.get(1, TimeUnit.MINUTES);
+        layer2.get(1, TimeUnit.MINUTES);
+
+        assertEquals(2 * TILES_PER_SIDE * TILES_PER_SIDE, this.requests.get());
+        assertTrue("max in flight: " + this.maxInFlight.get(), this.maxInFlight.get() <= 3);
+    }
+
+    private TileLoader createTileLoader(final int maxTilesInFlightPerLayer, final int maxRequestsPerHost) {
+        final TileCache tileCache = new TileCache();
+        tileCache.setEnabled(false);
+        final TileLoader tileLoader = new TileLoader();
+        ReflectionTestUtils.setField(tileLoader, "metricRegistry", new MetricRegistry());
+        ReflectionTestUtils.setField(tileLoader, "tileCache", tileCache);
+        tileLoader.setMaxTilesInFlightPerLayer(maxTilesInFlightPerLayer);
+        tileLoader.setMaxRequestsPerHost(maxRequestsPerHost);
+        return tileLoader;
+    }
+
+    private TileLoaderTask createTask(final TileLoader tileLoader) throws Exception {
+        final CoordinateReferenceSystem crs = CRS.decode("EPSG:21781");
+        final BBoxMapBounds bounds = new BBoxMapBounds(crs, 0, 0, MAP_SIZE, MAP_SIZE);
+        final MapfishMapContext mapContext = new MapfishMapContext(bounds, new Dimension(MAP_SIZE, MAP_SIZE), 0,
+                Constants.PDF_DPI, Constants.PDF_DPI, null, true);
+        final TileCacheInformation tileCacheInformation = new TileCacheInformation(bounds, null, Constants.PDF_DPI, null) {
+            @Nonnull
+            @Override
+            public ClientHttpRequest getTileRequest(final MfClientHttpRequestFactory httpRequestFactory, final String commonUrl,
+                                                    final ReferencedEnvelope tileBounds, final Dimension tileSizeOnScreen,
+                                                    final int column, final int row) throws Exception {
+                return httpRequestFactory.createRequest(new URI("http://tiles.example.com/" + column + "/" + row + ".png"),
+                        HttpMethod.GET);
+            }
+
+            @Override
+            public Scale getScale() {
+                // one meter per pixel
+                return new Scale(DistanceUnit.M.convertTo(1.0, DistanceUnit.IN) * Constants.PDF_DPI);
+            }
+
+            @Override
+            public Double getLayerDpi() {
+                return null;
+            }
+
+            @Override
+            public Dimension getTileSize() {
+                return new Dimension(TILE_SIZE, TILE_SIZE);
+            }
+
+            @Nonnull
+            @Override
+            protected ReferencedEnvelope getTileCacheBounds() {
+                return new ReferencedEnvelope(0, 16 * TILE_SIZE, 0, 16 * TILE_SIZE, crs);
+            }
+
+            @Override
+            protected String createCommonUrl() {
+                return "http://tiles.example.com/";
+            }
+        };
+        return new TileLoaderTask(createRequestFactory(), Constants.PDF_DPI, mapContext, tileCacheInformation, true, tileLoader, null);
+    }
+
+    private MfClientHttpRequestFactory createRequestFactory() {
+        return new MfClientHttpRequestFactory() {
+            @Override
+            public void register(final RequestConfigurator callback) {
+            }
+
+            @Override
+            public ClientHttpRequest createRequest(final URI uri, final HttpMethod httpMethod) throws IOException {
+                return new MockClientHttpRequest(httpMethod, uri) {
+                    @Override
+                    public ClientHttpResponse execute() throws IOException {
+                        return loadTile(uri);
+                    }
+                };
+            }
+        };
+    }
+
+    private ClientHttpResponse loadTile(final URI uri) throws IOException {
+        this.requests.incrementAndGet();
+        final int current = this.inFlight.incrementAndGet();
+        synchronized (this.maxInFlight) {
+            this.maxInFlight.set(Math.max(this.maxInFlight.get(), current));
+        }
+        try {
+            Thread.sleep(TILE_DELAY_MS);
+            final String[] path = uri.getPath().replace(".png", "").split("/");
+            final BufferedImage tile = new BufferedImage(TILE_SIZE, TILE_SIZE, BufferedImage.TYPE_INT_ARGB);
+            final Graphics2D graphics = tile.createGraphics();
+            graphics.setBackground(getTileColor(Integer.parseInt(path[1]), Integer.parseInt(path[2])));
+            graphics.clearRect(0, 0, TILE_SIZE, TILE_SIZE);
+            graphics.dispose();
+            final ByteArrayOutputStream data = new ByteArrayOutputStream();
+            ImageIO.write(tile, "png", data);
+            return new MockClientHttpResponse(data.toByteArray(), HttpStatus.OK);
+        } catch (InterruptedException e) {
+            throw new IOException(e);
+        } finally {
+            this.inFlight.decrementAndGet();
+        }
+    }
+
+    private static Color getTileColor(final int column, final int row) {
+        return new Color(column * 50, row * 10, 0);
+    }
+}
@@ -0,0 +1,183 @@
+/*
+ * Copyright (C) 2014  Camptocamp
+ *
+ * This file is part of MapFish Print
+ *
+ * MapFish Print is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MapFish Print is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MapFish Print.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.mapfish.print.metrics;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.json.JSONWriter;
+import org.junit.Test;
+
+import java.io.StringWriter;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class ExecutionTraceTest {
+
+    @Test
+    public void testSpanTree() throws Exception {
+        final ExecutionTrace trace = new ExecutionTrace("job1");
+        final ExecutionTrace.Span processor = trace.start("processor", "createMap");
+        trace.start("http", "GET http://localhost/wms").end();
+        processor.end();
+        trace.start("jasper", "fill").end();
+        trace.finish();
+
+        final StringWriter writer = new StringWriter();
+        trace.writeJson(new JSONWriter(writer));
+        final JSONObject json = new JSONObject(writer.toString());
+
+        assertEquals("job1", json.getString("job"));
+        final JSONObject root = json.getJSONObject("root");
+        assertTrue(root.has("end"));
+        final JSONArray children = root.getJSONArray("children");
+        assertEquals(2, children.length());
+        final JSONObject createMap = children.getJSONObject(0);
+        assertEquals("createMap", createMap.getString("name"));
+        assertEquals(Thread.currentThread().getName(), createMap.getString("thread"));
+        assertEquals("GET http://localhost/wms", createMap.getJSONArray("children").getJSONObject(0).getString("name"));
+        assertEquals("fill", children.getJSONObject(1).getString("name"));
+        assertFalse(children.getJSONObject(1).has("children"));
+    }
+
+    @Test
+    public void testOtherThread() throws Exception {
+        final ExecutionTrace trace = new ExecutionTrace("job2");
+        final ExecutionTrace.Span processor = trace.start("processor", "createMap");
+        final Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                trace.start("layer", "layer_0").end();
+            }
+        });
+        thread.start();
+        thread.join();
+        processor.end();
+
+        final StringWriter writer = new StringWriter();
+        trace.writeJson(new JSONWriter(writer));
+        // not started in the thread of the processor, so a child of the root
+        final JSONArray children = new JSONObject(writer.toString()).getJSONObject("root").getJSONArray("children");
+        assertEquals(2, children.length());
+        assertEquals("layer_0", children.getJSONObject(1).getString("name"));
+    }
+
+    @Test
+    public void testExplicitParent() throws Exception {
+        final ExecutionTrace trace = new ExecutionTrace("job4");
+        final ExecutionTrace.Span processor = trace.start("processor", "createMap");
+        final ExecutionTrace.Span other = trace.start(trace.getRoot(), "processor", "other");
+        final Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                final ExecutionTrace.Span layer = trace.start(processor, "layer", "layer_0");
+                // the spans started in the same thread are children of the layer
+                trace.start("http", "GET http://localhost/wms").end();
+                layer.end();
+            }
+        });
+        thread.start();
+        thread.join();
+        other.end();
+        processor.end();
+
+        final StringWriter writer = new StringWriter();
+        trace.writeJson(new JSONWriter(writer));
+        final JSONArray children = new JSONObject(writer.toString()).getJSONObject("root").getJSONArray("children");
+        assertEquals(2, children.length());
+        final JSONObject createMap = children.getJSONObject(0);
+        assertEquals("createMap", createMap.getString("name"));
+        assertEquals(1, createMap.getJSONArray("children").length());
+        final JSONObject layer = createMap.getJSONArray("children").getJSONObject(0);
+        assertEquals("layer_0", layer.getString("name"));
+        assertEquals("GET http://localhost/wms", layer.getJSONArray("children").getJSONObject(0).getString("name"));
+        assertEquals("other", children.getJSONObject(1).getString("name"));
+        assertFalse(children.getJSONObject(1).has("children"));
+    }
+
+    @Test
+    public void testEndedInOtherThread() throws Exception {
+        final ExecutionTrace trace = new ExecutionTrace("job6");
+        final ExecutionTrace.Span request = trace.start("http", "GET http://localhost/wms");
+        assertSame(request, trace.getCurrentSpan());
+        final AtomicReference<ExecutionTrace.Span> otherThreadSpan = new AtomicReference<ExecutionTrace.Span>();
+        final Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                otherThreadSpan.set(trace.getCurrentSpan());
+                request.end();
+            }
+        });
+        thread.start();
+        thread.join();
+        assertSame(trace.getRoot(), otherThreadSpan.get());
+
+        // the span ended by the other thread is not the parent of the next spans of this thread
+        assertSame(trace.getRoot(), trace.getCurrentSpan());
+        trace.start("jasper", "fill").end();
+
+        final StringWriter writer = new StringWriter();
+        trace.writeJson(new JSONWriter(writer));
+        final JSONArray children = new JSONObject(writer.toString()).getJSONObject("root").getJSONArray("children");
+        assertEquals(2, children.length());
+        assertEquals("fill", children.getJSONObject(1).getString("name"));
+    }
+
+    @Test
+    public void testMaxSpans() throws Exception {
+        final ExecutionTrace trace = new ExecutionTrace("job5", 3);
+        for (int i = 0; i < 5; i++) {
+            trace.start("http", "GET " + i).end();
+        }
+
+        final StringWriter writer = new StringWriter();
+        trace.writeJson(new JSONWriter(writer));
+        final JSONObject json = new JSONObject(writer.toString());
+        // the root and the two first requests
+        assertEquals(2, json.getJSONObject("root").getJSONArray("children").length());
+        assertEquals(3, json.getInt("droppedSpans"));
+    }
+
+    @Test
+    public void testChromeTrace() throws Exception {
+        final ExecutionTrace trace = new ExecutionTrace("job3");
+        trace.start("processor", "createMap").end();
+        trace.finish();
+
+        final StringWriter writer = new StringWriter();
+        trace.writeChromeTrace(new JSONWriter(writer));
+        final JSONArray events = new JSONObject(writer.toString()).getJSONArray("traceEvents");
+
+        // the job, the processor and the name of the thread
+        assertEquals(3, events.length());
+        assertEquals("X", events.getJSONObject(1).getString("ph"));
+        assertEquals("createMap", events.getJSONObject(1).getString("name"));
+        assertEquals("M", events.getJSONObject(2).getString("ph"));
+    }
+
+    @Test
+    public void testNoTrace() throws Exception {
+        final ExecutionTrace.Span span = ExecutionTrace.start(null, "processor", "createMap");
+        span.end();
+        assertSame(span, ExecutionTrace.start(null, "http", "GET"));
+    }
+}
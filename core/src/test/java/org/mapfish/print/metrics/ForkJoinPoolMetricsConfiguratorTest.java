@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2014  Camptocamp
+ *
+ * This file is part of MapFish Print
+ *
+ * MapFish Print is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MapFish Print is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MapFish Print.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.mapfish.print.metrics;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import jsr166y.ForkJoinPool;
+import jsr166y.RecursiveAction;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ForkJoinPoolMetricsConfiguratorTest {
+    private ForkJoinPool pool;
+    private MetricRegistry metricRegistry;
+
+    @Before
+    public void setUp() throws Exception {
+        this.pool = new ForkJoinPool(2);
+        this.metricRegistry = new MetricRegistry();
+        final ForkJoinPoolMetricsConfigurator configurator = new ForkJoinPoolMetricsConfigurator();
+        ReflectionTestUtils.setField(configurator, "metricRegistry", this.metricRegistry);
+        ReflectionTestUtils.setField(configurator, "forkJoinPool", this.pool);
+        configurator.init();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        this.pool.shutdownNow();
+    }
+
+    @Test
+    public void testGauges() throws Exception {
+        final Map<String, Gauge> gauges = this.metricRegistry.getGauges();
+        assertEquals(6, gauges.size());
+        assertEquals(0, gauges.get("forkJoinPool.poolSize").getValue());
+        assertEquals(0, gauges.get("forkJoinPool.active").getValue());
+        assertEquals(0, gauges.get("forkJoinPool.running").getValue());
+        assertEquals(0L, gauges.get("forkJoinPool.queuedTasks").getValue());
+        assertEquals(0, gauges.get("forkJoinPool.queuedSubmissions").getValue());
+        assertEquals(0L, gauges.get("forkJoinPool.steals").getValue());
+
+        this.pool.invoke(new RecursiveAction() {
+            @Override
+            protected void compute() {
+                // the gauges read the live values of the pool
+                assertEquals(1, gauges.get("forkJoinPool.active").getValue());
+            }
+        });
+        assertTrue((Integer) gauges.get("forkJoinPool.poolSize").getValue() > 0);
+    }
+}
@@ -19,7 +19,13 @@
 
 package org.mapfish.print.output;
 
+import com.google.common.collect.Lists;
 import com.vividsolutions.jts.util.AssertionFailedException;
+import net.sf.jasperreports.engine.JRPrintElement;
+import net.sf.jasperreports.engine.JRPrintFrame;
+import net.sf.jasperreports.engine.JRPrintPage;
+import net.sf.jasperreports.engine.JRPrintText;
+import net.sf.jasperreports.engine.JasperPrint;
 import org.junit.Test;
 import org.mapfish.print.AbstractMapfishSpringTest;
 import org.mapfish.print.config.Configuration;
@@ -29,6 +35,7 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.test.annotation.DirtiesContext;
 
 import java.io.IOException;
+import java.util.List;
 import java.util.Map;
 
 import static org.junit.Assert.assertTrue;
@@ -96,6 +103,34 @@ public class AbstractJasperReportOutputFormatTest extends AbstractMapfishSpringT
         }
     }
 
+    @Test
+    public void testRelativeCompiledSubReport() throws Exception {
+        final Configuration config = configurationFactory.getConfig(getFile("relative_subreport/config.yaml"));
+        PJsonObject requestData = parseJSONObjectFromFile(JasperReportOutputFormatSimpleMapTest.class,
+                "relative_subreport/requestData.json");
+
+        final AbstractJasperReportOutputFormat format = (AbstractJasperReportOutputFormat) this.outputFormat.get("pngOutputFormat");
+        final JasperPrint print = format.getJasperPrint(requestData, config,
+                getFile(JasperReportOutputFormatSimpleMapTest.class, "relative_subreport/"), getTaskDirectory()).print;
+
+        final List<String> texts = Lists.newArrayList();
+        for (JRPrintPage page : print.getPages()) {
+            collectTexts(page.getElements(), texts);
+        }
+        assertTrue(texts.toString(), texts.contains("Relative sub-report"));
+        assertTrue(texts.toString(), texts.contains("Sub-report text"));
+    }
+
+    private static void collectTexts(final List<JRPrintElement> elements, final List<String> texts) {
+        for (JRPrintElement element : elements) {
+            if (element instanceof JRPrintText) {
+                texts.add(((JRPrintText) element).getFullText());
+            } else if (element instanceof JRPrintFrame) {
+                collectTexts(((JRPrintFrame) element).getElements(), texts);
+            }
+        }
+    }
+
     public static PJsonObject loadJsonRequestData() throws IOException {
         return parseJSONObjectFromFile(JasperReportOutputFormatSimpleMapTest.class, BASE_DIR + "requestData.json");
     }
@@ -0,0 +1,72 @@
+/*
+ * Copyright (C) 2014  Camptocamp
+ *
+ * This file is part of MapFish Print
+ *
+ * MapFish Print is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MapFish Print is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MapFish Print.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.mapfish.print.output;
+
+import net.sf.jasperreports.engine.JasperCompileManager;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mapfish.print.AbstractMapfishSpringTest;
+import org.mapfish.print.config.Configuration;
+import org.mapfish.print.config.ConfigurationFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import java.io.File;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class JasperReportCacheTest extends AbstractMapfishSpringTest {
+    public static final String BASE_DIR = "simple_map/";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Autowired
+    private ConfigurationFactory configurationFactory;
+
+    @Autowired
+    private JasperReportCache jasperReportCache;
+
+    @Test
+    public void testGet() throws Exception {
+        final Configuration config = configurationFactory.getConfig(getFile(BASE_DIR + "config.yaml"));
+        final File templateFile = getFile(BASE_DIR + "simple-map.jrxml");
+        final File buildFile = new File(folder.getRoot(), "simple-map.jasper");
+        JasperCompileManager.compileReportToFile(templateFile.getAbsolutePath(), buildFile.getAbsolutePath());
+
+        final JasperReportCache.CachedReport report = jasperReportCache.get(config, "simple-map.jrxml", templateFile,
+                buildFile);
+        assertEquals(String.class, report.getParameters().get("map"));
+        assertSame(report, jasperReportCache.get(config, "simple-map.jrxml", templateFile, buildFile));
+
+        // the report is reloaded when the compiled file changes
+        assertTrue(buildFile.setLastModified(buildFile.lastModified() - 10000));
+        final JasperReportCache.CachedReport reloaded = jasperReportCache.get(config, "simple-map.jrxml", templateFile,
+                buildFile);
+        assertNotSame(report, reloaded);
+
+        // the reports are cached per configuration
+        final Configuration otherConfig = configurationFactory.getConfig(getFile(BASE_DIR + "config.yaml"));
+        assertNotSame(reloaded, jasperReportCache.get(otherConfig, "simple-map.jrxml", templateFile, buildFile));
+    }
+}
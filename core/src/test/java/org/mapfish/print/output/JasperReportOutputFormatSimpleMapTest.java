@@ -19,20 +19,34 @@
 
 package org.mapfish.print.output;
 
+import com.google.common.collect.Lists;
 import net.sf.jasperreports.engine.JasperPrint;
 import org.junit.Test;
 import org.mapfish.print.AbstractMapfishSpringTest;
 import org.mapfish.print.config.Configuration;
 import org.mapfish.print.config.ConfigurationFactory;
+import org.mapfish.print.config.Template;
+import org.mapfish.print.processor.AbstractProcessor;
+import org.mapfish.print.processor.Processor;
+import org.mapfish.print.processor.jasper.InMemoryImageRenderer;
 import org.mapfish.print.test.util.ImageSimilarity;
 import org.mapfish.print.wrapper.json.PJsonObject;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.annotation.DirtiesContext;
 
 import java.awt.image.BufferedImage;
 import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.net.URI;
+import java.util.List;
 import java.util.Map;
+import javax.imageio.ImageIO;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 public class JasperReportOutputFormatSimpleMapTest extends AbstractMapfishSpringTest {
     public static final String BASE_DIR = "simple_map/";
@@ -74,8 +88,79 @@ public class JasperReportOutputFormatSimpleMapTest extends AbstractMapfishSpring
         }
     }
 
+    @Test
+    public void testInMemoryRasters() throws Exception {
+        final PJsonObject requestData = parseJSONObjectFromFile(JasperReportOutputFormatSimpleMapTest.class,
+                BASE_DIR + "requestDataRaster.json");
+        final AbstractJasperReportOutputFormat format = (AbstractJasperReportOutputFormat) this.outputFormat.get("pngOutputFormat");
+
+        final Configuration inMemoryConfig = configurationFactory.getConfig(getFile(BASE_DIR + "config-in-memory-rasters.yaml"));
+        final AbstractJasperReportOutputFormat.Print inMemoryPrint = format.getJasperPrint(requestData, inMemoryConfig,
+                getFile(JasperReportOutputFormatSimpleMapTest.class, BASE_DIR), getTaskDirectory());
+
+        // the raster is not written and not registered anymore once the report is filled
+        @SuppressWarnings("unchecked")
+        final List<URI> layerGraphics = (List<URI>) inMemoryPrint.values.getObject("layerGraphics", List.class);
+        assertEquals(1, layerGraphics.size());
+        assertTrue(layerGraphics.get(0).toString(), layerGraphics.get(0).toString().endsWith(".png"));
+        assertFalse(new File(layerGraphics.get(0)).exists());
+        assertFalse(InMemoryImageRenderer.isRegistered(layerGraphics.get(0)));
+
+        // the report is the same as with the raster written to a file
+        final Configuration fileConfig = configurationFactory.getConfig(getFile(BASE_DIR + "config.yaml"));
+        final JasperPrint filePrint = format.getJasperPrint(requestData, fileConfig,
+                getFile(JasperReportOutputFormatSimpleMapTest.class, BASE_DIR), getTaskDirectory()).print;
+        final File expected = new File(getTaskDirectory(), "expectedRasterReport.png");
+        ImageIO.write(ImageSimilarity.exportReportToImage(filePrint, 0), "png", expected);
+        new ImageSimilarity(ImageSimilarity.exportReportToImage(inMemoryPrint.print, 0), 50).assertSimilarity(expected, 2);
+    }
+
+    @Test
+    @DirtiesContext
+    public void testInMemoryRastersReadByAnotherProcessor() throws Exception {
+        configurationFactory.setDoValidation(false);
+        final Configuration config = configurationFactory.getConfig(getFile(BASE_DIR + "config-in-memory-rasters.yaml"));
+        final Template template = config.getTemplate("main");
+        final List<Processor> processors = Lists.newArrayList(template.getProcessors());
+        processors.add(new LayerGraphicsReader());
+        template.setProcessors(processors);
+
+        boolean found = false;
+        for (Throwable error : config.validate()) {
+            found |= String.valueOf(error.getMessage()).contains("inMemoryRasters");
+        }
+        assertTrue("The layer graphics read by another processor are not reported", found);
+    }
+
     public static PJsonObject loadJsonRequestData() throws IOException {
         return parseJSONObjectFromFile(JasperReportOutputFormatSimpleMapTest.class, BASE_DIR + "requestData.json");
     }
 
+    /**
+     * A processor reading the layer graphics of the map.
+     */
+    private static class LayerGraphicsReader extends AbstractProcessor<LayerGraphicsReader.Input, Void> {
+        LayerGraphicsReader() {
+            super(Void.class);
+        }
+
+        @Override
+        public Input createInputParameter() {
+            return new Input();
+        }
+
+        @Override
+        public Void execute(final Input values, final ExecutionContext context) throws Exception {
+            return null;
+        }
+
+        @Override
+        protected void extraValidation(final List<Throwable> validationErrors, final Configuration configuration) {
+            // no checks
+        }
+
+        public static class Input {
+            public List<URI> layerGraphics;
+        }
+    }
 }
@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2014  Camptocamp
+ *
+ * This file is part of MapFish Print
+ *
+ * MapFish Print is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MapFish Print is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MapFish Print.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.mapfish.print.output;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.collect.Maps;
+import net.sf.jasperreports.engine.JREmptyDataSource;
+import net.sf.jasperreports.engine.JRParameter;
+import net.sf.jasperreports.engine.JasperCompileManager;
+import net.sf.jasperreports.engine.JasperExportManager;
+import net.sf.jasperreports.engine.JasperFillManager;
+import net.sf.jasperreports.engine.JasperPrint;
+import net.sf.jasperreports.engine.JasperReport;
+import net.sf.jasperreports.engine.design.JRDesignBand;
+import net.sf.jasperreports.engine.design.JRDesignSection;
+import net.sf.jasperreports.engine.design.JRDesignStaticText;
+import net.sf.jasperreports.engine.design.JasperDesign;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ReportVirtualizerFactoryTest {
+    private static final int ROWS = 100;
+    private static final int ROWS_PER_PAGE = 4;
+    private static final int ROW_HEIGHT = 50;
+    private static final int PAGE_WIDTH = 200;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testCreate() throws Exception {
+        final ReportVirtualizerFactory factory = new ReportVirtualizerFactory();
+        ReflectionTestUtils.setField(factory, "metricRegistry", new MetricRegistry());
+
+        assertNull("disabled by default", factory.create(null, folder.getRoot()));
+
+        final ReportVirtualizerFactory.SwapFileVirtualizer virtualizer = factory.create(10, folder.getRoot());
+        assertNotNull(virtualizer);
+        virtualizer.cleanup();
+
+        factory.setMaxPages(5);
+        assertNull("disabled by the template", factory.create(0, folder.getRoot()));
+        final ReportVirtualizerFactory.SwapFileVirtualizer defaultVirtualizer = factory.create(null, folder.getRoot());
+        assertNotNull(defaultVirtualizer);
+        defaultVirtualizer.cleanup();
+    }
+
+    @Test
+    public void testSwap() throws Exception {
+        final MetricRegistry registry = new MetricRegistry();
+        final ReportVirtualizerFactory factory = new ReportVirtualizerFactory();
+        ReflectionTestUtils.setField(factory, "metricRegistry", registry);
+        final JasperReport report = JasperCompileManager.compileReport(createReport());
+
+        final ReportVirtualizerFactory.SwapFileVirtualizer virtualizer = factory.create(2, folder.getRoot());
+        try {
+            final Map<String, Object> parameters = Maps.newHashMap();
+            parameters.put(JRParameter.REPORT_VIRTUALIZER, virtualizer);
+            final JasperPrint print = JasperFillManager.fillReport(report, parameters, new JREmptyDataSource(ROWS));
+            virtualizer.setReadOnly(true);
+
+            assertEquals(ROWS / ROWS_PER_PAGE, print.getPages().size());
+            final Meter pagesOut = registry.meter(ReportVirtualizerFactory.class.getName() + ".pagesOut");
+            assertTrue("no page swapped out", pagesOut.getCount() > 0);
+
+            final ByteArrayOutputStream pdf = new ByteArrayOutputStream();
+            JasperExportManager.exportReportToPdfStream(print, pdf);
+            assertTrue(pdf.size() > 0);
+            final Meter pagesIn = registry.meter(ReportVirtualizerFactory.class.getName() + ".pagesIn");
+            assertTrue("no page swapped in by the export", pagesIn.getCount() > 0);
+        } finally {
+            virtualizer.cleanup();
+        }
+    }
+
+    /**
+     * A report of ROWS_PER_PAGE rows per page.
+     */
+    private static JasperDesign createReport() {
+        final JasperDesign design = new JasperDesign();
+        design.setName("virtualized");
+        design.setPageWidth(PAGE_WIDTH);
+        design.setPageHeight(ROW_HEIGHT * ROWS_PER_PAGE);
+        design.setColumnWidth(PAGE_WIDTH);
+        design.setLeftMargin(0);
+        design.setRightMargin(0);
+        design.setTopMargin(0);
+        design.setBottomMargin(0);
+
+        final JRDesignStaticText text = new JRDesignStaticText();
+        text.setWidth(PAGE_WIDTH);
+        text.setHeight(ROW_HEIGHT);
+        text.setText("row");
+        final JRDesignBand band = new JRDesignBand();
+        band.setHeight(ROW_HEIGHT);
+        band.addElement(text);
+        ((JRDesignSection) design.getDetailSection()).addBand(band);
+        return design;
+    }
+}
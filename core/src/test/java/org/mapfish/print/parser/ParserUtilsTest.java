@@ -0,0 +1,73 @@
+/*
+ * Copyright (C) 2014  Camptocamp
+ *
+ * This file is part of MapFish Print
+ *
+ * MapFish Print is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MapFish Print is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MapFish Print.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.mapfish.print.parser;
+
+import com.google.common.collect.Sets;
+import org.junit.Test;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+
+public class ParserUtilsTest {
+
+    @Test
+    public void testCachedAttributes() throws Exception {
+        final Set<Field> allFields = Sets.newHashSet();
+        final Set<Field> nonFinalFields = Sets.newHashSet();
+        Class<?> currentClass = Param.class;
+        while (currentClass != null) {
+            for (Field field : currentClass.getFields()) {
+                allFields.add(field);
+                if (!Modifier.isFinal(field.getModifiers())) {
+                    nonFinalFields.add(field);
+                }
+            }
+            currentClass = currentClass.getSuperclass();
+        }
+
+        // the second calls use the cached fields
+        for (int i = 0; i < 2; i++) {
+            assertEquals(allFields, Sets.newHashSet(ParserUtils.getAllAttributes(Param.class)));
+            assertEquals(nonFinalFields, Sets.newHashSet(ParserUtils.getAttributes(Param.class,
+                    ParserUtils.FILTER_NON_FINAL_FIELDS)));
+            assertEquals(Sets.newHashSet("param1", "param3", "base2"), ParserUtils.getAttributeNames(Param.class,
+                    ParserUtils.FILTER_HAS_DEFAULT_ATTRIBUTES));
+            assertEquals(Sets.newHashSet("param2", "base1"), ParserUtils.getAttributeNames(Param.class,
+                    ParserUtils.FILTER_ONLY_REQUIRED_ATTRIBUTES));
+        }
+    }
+
+    static class BaseParam {
+        public Integer base1;
+        @HasDefaultValue
+        public Integer base2;
+        public final Integer constant = 0;
+    }
+
+    static class Param extends BaseParam {
+        @HasDefaultValue
+        public Integer param1;
+        public Integer param2;
+        @HasDefaultValue
+        public Integer param3;
+    }
+}
@@ -19,6 +19,7 @@
 
 package org.mapfish.print.processor;
 
+import com.codahale.metrics.MetricRegistry;
 import com.google.common.collect.Lists;
 import org.junit.Test;
 import org.mapfish.print.config.Configuration;
@@ -26,12 +27,15 @@ import org.mapfish.print.output.Values;
 import org.mapfish.print.parser.HasDefaultValue;
 
 import java.util.ArrayList;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 import javax.annotation.Nullable;
 
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
 /**
  * @author Jesse on 3/28/14.
@@ -135,6 +139,28 @@ public class ProcessorGraphNodeTest {
         assertArrayEquals(daVal, (double[]) values.getObject("prefixDa", Object.class), 0.00001);
     }
 
+    @Test
+    public void testCriticalPathCost() throws Exception {
+        final MetricRegistry registry = new MetricRegistry();
+        final ProcessorGraphNode<DataTransferObject, DataTransferObject> single =
+                new ProcessorGraphNode<DataTransferObject, DataTransferObject>(new TestProcessor() { }, registry);
+        final ProcessorGraphNode<DataTransferObject, DataTransferObject> chainStart =
+                new ProcessorGraphNode<DataTransferObject, DataTransferObject>(new TestProcessor() { }, registry);
+        final ProcessorGraphNode<DataTransferObject, DataTransferObject> chainEnd =
+                new ProcessorGraphNode<DataTransferObject, DataTransferObject>(new TestProcessor() { }, registry);
+        chainStart.addDependency(chainEnd);
+
+        // without history, each processor counts for the same
+        assertTrue(chainStart.getCriticalPathCost(new IdentityHashMap<ProcessorGraphNode<?, ?>, Double>()) >
+                   single.getCriticalPathCost(new IdentityHashMap<ProcessorGraphNode<?, ?>, Double>()));
+
+        registry.timer(ProcessorGraphNode.class.getName() + "_compute():" + single.getProcessor().getClass()).
+                update(50, TimeUnit.MILLISECONDS);
+        assertEquals(50.0, single.getCriticalPathCost(new IdentityHashMap<ProcessorGraphNode<?, ?>, Double>()), 0.001);
+        assertTrue(single.getCriticalPathCost(new IdentityHashMap<ProcessorGraphNode<?, ?>, Double>()) >
+                   chainStart.getCriticalPathCost(new IdentityHashMap<ProcessorGraphNode<?, ?>, Double>()));
+    }
+
     static class DataTransferObject {
         @HasDefaultValue
         public int defaultI = 3;
@@ -19,7 +19,12 @@
 
 package org.mapfish.print.processor.jasper;
 
+import com.google.common.collect.Lists;
+import com.lowagie.text.pdf.PdfReader;
 import jsr166y.ForkJoinPool;
+import net.sf.jasperreports.engine.JRPrintElement;
+import net.sf.jasperreports.engine.JRPrintPage;
+import net.sf.jasperreports.engine.JRPrintText;
 import net.sf.jasperreports.engine.JasperPrint;
 import org.junit.Test;
 import org.mapfish.print.AbstractMapfishSpringTest;
@@ -32,14 +37,17 @@ import org.mapfish.print.output.AbstractJasperReportOutputFormat;
 import org.mapfish.print.output.OutputFormat;
 import org.mapfish.print.output.Values;
 import org.mapfish.print.parser.MapfishParser;
+import org.mapfish.print.processor.Processor;
 import org.mapfish.print.test.util.ImageSimilarity;
 import org.mapfish.print.wrapper.json.PJsonObject;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.test.annotation.DirtiesContext;
 
 import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 
@@ -106,6 +114,103 @@ public class DataSourceProcessorTest extends AbstractMapfishSpringTest {
 
     }
 
+    @Test
+    @DirtiesContext
+    public void testRenderTableOneRowInFlight() throws Exception {
+        final Configuration config = configurationFactory.getConfig(getFile(BASE_DIR + "config.yaml"));
+        for (Processor processor : config.getTemplate("main").getProcessors()) {
+            if (processor instanceof DataSourceProcessor) {
+                ((DataSourceProcessor) processor).setMaxRowsInFlight(1);
+            }
+        }
+
+        PJsonObject requestData = loadJsonRequestData();
+
+        final AbstractJasperReportOutputFormat format = (AbstractJasperReportOutputFormat) this.outputFormat.get("pngOutputFormat");
+        JasperPrint print = format.getJasperPrint(requestData, config, config.getDirectory(), getTaskDirectory()).print;
+
+        assertEquals(1, print.getPages().size());
+        BufferedImage reportImage = ImageSimilarity.exportReportToImage(print, 0);
+
+        File expectedImage = getFile(BASE_DIR + "expected-page.png");
+        new ImageSimilarity(reportImage, 50).assertSimilarity(expectedImage, 10);
+    }
+
+    @Test
+    @DirtiesContext
+    public void testStreamedPdf() throws Exception {
+        final Configuration config = configurationFactory.getConfig(getFile(BASE_DIR + "config.yaml"));
+        config.getTemplate("main").setStreamingBatchSize(1);
+
+        PJsonObject requestData = loadJsonRequestData();
+
+        final OutputFormat format = this.outputFormat.get("pdfOutputFormat");
+        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        format.print(requestData, config, config.getDirectory(), getTaskDirectory(), outputStream);
+
+        // one report per row
+        assertEquals(2, new PdfReader(outputStream.toByteArray()).getNumberOfPages());
+    }
+
+    @Test
+    @DirtiesContext
+    public void testStreamedPageNumbers() throws Exception {
+        final Configuration config = configurationFactory.getConfig(getFile(BASE_DIR + "config.yaml"));
+        final Template template = config.getTemplate("main");
+        template.setStreamingBatchSize(1);
+        final AbstractJasperReportOutputFormat format = (AbstractJasperReportOutputFormat) this.outputFormat.get("pdfOutputFormat");
+
+        // streamed, only the first batch is filled before the export
+        final JasperPrint streamed = format.getJasperPrint(loadJsonRequestData(), config, config.getDirectory(),
+                getTaskDirectory()).print;
+        assertEquals(1, streamed.getPages().size());
+
+        // the page numbers would restart at each batch, the report is not streamed
+        template.setReportTemplate("simpleReport-page-numbers.jrxml");
+        final JasperPrint print = format.getJasperPrint(loadJsonRequestData(), config, config.getDirectory(),
+                getTaskDirectory()).print;
+        assertEquals(2, print.getPages().size());
+        for (int i = 0; i < print.getPages().size(); i++) {
+            final List<String> texts = getTexts(print.getPages().get(i));
+            assertTrue(texts.toString(), texts.contains("Page " + (i + 1)));
+        }
+    }
+
+    @Test
+    @DirtiesContext
+    public void testStreamedRowNumbers() throws Exception {
+        final Configuration config = configurationFactory.getConfig(getFile(BASE_DIR + "config.yaml"));
+        final Template template = config.getTemplate("main");
+        template.setReportTemplate("simpleReport-row-numbers.jrxml");
+        final AbstractJasperReportOutputFormat format = (AbstractJasperReportOutputFormat) this.outputFormat.get("pdfOutputFormat");
+
+        final List<String> notStreamed = Lists.newArrayList();
+        for (JRPrintPage page : format.getJasperPrint(loadJsonRequestData(), config, config.getDirectory(),
+                getTaskDirectory()).print.getPages()) {
+            notStreamed.addAll(getTexts(page));
+        }
+        assertEquals(Arrays.asList("Row 1", "Row 2"), notStreamed);
+
+        // the row numbers would restart at each batch, the report is not streamed and numbered the same way
+        template.setStreamingBatchSize(1);
+        final List<String> streamed = Lists.newArrayList();
+        for (JRPrintPage page : format.getJasperPrint(loadJsonRequestData(), config, config.getDirectory(),
+                getTaskDirectory()).print.getPages()) {
+            streamed.addAll(getTexts(page));
+        }
+        assertEquals(notStreamed, streamed);
+    }
+
+    private static List<String> getTexts(final JRPrintPage page) {
+        final List<String> texts = Lists.newArrayList();
+        for (JRPrintElement element : page.getElements()) {
+            if (element instanceof JRPrintText) {
+                texts.add(((JRPrintText) element).getFullText());
+            }
+        }
+        return texts;
+    }
+
     private static PJsonObject loadJsonRequestData() throws IOException {
         return parseJSONObjectFromFile(DataSourceProcessorTest.class, BASE_DIR + "requestData.json");
     }
@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2014  Camptocamp
+ *
+ * This file is part of MapFish Print
+ *
+ * MapFish Print is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MapFish Print is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MapFish Print.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.mapfish.print.processor.jasper;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.net.URI;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class InMemoryImageRendererTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testRegistry() throws Exception {
+        final File job1 = folder.newFolder("job1");
+        final File job2 = folder.newFolder("job2");
+        final URI uri1 = new File(job1, "layer_0.png").toURI();
+        final URI uri2 = new File(job2, "layer_0.png").toURI();
+        InMemoryImageRenderer.register(uri1, createImage());
+        InMemoryImageRenderer.register(uri2, createImage());
+
+        assertTrue(InMemoryImageRenderer.isRegistered(uri1));
+        InMemoryImageRenderer.unregisterAll(job1);
+        assertFalse(InMemoryImageRenderer.isRegistered(uri1));
+        assertTrue(InMemoryImageRenderer.isRegistered(uri2));
+        InMemoryImageRenderer.unregisterAll(job2);
+        assertFalse(InMemoryImageRenderer.isRegistered(uri2));
+    }
+
+    @Test
+    public void testUnregisterFetched() throws Exception {
+        final File job = folder.newFolder("job");
+        final URI used = new File(job, "layer_0.png").toURI();
+        final URI notUsed = new File(job, "layer_1.png").toURI();
+        InMemoryImageRenderer.register(used, createImage());
+        InMemoryImageRenderer.register(notUsed, createImage());
+        try {
+            InMemoryImageRenderer.get(used.toString());
+            InMemoryImageRenderer.unregisterFetched(job);
+
+            assertFalse(InMemoryImageRenderer.isRegistered(used));
+            assertTrue(InMemoryImageRenderer.isRegistered(notUsed));
+        } finally {
+            InMemoryImageRenderer.unregisterAll(job);
+        }
+    }
+
+    @Test
+    public void testRenderAndSerialize() throws Exception {
+        final File job = folder.newFolder("job");
+        final URI uri = new File(job, "layer_0.png").toURI();
+        InMemoryImageRenderer.register(uri, createImage());
+        final InMemoryImageRenderer renderer;
+        try {
+            renderer = (InMemoryImageRenderer) InMemoryImageRenderer.get(uri.toString());
+        } finally {
+            InMemoryImageRenderer.unregisterAll(job);
+        }
+
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(renderer);
+        out.close();
+        final InMemoryImageRenderer copy = (InMemoryImageRenderer) new ObjectInputStream(
+                new ByteArrayInputStream(bytes.toByteArray())).readObject();
+
+        assertEquals(20, copy.getDimension(null).getWidth(), 0.0);
+        final BufferedImage target = new BufferedImage(40, 20, BufferedImage.TYPE_INT_ARGB);
+        final Graphics2D graphics = target.createGraphics();
+        try {
+            copy.render(null, graphics, new Rectangle(0, 0, 40, 20));
+        } finally {
+            graphics.dispose();
+        }
+        assertEquals(Color.RED.getRGB(), target.getRGB(39, 19));
+    }
+
+    private static BufferedImage createImage() {
+        final BufferedImage image = new BufferedImage(20, 10, BufferedImage.TYPE_INT_ARGB);
+        final Graphics2D graphics = image.createGraphics();
+        try {
+            graphics.setColor(Color.RED);
+            graphics.fillRect(0, 0, 20, 10);
+        } finally {
+            graphics.dispose();
+        }
+        return image;
+    }
+}
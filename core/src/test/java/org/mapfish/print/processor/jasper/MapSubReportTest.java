@@ -19,8 +19,11 @@
 
 package org.mapfish.print.processor.jasper;
 
+import com.google.common.base.Joiner;
 import com.google.common.collect.Lists;
+import net.sf.jasperreports.engine.DefaultJasperReportsContext;
 import net.sf.jasperreports.engine.JasperReport;
+import net.sf.jasperreports.engine.Renderable;
 import net.sf.jasperreports.engine.design.JRDesignImage;
 import net.sf.jasperreports.engine.design.JasperDesign;
 import net.sf.jasperreports.engine.util.JRLoader;
@@ -28,10 +31,15 @@ import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
 
+import java.awt.Color;
 import java.awt.Dimension;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
 import java.io.File;
 import java.net.URI;
 import java.util.List;
+import javax.imageio.ImageIO;
 
 import static org.junit.Assert.assertEquals;
 
@@ -59,19 +67,12 @@ public class MapSubReportTest {
         assertEquals(400, report.getPageWidth());
         assertEquals(500, report.getPageHeight());
 
-        assertEquals(4, report.getNoData().getChildren().size());
+        assertEquals(1, report.getNoData().getChildren().size());
 
-        JRDesignImage image0 = (JRDesignImage) report.getNoData().getChildren().get(0);
-        assertEquals(400, image0.getWidth());
-        assertEquals(500, image0.getHeight());
-        assertEquals('"' + layer0Tiff.getPath().replace('\\', '/') + '"', image0.getExpression().getText());
-
-        JRDesignImage image3 = (JRDesignImage) report.getNoData().getChildren().get(3);
-        assertEquals(400, image3.getWidth());
-        assertEquals(500, image3.getHeight());
-        assertEquals("net.sf.jasperreports.renderers.BatikRenderer.getInstance(new java.io.File(\"" + layer3SVG.getPath().replace('\\',
-                        '/') + "\"))",
-                image3.getExpression().getText());
+        JRDesignImage image = (JRDesignImage) report.getNoData().getChildren().get(0);
+        assertEquals(400, image.getWidth());
+        assertEquals(500, image.getHeight());
+        assertEquals(ImagesSubReport.class.getName() + ".getRenderer($P{JASPER_REPORT})", image.getExpression().getText());
 
         File compiledReportFile = folder.newFile();
         subReport.compile(compiledReportFile);
@@ -79,6 +80,66 @@ public class MapSubReportTest {
         JasperReport jasperReport = (JasperReport) JRLoader.loadObject(compiledReportFile);
         assertEquals("report can be loaded from compiled file",
                 "map", jasperReport.getName());
+        assertEquals(Joiner.on('\n').join(layerImages), jasperReport.getProperty(ImagesSubReport.GRAPHICS_PROPERTY));
+        assertEquals("72", jasperReport.getProperty(Renderable.PROPERTY_IMAGE_DPI));
+
+        // the same compiled report is reused with other graphics
+        List<URI> otherImages = Lists.newArrayList(layer2Tiff.toURI());
+        JasperReport otherReport = new ImagesSubReport(otherImages, new Dimension(400, 500), 300).getCompiledReport();
+        assertEquals(layer2Tiff.toURI().toString(), otherReport.getProperty(ImagesSubReport.GRAPHICS_PROPERTY));
+        assertEquals("300", otherReport.getProperty(Renderable.PROPERTY_IMAGE_DPI));
+        assertEquals(Joiner.on('\n').join(layerImages), jasperReport.getProperty(ImagesSubReport.GRAPHICS_PROPERTY));
+    }
+
+    @Test
+    public void testRenderer() throws Exception {
+        final File directory = folder.newFolder();
+        final URI layer0 = new File(directory, "layer_0.png").toURI();
+        final BufferedImage layerImage = new BufferedImage(40, 50, BufferedImage.TYPE_4BYTE_ABGR);
+        final Graphics2D layerGraphics = layerImage.createGraphics();
+        layerGraphics.setColor(Color.RED);
+        layerGraphics.fillRect(0, 0, 40, 50);
+        layerGraphics.dispose();
+        InMemoryImageRenderer.register(layer0, layerImage);
+        try {
+            JasperReport report = new ImagesSubReport(Lists.newArrayList(layer0), new Dimension(40, 50), 72)
+                    .getCompiledReport();
+            final Renderable renderer = ImagesSubReport.getRenderer(report);
+
+            final BufferedImage image = new BufferedImage(40, 50, BufferedImage.TYPE_INT_ARGB);
+            final Graphics2D graphics = image.createGraphics();
+            try {
+                renderer.render(null, graphics, new Rectangle(0, 0, 40, 50));
+            } finally {
+                graphics.dispose();
+            }
+            assertEquals(Color.RED.getRGB(), image.getRGB(20, 25));
+        } finally {
+            InMemoryImageRenderer.unregisterAll(directory);
+        }
     }
 
+    @Test
+    public void testFileRenderer() throws Exception {
+        final File layer0 = folder.newFile("layer_0.png");
+        final BufferedImage layerImage = new BufferedImage(40, 50, BufferedImage.TYPE_4BYTE_ABGR);
+        final Graphics2D layerGraphics = layerImage.createGraphics();
+        layerGraphics.setColor(Color.RED);
+        layerGraphics.fillRect(0, 0, 40, 50);
+        layerGraphics.dispose();
+        ImageIO.write(layerImage, "png", layer0);
+
+        JasperReport report = new ImagesSubReport(Lists.newArrayList(layer0.toURI()), new Dimension(40, 50), 72)
+                .getCompiledReport();
+        final Renderable renderer = ImagesSubReport.getRenderer(report);
+
+        final BufferedImage image = new BufferedImage(40, 50, BufferedImage.TYPE_INT_ARGB);
+        final Graphics2D graphics = image.createGraphics();
+        try {
+            renderer.render(DefaultJasperReportsContext.getInstance(), graphics, new Rectangle(0, 0, 40, 50));
+        } finally {
+            graphics.dispose();
+        }
+        assertEquals(Color.RED.getRGB(), image.getRGB(20, 25));
+    }
 }
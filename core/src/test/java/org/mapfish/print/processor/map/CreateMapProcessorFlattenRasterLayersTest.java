@@ -0,0 +1,177 @@
+/*
+ * Copyright (C) 2014  Camptocamp
+ *
+ * This file is part of MapFish Print
+ *
+ * MapFish Print is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MapFish Print is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MapFish Print.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.mapfish.print.processor.map;
+
+import com.google.common.base.Predicate;
+import com.google.common.collect.ImmutableMap;
+import org.junit.Test;
+import org.mapfish.print.AbstractMapfishSpringTest;
+import org.mapfish.print.TestHttpClientFactory;
+import org.mapfish.print.URIUtils;
+import org.mapfish.print.config.Configuration;
+import org.mapfish.print.config.ConfigurationFactory;
+import org.mapfish.print.config.Template;
+import org.mapfish.print.output.Values;
+import org.mapfish.print.parser.MapfishParser;
+import org.mapfish.print.processor.Processor;
+import org.mapfish.print.wrapper.json.PJsonObject;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpMethod;
+import org.springframework.mock.http.client.MockClientHttpRequest;
+import org.springframework.test.annotation.DirtiesContext;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.net.URI;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import javax.imageio.ImageIO;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test the flattenRasterLayers option of the map processor: the adjacent raster layers are rendered in the same image, the
+ * SVG layers stay alone.
+ */
+public class CreateMapProcessorFlattenRasterLayersTest extends AbstractMapfishSpringTest {
+    public static final String BASE_DIR = "flatten_raster_layers/";
+    private static final String HOST = "flatten_raster_layers.wms";
+    private static final int MAP_WIDTH = 200;
+    private static final int MAP_HEIGHT = 100;
+    // each WMS layer fills a vertical stripe of the map, the SVG layer fills the stripe at x=80-120.
+    private static final Map<String, Integer> STRIPES = ImmutableMap.of("a", 0, "b", 40, "d", 120, "e", 160);
+    private static final int STRIPE_WIDTH = 40;
+    private static final int SVG_STRIPE = 80;
+
+    @Autowired
+    private ConfigurationFactory configurationFactory;
+    @Autowired
+    private TestHttpClientFactory requestFactory;
+    @Autowired
+    private MapfishParser parser;
+
+    @Test
+    @DirtiesContext
+    public void testFlatten() throws Exception {
+        registerWmsHandler();
+        final List<URI> layerGraphics = render(true);
+
+        // the layers from bottom to top are e, d, svg, b and a
+        assertEquals(3, layerGraphics.size());
+        assertRaster(layerGraphics.get(0), 0, "e", "d");
+        assertSvg(layerGraphics.get(1), 2);
+        assertRaster(layerGraphics.get(2), 3, "b", "a");
+    }
+
+    @Test
+    @DirtiesContext
+    public void testNoFlatten() throws Exception {
+        registerWmsHandler();
+        final List<URI> layerGraphics = render(false);
+
+        assertEquals(5, layerGraphics.size());
+        assertRaster(layerGraphics.get(0), 0, "e");
+        assertRaster(layerGraphics.get(1), 1, "d");
+        assertSvg(layerGraphics.get(2), 2);
+        assertRaster(layerGraphics.get(3), 3, "b");
+        assertRaster(layerGraphics.get(4), 4, "a");
+    }
+
+    private List<URI> render(final boolean flattenRasterLayers) throws Exception {
+        final Configuration config = this.configurationFactory.getConfig(getFile(BASE_DIR + "config.yaml"));
+        final Template template = config.getTemplate("main");
+        for (Processor processor : template.getProcessors()) {
+            if (processor instanceof CreateMapProcessor) {
+                ((CreateMapProcessor) processor).setFlattenRasterLayers(flattenRasterLayers);
+            }
+        }
+        final PJsonObject requestData = parseJSONObjectFromFile(CreateMapProcessorFlattenRasterLayersTest.class,
+                BASE_DIR + "requestData.json");
+        final Values values = new Values(requestData, template, this.parser, getTaskDirectory(), this.requestFactory, new File("."));
+        template.getProcessorGraph().createTask(values).invoke();
+
+        @SuppressWarnings("unchecked")
+        List<URI> layerGraphics = (List<URI>) values.getObject("layerGraphics", List.class);
+        return layerGraphics;
+    }
+
+    private void assertRaster(final URI graphic, final int index, final String... layers) throws Exception {
+        final File file = new File(graphic);
+        assertTrue(file.getName(), file.getName().endsWith("_layer_" + index + ".png"));
+        final BufferedImage image = ImageIO.read(file);
+        final int y = MAP_HEIGHT / 2;
+        for (Map.Entry<String, Integer> stripe : STRIPES.entrySet()) {
+            final int alpha = image.getRGB(stripe.getValue() + STRIPE_WIDTH / 2, y) >>> 24;
+            final boolean expected = Arrays.asList(layers).contains(stripe.getKey());
+            assertEquals(file.getName() + " layer " + stripe.getKey(), expected, alpha > 0);
+        }
+        assertEquals(file.getName() + " SVG layer", 0, image.getRGB(SVG_STRIPE + STRIPE_WIDTH / 2, y) >>> 24);
+    }
+
+    private void assertSvg(final URI graphic, final int index) {
+        final File file = new File(graphic);
+        assertTrue(file.getName(), file.getName().endsWith("_layer_" + index + ".svg"));
+        assertTrue(file.getName(), file.length() > 0);
+    }
+
+    private void registerWmsHandler() {
+        this.requestFactory.registerHandler(
+                new Predicate<URI>() {
+                    @Override
+                    public boolean apply(URI input) {
+                        return HOST.equals(input.getHost());
+                    }
+                }, new TestHttpClientFactory.Handler() {
+                    @Override
+                    public MockClientHttpRequest handleRequest(URI uri, HttpMethod httpMethod) throws Exception {
+                        Integer stripe = null;
+                        for (Map.Entry<String, String> entry : URIUtils.getParameters(uri).entries()) {
+                            if (entry.getKey().equalsIgnoreCase("LAYERS")) {
+                                stripe = STRIPES.get(entry.getValue());
+                            }
+                        }
+                        if (stripe == null) {
+                            return error404(uri, httpMethod);
+                        }
+                        return ok(uri, createImage(stripe), httpMethod);
+                    }
+                }
+        );
+    }
+
+    private static byte[] createImage(final int stripe) throws Exception {
+        final BufferedImage image = new BufferedImage(MAP_WIDTH, MAP_HEIGHT, BufferedImage.TYPE_INT_ARGB);
+        final Graphics2D graphics = image.createGraphics();
+        try {
+            graphics.setColor(Color.RED);
+            graphics.fillRect(stripe, 0, STRIPE_WIDTH, MAP_HEIGHT);
+        } finally {
+            graphics.dispose();
+        }
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", out);
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,204 @@
+/*
+ * Copyright (C) 2014  Camptocamp
+ *
+ * This file is part of MapFish Print
+ *
+ * MapFish Print is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MapFish Print is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MapFish Print.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.mapfish.print.processor.map;
+
+import com.google.common.base.Predicate;
+import com.google.common.collect.ImmutableMap;
+import org.junit.Test;
+import org.mapfish.print.AbstractMapfishSpringTest;
+import org.mapfish.print.TestHttpClientFactory;
+import org.mapfish.print.URIUtils;
+import org.mapfish.print.config.Configuration;
+import org.mapfish.print.config.ConfigurationFactory;
+import org.mapfish.print.config.Template;
+import org.mapfish.print.output.Values;
+import org.mapfish.print.parser.MapfishParser;
+import org.mapfish.print.processor.Processor;
+import org.mapfish.print.wrapper.json.PJsonObject;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpMethod;
+import org.springframework.mock.http.client.MockClientHttpRequest;
+import org.springframework.test.annotation.DirtiesContext;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.net.URI;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.imageio.ImageIO;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Test the rendering of the layers in parallel by the map processor: the order of the layer graphics, the number of layers
+ * rendered at the same time and the failure of a layer.
+ */
+public class CreateMapProcessorParallelLayersTest extends AbstractMapfishSpringTest {
+    public static final String BASE_DIR = "parallel_layers/";
+    private static final String HOST = "parallel_layers.wms";
+    private static final int MAP_WIDTH = 200;
+    private static final int MAP_HEIGHT = 100;
+    private static final Map<String, Color> COLORS = ImmutableMap.of(
+            "red", Color.RED, "green", Color.GREEN, "blue", Color.BLUE, "yellow", Color.YELLOW, "white", Color.WHITE);
+    // the layers of requestData.json from bottom to top
+    private static final String[] LAYERS = {"white", "yellow", "blue", "green", "red"};
+
+    @Autowired
+    private ConfigurationFactory configurationFactory;
+    @Autowired
+    private TestHttpClientFactory requestFactory;
+    @Autowired
+    private MapfishParser parser;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger maxInFlight = new AtomicInteger();
+
+    @Test
+    @DirtiesContext
+    public void testOneLayerAtATime() throws Exception {
+        registerWmsHandler();
+        final List<URI> layerGraphics = render("requestData.json", 1, Long.MAX_VALUE);
+
+        assertLayerGraphics(layerGraphics);
+        assertEquals(1, this.maxInFlight.get());
+    }
+
+    @Test
+    @DirtiesContext
+    public void testAllLayersInParallel() throws Exception {
+        registerWmsHandler();
+        final List<URI> layerGraphics = render("requestData.json", LAYERS.length, Long.MAX_VALUE);
+
+        assertLayerGraphics(layerGraphics);
+        assertTrue("max in flight: " + this.maxInFlight.get(), this.maxInFlight.get() > 1);
+        assertTrue("max in flight: " + this.maxInFlight.get(), this.maxInFlight.get() <= LAYERS.length);
+    }
+
+    @Test
+    @DirtiesContext
+    public void testMemoryLimit() throws Exception {
+        registerWmsHandler();
+        // enough memory for the images of two layers
+        final List<URI> layerGraphics = render("requestData.json", LAYERS.length, 2L * MAP_WIDTH * MAP_HEIGHT * 4);
+
+        assertLayerGraphics(layerGraphics);
+        assertTrue("max in flight: " + this.maxInFlight.get(), this.maxInFlight.get() <= 2);
+    }
+
+    @Test
+    @DirtiesContext
+    public void testFailingLayer() throws Exception {
+        registerWmsHandler();
+        try {
+            render("requestDataMissingLayer.json", 2, Long.MAX_VALUE);
+            fail("The map should not be rendered with a missing layer");
+        } catch (RuntimeException e) {
+            boolean found = false;
+            for (Throwable cause = e; cause != null && !found; cause = cause.getCause()) {
+                found = String.valueOf(cause.getMessage()).contains("missing");
+            }
+            assertTrue("The error of the missing layer is not reported: " + e, found);
+        }
+    }
+
+    private List<URI> render(final String requestFile, final int maxParallelLayers, final long maxParallelLayersMemory)
+            throws Exception {
+        final Configuration config = this.configurationFactory.getConfig(getFile(BASE_DIR + "config.yaml"));
+        final Template template = config.getTemplate("main");
+        for (Processor processor : template.getProcessors()) {
+            if (processor instanceof CreateMapProcessor) {
+                ((CreateMapProcessor) processor).setMaxParallelLayers(maxParallelLayers);
+                ((CreateMapProcessor) processor).setMaxParallelLayersMemory(maxParallelLayersMemory);
+            }
+        }
+        final PJsonObject requestData = parseJSONObjectFromFile(CreateMapProcessorParallelLayersTest.class, BASE_DIR + requestFile);
+        final Values values = new Values(requestData, template, this.parser, getTaskDirectory(), this.requestFactory, new File("."));
+        template.getProcessorGraph().createTask(values).invoke();
+
+        @SuppressWarnings("unchecked")
+        List<URI> layerGraphics = (List<URI>) values.getObject("layerGraphics", List.class);
+        return layerGraphics;
+    }
+
+    private void assertLayerGraphics(final List<URI> layerGraphics) throws Exception {
+        assertEquals(LAYERS.length, layerGraphics.size());
+        for (int i = 0; i < LAYERS.length; i++) {
+            final File file = new File(layerGraphics.get(i));
+            assertTrue(file.getName(), file.getName().endsWith("_layer_" + i + ".png"));
+            final BufferedImage image = ImageIO.read(file);
+            assertEquals(LAYERS[i], COLORS.get(LAYERS[i]).getRGB(), image.getRGB(MAP_WIDTH / 2, MAP_HEIGHT / 2));
+        }
+    }
+
+    private void registerWmsHandler() {
+        this.requestFactory.registerHandler(
+                new Predicate<URI>() {
+                    @Override
+                    public boolean apply(URI input) {
+                        return HOST.equals(input.getHost());
+                    }
+                }, new TestHttpClientFactory.Handler() {
+                    @Override
+                    public MockClientHttpRequest handleRequest(URI uri, HttpMethod httpMethod) throws Exception {
+                        String layer = null;
+                        for (Map.Entry<String, String> entry : URIUtils.getParameters(uri).entries()) {
+                            if (entry.getKey().equalsIgnoreCase("LAYERS")) {
+                                layer = entry.getValue();
+                            }
+                        }
+                        final int current = inFlight.incrementAndGet();
+                        try {
+                            synchronized (maxInFlight) {
+                                maxInFlight.set(Math.max(maxInFlight.get(), current));
+                            }
+                            Thread.sleep(100);
+                            final Color color = COLORS.get(layer);
+                            if (color == null) {
+                                return error404(uri, httpMethod);
+                            }
+                            return ok(uri, createImage(color), httpMethod);
+                        } finally {
+                            inFlight.decrementAndGet();
+                        }
+                    }
+                }
+        );
+    }
+
+    private static byte[] createImage(final Color color) throws Exception {
+        final BufferedImage image = new BufferedImage(MAP_WIDTH, MAP_HEIGHT, BufferedImage.TYPE_INT_ARGB);
+        final Graphics2D graphics = image.createGraphics();
+        try {
+            graphics.setColor(color);
+            graphics.fillRect(0, 0, MAP_WIDTH, MAP_HEIGHT);
+        } finally {
+            graphics.dispose();
+        }
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", out);
+        return out.toByteArray();
+    }
+}